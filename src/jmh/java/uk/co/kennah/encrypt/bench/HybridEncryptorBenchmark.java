@@ -0,0 +1,102 @@
+package uk.co.kennah.encrypt.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.co.kennah.encrypt.HybridEncryptor;
+import uk.co.kennah.encrypt.RandomAccessDecryptor;
+import uk.co.kennah.encrypt.utils.KeGenAES;
+import uk.co.kennah.encrypt.utils.KeGenRSA;
+import uk.co.kennah.encrypt.utils.PrivateKeyRSA;
+import uk.co.kennah.encrypt.utils.PublicKeyRSA;
+
+import javax.crypto.SecretKey;
+import java.math.BigInteger;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The full hybrid round trip with a 2048-bit key, across payload sizes from 16 B to 1 GB.
+ * The larger sizes need a big heap (several copies of the payload are live at once),
+ * hence the -Xmx on the fork; trim the sizes with -p payloadSize=... on smaller machines.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class HybridEncryptorBenchmark {
+
+    @Param({"16", "1024", "65536", "1048576", "67108864", "1073741824"})
+    public int payloadSize;
+
+    private SecretKey aesKey;
+    private BigInteger e;
+    private BigInteger n;
+    private PrivateKeyRSA privateKey;
+    private byte[] message;
+    private byte[] ciphertext;
+    private RandomAccessDecryptor randomAccess;
+    private PublicKeyRSA publicKey;
+    private byte[] encryptBuffer; // caller-owned buffers for the exact-size paths
+    private byte[] decryptBuffer;
+
+    @Setup
+    public void setUp() throws Exception {
+        KeGenRSA keyPair = new KeGenRSA(2048);
+        e = keyPair.getPublicKey();
+        n = keyPair.getModulus();
+        privateKey = keyPair.getPrivateKeyRSA();
+        aesKey = KeGenAES.generateKey(128);
+        message = new byte[payloadSize];
+        new Random(payloadSize).nextBytes(message);
+        ciphertext = HybridEncryptor.encrypt(message, aesKey, e, n);
+        randomAccess = RandomAccessDecryptor.open(ciphertext, privateKey);
+        publicKey = keyPair.getPublicKeyRSA();
+        encryptBuffer = new byte[HybridEncryptor.encryptedSize(payloadSize, publicKey)];
+        decryptBuffer = new byte[HybridEncryptor.maxDecryptedSize(ciphertext.length, privateKey)];
+    }
+
+    @Benchmark
+    public byte[] encrypt() throws Exception {
+        return HybridEncryptor.encrypt(message, aesKey, e, n);
+    }
+
+    @Benchmark
+    public byte[] decrypt() throws Exception {
+        return HybridEncryptor.decrypt(ciphertext, privateKey);
+    }
+
+    @Benchmark
+    public int encryptInto() throws Exception {
+        return HybridEncryptor.encryptInto(message, 0, message.length, aesKey, publicKey, encryptBuffer, 0);
+    }
+
+    @Benchmark
+    public int decryptInto() throws Exception {
+        return HybridEncryptor.decryptInto(ciphertext, 0, ciphertext.length, privateKey, decryptBuffer, 0);
+    }
+
+    @Benchmark
+    public byte[] decryptParallel() throws Exception {
+        return RandomAccessDecryptor.decrypt(ciphertext, privateKey);
+    }
+
+    /**
+     * Up to 4 KB from the middle of an already opened payload: AES only, however large the payload.
+     */
+    @Benchmark
+    public byte[] decryptRange() throws Exception {
+        long from = randomAccess.length() / 2;
+        return randomAccess.read(from, Math.min(randomAccess.length(), from + 4096));
+    }
+}
@@ -0,0 +1,101 @@
+package uk.co.kennah.encrypt.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.co.kennah.encrypt.HybridEncryptor;
+import uk.co.kennah.encrypt.utils.KeGenAES;
+import uk.co.kennah.encrypt.utils.KeGenRSA;
+import uk.co.kennah.encrypt.utils.KemRSA;
+import uk.co.kennah.encrypt.utils.PaddedRSA;
+import uk.co.kennah.encrypt.utils.PrivateKeyRSA;
+import uk.co.kennah.encrypt.utils.PublicKeyRSA;
+import uk.co.kennah.encrypt.utils.RandomSource;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The RSA-KEM format against the PKCS#1 v1.5 one: producing and recovering the AES key on its
+ * own, and whole small-message round trips where that step dominates. Payload sizes differ by
+ * the IV field the KEM format drops; compare them with {@code -prof gc} alongside the times.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class KemBenchmark {
+
+    @Param({"2048", "4096"})
+    public int keyBits;
+
+    @Param({"PKCS1", "KEM"})
+    public HybridEncryptor.Format format;
+
+    @Param({"16", "1024"})
+    public int messageSize;
+
+    private PublicKeyRSA publicKey;
+    private PrivateKeyRSA privateKey;
+    private byte[] message;
+    private byte[] payload;
+    private byte[] wrapped;
+    private byte[] scratch;
+
+    @Setup
+    public void setUp() throws Exception {
+        KeGenRSA keyPair = new KeGenRSA(keyBits);
+        publicKey = keyPair.getPublicKeyRSA();
+        privateKey = keyPair.getPrivateKeyRSA();
+        message = new byte[messageSize];
+        new Random(42).nextBytes(message);
+        payload = HybridEncryptor.encrypt(message, publicKey, format);
+        wrapped = new byte[publicKey.getByteLength()];
+        scratch = new byte[publicKey.getByteLength()];
+        wrapKey();
+    }
+
+    /**
+     * A fresh AES key and its RSA block: generate and pad, or encapsulate and derive.
+     */
+    @Benchmark
+    public byte[] wrapKey() {
+        if (format == HybridEncryptor.Format.KEM) {
+            return KemRSA.encapsulate(publicKey, RandomSource.shared(), wrapped, 0);
+        }
+        byte[] key = KeGenAES.generateKey(128).getEncoded();
+        PaddedRSA.encrypt(key, 0, key.length, publicKey, RandomSource.shared(), wrapped, 0);
+        return wrapped;
+    }
+
+    /**
+     * Recovering the AES key from its RSA block: decrypt and unpad, or decapsulate and derive.
+     */
+    @Benchmark
+    public Object unwrapKey() {
+        if (format == HybridEncryptor.Format.KEM) {
+            return KemRSA.decapsulate(wrapped, 0, privateKey);
+        }
+        return PaddedRSA.decrypt(wrapped, 0, privateKey, scratch, 0);
+    }
+
+    @Benchmark
+    public byte[] encrypt() throws Exception {
+        return HybridEncryptor.encrypt(message, publicKey, format);
+    }
+
+    @Benchmark
+    public byte[] decrypt() throws Exception {
+        return HybridEncryptor.decrypt(payload, privateKey, format);
+    }
+}
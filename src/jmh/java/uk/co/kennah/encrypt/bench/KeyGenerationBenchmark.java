@@ -0,0 +1,51 @@
+package uk.co.kennah.encrypt.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.co.kennah.encrypt.utils.KeGenAES;
+import uk.co.kennah.encrypt.utils.KeGenRSA;
+
+import javax.crypto.SecretKey;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Key generation: KeGenRSA construction per bit length, and KeGenAES.generateKey per key size.
+ * RSA times are dominated by the prime search, so expect wide error bars.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class KeyGenerationBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class RsaParams {
+        @Param({"1024", "2048", "3072", "4096"})
+        public int rsaBitLength;
+    }
+
+    @State(Scope.Benchmark)
+    public static class AesParams {
+        @Param({"128", "192", "256"})
+        public int aesBitLength;
+    }
+
+    @Benchmark
+    public KeGenRSA keGenRSA(RsaParams params) {
+        return new KeGenRSA(params.rsaBitLength);
+    }
+
+    @Benchmark
+    public SecretKey keGenAES(AesParams params) {
+        return KeGenAES.generateKey(params.aesBitLength);
+    }
+}
@@ -0,0 +1,79 @@
+package uk.co.kennah.encrypt.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.co.kennah.encrypt.HybridEncryptor;
+import uk.co.kennah.encrypt.MultiRecipientEncryptor;
+import uk.co.kennah.encrypt.utils.KeGenAES;
+import uk.co.kennah.encrypt.utils.KeGenRSA;
+import uk.co.kennah.encrypt.utils.PrivateKeyRSA;
+import uk.co.kennah.encrypt.utils.PublicKeyRSA;
+
+import javax.crypto.SecretKey;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sending one 16 MB message to N recipients with 2048-bit keys: the multi-recipient format,
+ * which encrypts the body once, against one ordinary hybrid message per recipient.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class MultiRecipientBenchmark {
+
+    @Param({"1", "10", "40"})
+    public int recipients;
+
+    private final List<PublicKeyRSA> publicKeys = new ArrayList<>();
+    private PrivateKeyRSA lastRecipient;
+    private SecretKey aesKey;
+    private byte[] message;
+    private byte[] payload;
+
+    @Setup
+    public void setUp() throws Exception {
+        for (int i = 0; i < recipients; i++) {
+            KeGenRSA keyPair = new KeGenRSA(2048);
+            publicKeys.add(keyPair.getPublicKeyRSA());
+            lastRecipient = keyPair.getPrivateKeyRSA();
+        }
+        aesKey = KeGenAES.generateKey(128);
+        message = new byte[16 * 1024 * 1024];
+        new Random(42).nextBytes(message);
+        payload = MultiRecipientEncryptor.encrypt(message, aesKey, publicKeys);
+    }
+
+    @Benchmark
+    public byte[] encryptOnce() throws Exception {
+        return MultiRecipientEncryptor.encrypt(message, aesKey, publicKeys);
+    }
+
+    @Benchmark
+    public int encryptPerRecipient() throws Exception {
+        int total = 0;
+        for (PublicKeyRSA publicKey : publicKeys) {
+            total += HybridEncryptor.encrypt(message, aesKey, publicKey).length;
+        }
+        return total;
+    }
+
+    @Benchmark
+    public byte[] decrypt() throws Exception {
+        return MultiRecipientEncryptor.decrypt(payload, lastRecipient);
+    }
+}
@@ -0,0 +1,71 @@
+package uk.co.kennah.encrypt.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.co.kennah.encrypt.utils.SievedPrimeGenerator;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares BigInteger.probablePrime (what KeGenRSA uses by default) with the sieved generator,
+ * for the primes of 2048, 3072 and 4096-bit keys. Prime search times vary a lot from run to run,
+ * so this uses many short iterations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 10, time = 5)
+@Fork(1)
+public class PrimeGenerationBenchmark {
+
+    @Param({"2048", "3072", "4096"})
+    public int keyBitLength;
+
+    private final SecureRandom random = new SecureRandom();
+    private SievedPrimeGenerator sieved;
+    private SievedPrimeGenerator sievedParallel;
+    private ExecutorService executor;
+
+    @Setup
+    public void setUp() {
+        int threads = Runtime.getRuntime().availableProcessors();
+        executor = Executors.newFixedThreadPool(threads);
+        sieved = new SievedPrimeGenerator();
+        sievedParallel = new SievedPrimeGenerator(SievedPrimeGenerator.DEFAULT_WINDOW_SIZE, executor, threads);
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public BigInteger probablePrime() {
+        return BigInteger.probablePrime(keyBitLength / 2, random);
+    }
+
+    @Benchmark
+    public BigInteger sieved() {
+        return sieved.generate(keyBitLength / 2, random);
+    }
+
+    @Benchmark
+    public BigInteger sievedParallel() {
+        return sievedParallel.generate(keyBitLength / 2, random);
+    }
+}
@@ -0,0 +1,124 @@
+package uk.co.kennah.encrypt.utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PaddedRSA wrap and unwrap of a 16-byte AES key, per key size, including the plain
+ * c^d mod n decryption against the CRT path and the padding steps on their own.
+ * The CRT key is blinded, as KeGenRSA builds it; decryptCrtUnblinded shows what blinding costs.
+ * The *Into variants use the caller-supplied buffer API; compare their gc.alloc.rate.norm
+ * against the array variants to see the temporary copies saved.
+ * Lives in the utils package so it can reach the package-private pad and unpad.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PaddedRSABenchmark {
+
+    @Param({"1024", "2048", "3072", "4096"})
+    public int bitLength;
+
+    private final SecureRandom random = new SecureRandom();
+    private final byte[] aesKey = new byte[16];
+    private BigInteger e;
+    private BigInteger d;
+    private BigInteger n;
+    private PrivateKeyRSA crtKey;
+    private PrivateKeyRSA unblindedKey;
+    private PublicKeyRSA publicKey;
+    private BigInteger ciphertext;
+    private byte[] padded;
+    private int keyByteLength;
+    private byte[] wrapped;
+    private byte[] buffer;
+
+    @Setup
+    public void setUp() {
+        KeGenRSA keyPair = new KeGenRSA(bitLength);
+        e = keyPair.getPublicKey();
+        d = keyPair.getPrivateKey();
+        n = keyPair.getModulus();
+        crtKey = keyPair.getPrivateKeyRSA();
+        unblindedKey = new PrivateKeyRSA(n, d, crtKey.getP(), crtKey.getQ());
+        publicKey = keyPair.getPublicKeyRSA();
+        random.nextBytes(aesKey);
+        ciphertext = PaddedRSA.encrypt(aesKey, e, n);
+        keyByteLength = (n.bitLength() + 7) / 8;
+        padded = PaddedRSA.pad(aesKey, keyByteLength, random);
+        wrapped = new byte[keyByteLength];
+        PaddedRSA.toFixedSize(ciphertext, wrapped, 0, keyByteLength);
+        buffer = new byte[keyByteLength];
+    }
+
+    @Benchmark
+    public BigInteger encrypt() {
+        return PaddedRSA.encrypt(aesKey, e, n, random);
+    }
+
+    @Benchmark
+    public BigInteger encryptPrepared() {
+        return PaddedRSA.encrypt(aesKey, publicKey, random);
+    }
+
+    @Benchmark
+    public byte[] decryptPlainModPow() {
+        return PaddedRSA.decrypt(ciphertext, d, n);
+    }
+
+    @Benchmark
+    public byte[] decryptCrt() {
+        return PaddedRSA.decrypt(ciphertext, crtKey);
+    }
+
+    @Benchmark
+    public byte[] decryptCrtUnblinded() {
+        return PaddedRSA.decrypt(ciphertext, unblindedKey);
+    }
+
+    @Benchmark
+    public byte[] pad() {
+        return PaddedRSA.pad(aesKey, keyByteLength, random);
+    }
+
+    @Benchmark
+    public byte[] unpad() {
+        return PaddedRSA.unpad(padded);
+    }
+
+    @Benchmark
+    public int encryptInto() {
+        return PaddedRSA.encrypt(aesKey, 0, aesKey.length, publicKey, random, buffer, 0);
+    }
+
+    @Benchmark
+    public int decryptCrtInto() {
+        return PaddedRSA.decrypt(wrapped, 0, crtKey, buffer, 0);
+    }
+
+    @Benchmark
+    public int padInto() {
+        return PaddedRSA.pad(aesKey, 0, aesKey.length, buffer, 0, keyByteLength, random);
+    }
+
+    @Benchmark
+    public int unpadInto() {
+        return PaddedRSA.unpad(padded, 0, keyByteLength, buffer, 0);
+    }
+}
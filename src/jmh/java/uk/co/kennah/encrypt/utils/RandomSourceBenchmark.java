@@ -0,0 +1,80 @@
+package uk.co.kennah.encrypt.utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.crypto.SecretKey;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The random bytes behind every message, from four threads at once: a 16-byte IV, a 128-bit
+ * AES key and the non-zero padding of a 2048-bit RSA block. Each is drawn from a new
+ * SecureRandom per call (the old behaviour), one SecureRandom shared by all threads, and
+ * RandomSource's per-thread buffers.
+ * Lives in the utils package so it can reach the package-private pad.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class RandomSourceBenchmark {
+
+    private final SecureRandom sharedSecureRandom = new SecureRandom();
+    private final byte[] aesKey = new byte[16];
+
+    @State(Scope.Thread)
+    public static class Buffers {
+        final byte[] iv = new byte[16];
+        final byte[] block = new byte[256];
+    }
+
+    @Benchmark
+    public byte[] ivNewSecureRandom(Buffers buffers) {
+        new SecureRandom().nextBytes(buffers.iv);
+        return buffers.iv;
+    }
+
+    @Benchmark
+    public byte[] ivSharedSecureRandom(Buffers buffers) {
+        sharedSecureRandom.nextBytes(buffers.iv);
+        return buffers.iv;
+    }
+
+    @Benchmark
+    public byte[] ivRandomSource(Buffers buffers) {
+        RandomSource.shared().nextBytes(buffers.iv);
+        return buffers.iv;
+    }
+
+    @Benchmark
+    public SecretKey aesKeyNewSecureRandom() {
+        return KeGenAES.generateKey(128, new SecureRandom());
+    }
+
+    @Benchmark
+    public SecretKey aesKeyRandomSource() {
+        return KeGenAES.generateKey(128);
+    }
+
+    @Benchmark
+    public int padSharedSecureRandom(Buffers buffers) {
+        return PaddedRSA.pad(aesKey, 0, aesKey.length, buffers.block, 0, 256, sharedSecureRandom);
+    }
+
+    @Benchmark
+    public int padRandomSource(Buffers buffers) {
+        return PaddedRSA.pad(aesKey, 0, aesKey.length, buffers.block, 0, 256, RandomSource.shared());
+    }
+}
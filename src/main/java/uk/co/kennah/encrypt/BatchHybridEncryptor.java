@@ -0,0 +1,139 @@
+package uk.co.kennah.encrypt;
+
+import uk.co.kennah.encrypt.utils.KeGenAES;
+import uk.co.kennah.encrypt.utils.PrivateKeyRSA;
+import uk.co.kennah.encrypt.utils.PublicKeyRSA;
+import uk.co.kennah.encrypt.utils.RandomSource;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Encrypts and decrypts batches of hybrid messages across an executor.
+ * The static {@link HybridEncryptor} methods look up a new {@link Cipher} on every call. Here each
+ * worker thread keeps its own cipher for the lifetime of this instance, so a batch does not pay for
+ * that per message, and the threads never share (or contend on) them. Random bytes come from the
+ * per-thread buffers of {@link RandomSource}. Each message still gets its own one-time AES key and IV.
+ * The output is the ordinary {@link HybridEncryptor} format.
+ */
+public class BatchHybridEncryptor {
+
+    private final ExecutorService executor;
+    private final int parallelism;
+    private final ThreadLocal<Cipher> aesCipher = ThreadLocal.withInitial(BatchHybridEncryptor::newAesCipher);
+
+    /**
+     * @param executor    The executor the batches run on. It is not shut down by this class.
+     * @param parallelism The number of slices a batch is split into, normally the executor's thread count.
+     */
+    public BatchHybridEncryptor(ExecutorService executor, int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+        }
+        this.executor = executor;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Encrypts every message for one recipient, each under its own one-time AES key.
+     *
+     * @param messages The plaintext messages to encrypt.
+     * @param e        The public RSA exponent.
+     * @param n        The public RSA modulus.
+     * @return The hybrid payloads, in the same order as the messages.
+     * @throws Exception if any encryption fails.
+     */
+    public List<byte[]> encryptAll(List<byte[]> messages, BigInteger e, BigInteger n) throws Exception {
+        return encryptAll(messages, new PublicKeyRSA(e, n));
+    }
+
+    /**
+     * Encrypts every message for one recipient, each under its own one-time AES key.
+     *
+     * @param messages  The plaintext messages to encrypt.
+     * @param publicKey The recipient's public RSA key.
+     * @return The hybrid payloads, in the same order as the messages.
+     * @throws Exception if any encryption fails.
+     */
+    public List<byte[]> encryptAll(List<byte[]> messages, PublicKeyRSA publicKey) throws Exception {
+        return runAll(messages, message -> {
+            SecureRandom rng = RandomSource.shared();
+            SecretKey aesKey = KeGenAES.generateKey(128, rng);
+            byte[] encryptedAesKeyBytes = HybridEncryptor.wrapKey(aesKey, publicKey, rng);
+            return HybridEncryptor.encrypt(message, aesKey, encryptedAesKeyBytes, aesCipher.get(), rng);
+        });
+    }
+
+    /**
+     * Decrypts every payload with one private key.
+     *
+     * @param payloads   The hybrid payloads to decrypt.
+     * @param privateKey The private RSA key with its CRT components.
+     * @return The plaintext messages, in the same order as the payloads.
+     * @throws Exception if any decryption fails.
+     */
+    public List<byte[]> decryptAll(List<byte[]> payloads, PrivateKeyRSA privateKey) throws Exception {
+        int keyByteLength = privateKey.getByteLength();
+        return runAll(payloads, payload -> {
+            SecretKey aesKey = HybridEncryptor.unwrapKey(payload, privateKey);
+            return HybridEncryptor.decrypt(payload, keyByteLength, aesKey, aesCipher.get());
+        });
+    }
+
+    /**
+     * Splits the inputs into contiguous slices, one task per slice, and gathers the results in order.
+     */
+    private List<byte[]> runAll(List<byte[]> inputs, Operation operation) throws Exception {
+        byte[][] results = new byte[inputs.size()][];
+        int slices = Math.min(parallelism, inputs.size());
+        List<Future<?>> futures = new ArrayList<>(slices);
+        for (int slice = 0; slice < slices; slice++) {
+            int from = (int) ((long) inputs.size() * slice / slices);
+            int to = (int) ((long) inputs.size() * (slice + 1) / slices);
+            futures.add(executor.submit(() -> {
+                try {
+                    for (int i = from; i < to; i++) {
+                        results[i] = operation.apply(inputs.get(i));
+                    }
+                } catch (Exception ex) {
+                    // A Cipher whose init failed (e.g. on a garbage key) cannot choose a provider again, so drop it.
+                    aesCipher.remove();
+                    throw ex;
+                }
+                return null;
+            }));
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException ex) {
+            futures.forEach(future -> future.cancel(true));
+            if (ex.getCause() instanceof Exception) {
+                throw (Exception) ex.getCause();
+            }
+            throw ex;
+        }
+        return Arrays.asList(results);
+    }
+
+    private interface Operation {
+        byte[] apply(byte[] input) throws Exception;
+    }
+
+    private static Cipher newAesCipher() {
+        try {
+            return Cipher.getInstance(HybridEncryptor.AES_ALGORITHM);
+        } catch (Exception ex) {
+            throw new IllegalStateException("AES cipher unavailable: " + HybridEncryptor.AES_ALGORITHM, ex);
+        }
+    }
+}
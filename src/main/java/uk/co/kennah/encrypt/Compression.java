@@ -0,0 +1,252 @@
+package uk.co.kennah.encrypt;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.InflaterOutputStream;
+
+/**
+ * An optional compression stage applied to the message before AES, since ciphertext itself
+ * cannot be compressed. A compressed payload records the algorithm in a flags byte that is
+ * wrapped with the AES key, so {@link HybridEncryptor#decrypt} reverses it without being told,
+ * and uncompressed payloads stay byte-for-byte in the original format.
+ * <p>
+ * Before compressing, the first {@code sampleSize} bytes are deflated at the fastest level; if
+ * that saves less than a tenth, the message is taken to be incompressible (already compressed,
+ * encrypted or random) and is sent uncompressed, so CPU is not spent for nothing.
+ * <p>
+ * Decompression stops with an {@link IllegalArgumentException} once the output passes a limit.
+ * Decrypting to a byte array uses {@link #DEFAULT_MAX_INFLATED_SIZE} unless the caller gives its
+ * own, so a small payload that inflates to gigabytes cannot exhaust the heap; decrypting a stream
+ * is uncapped unless the caller asks, as its output goes straight to the caller's stream.
+ * Instances are immutable.
+ */
+public final class Compression {
+
+    /** No compression; the payload is in the original format. */
+    public static final Compression NONE = new Compression((byte) 0, 0, 0);
+
+    public static final int DEFAULT_SAMPLE_SIZE = 16 * 1024;
+
+    /** The most bytes a compressed payload decrypted to a byte array may inflate to, unless the caller says otherwise. */
+    public static final long DEFAULT_MAX_INFLATED_SIZE = 256L * 1024 * 1024;
+
+    static final byte DEFLATE = 1;
+    private static final int MIN_SAVING_PERCENT = 10;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final byte algorithm;
+    private final int level;
+    private final int sampleSize;
+
+    private Compression(byte algorithm, int level, int sampleSize) {
+        this.algorithm = algorithm;
+        this.level = level;
+        this.sampleSize = sampleSize;
+    }
+
+    /**
+     * @return Deflate at its default level, with adaptive sampling.
+     */
+    public static Compression deflate() {
+        return deflate(Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * @param level 1 (fastest) to 9 (smallest), or -1 for the default.
+     * @return Deflate at that level, with adaptive sampling.
+     */
+    public static Compression deflate(int level) {
+        if (level != Deflater.DEFAULT_COMPRESSION && (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION)) {
+            throw new IllegalArgumentException("Deflate level must be 1 to 9, or -1: " + level);
+        }
+        return new Compression(DEFLATE, level, DEFAULT_SAMPLE_SIZE);
+    }
+
+    /**
+     * @param newSampleSize The number of leading bytes to test, or 0 to always compress.
+     * @return a copy of this compression with a different sample size.
+     */
+    public Compression withSampleSize(int newSampleSize) {
+        if (newSampleSize < 0) {
+            throw new IllegalArgumentException("Sample size must not be negative: " + newSampleSize);
+        }
+        return new Compression(algorithm, level, newSampleSize);
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public int getSampleSize() {
+        return sampleSize;
+    }
+
+    /**
+     * @return the flags byte recorded for this compression; 0 for none.
+     */
+    byte flags() {
+        return algorithm;
+    }
+
+    /**
+     * Decides from a sample of the message whether compressing it is worthwhile.
+     *
+     * @param sample The message, or its first bytes.
+     * @param length How many bytes of {@code sample} there are.
+     */
+    boolean worthCompressing(byte[] sample, int length) {
+        if (algorithm == 0 || length == 0) {
+            return false;
+        }
+        int tested = Math.min(length, sampleSize);
+        if (tested == 0) {
+            return true; // sampling is off
+        }
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(sample, 0, tested);
+            deflater.finish();
+            // Only room for the most we would accept; running out of it means the sample did not shrink enough.
+            byte[] scratch = new byte[tested - tested * MIN_SAVING_PERCENT / 100];
+            int compressed = 0;
+            while (!deflater.finished() && compressed < scratch.length) {
+                compressed += deflater.deflate(scratch, compressed, scratch.length - compressed);
+            }
+            return deflater.finished() && compressed < scratch.length;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Compresses a whole message.
+     */
+    byte[] compress(byte[] message) {
+        Deflater deflater = new Deflater(level);
+        try {
+            deflater.setInput(message);
+            deflater.finish();
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(64, message.length / 4));
+            byte[] buffer = new byte[Math.min(BUFFER_SIZE, Math.max(64, message.length))];
+            while (!deflater.finished()) {
+                compressed.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return compressed.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * @return a stream of the compressed bytes of {@code in}; closing it releases the compressor
+     *         but does not close {@code in}.
+     */
+    InputStream compressing(InputStream in) {
+        Deflater deflater = new Deflater(level);
+        return new DeflaterInputStream(in, deflater, BUFFER_SIZE) {
+            @Override
+            public void close() {
+                deflater.end();
+            }
+        };
+    }
+
+    /**
+     * Reverses the compression recorded in a flags byte.
+     *
+     * @param maxInflatedSize The most bytes the body may inflate to.
+     * @throws IllegalArgumentException as soon as the output passes {@code maxInflatedSize}.
+     */
+    static byte[] decompress(byte flags, byte[] body, long maxInflatedSize) throws IOException {
+        checkFlags(flags);
+        Inflater inflater = new Inflater();
+        try (InputStream in = new InflaterInputStream(new ByteArrayInputStream(body), inflater, BUFFER_SIZE)) {
+            ByteArrayOutputStream inflated = new ByteArrayOutputStream((int) Math.min(maxInflatedSize, body.length * 4L + 64));
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long total = 0;
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                total += read;
+                if (total > maxInflatedSize) {
+                    throw tooLarge(maxInflatedSize);
+                }
+                inflated.write(buffer, 0, read);
+            }
+            return inflated.toByteArray();
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Returns a stream that decompresses what is written to it into {@code out}.
+     * Closing it checks the compressed data was complete and releases the decompressor,
+     * but does not close {@code out}.
+     *
+     * @param maxInflatedSize The most bytes that may be written to {@code out}.
+     * @throws IllegalArgumentException from {@code write} as soon as the output would pass {@code maxInflatedSize}.
+     */
+    static OutputStream decompressing(byte flags, OutputStream out, long maxInflatedSize) {
+        checkFlags(flags);
+        Inflater inflater = new Inflater();
+        return new InflaterOutputStream(limited(out, maxInflatedSize), inflater, BUFFER_SIZE) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    finish();
+                    if (!inflater.finished()) {
+                        throw new IOException("Compressed body is truncated");
+                    }
+                } finally {
+                    inflater.end();
+                }
+            }
+        };
+    }
+
+    /**
+     * @return {@code out} behind a count that refuses any write taking it past {@code maxSize}.
+     */
+    private static OutputStream limited(OutputStream out, long maxSize) {
+        return new FilterOutputStream(out) {
+            private long written;
+
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                written += len;
+                if (written > maxSize) {
+                    throw tooLarge(maxSize);
+                }
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() {
+                // The caller's stream stays open.
+            }
+        };
+    }
+
+    private static IllegalArgumentException tooLarge(long maxSize) {
+        return new IllegalArgumentException("Compressed body inflates past the limit of " + maxSize + " bytes");
+    }
+
+    private static void checkFlags(byte flags) {
+        if (flags != DEFLATE) {
+            throw new IllegalArgumentException("Unknown compression in payload: " + flags);
+        }
+    }
+}
@@ -0,0 +1,394 @@
+package uk.co.kennah.encrypt;
+
+import uk.co.kennah.encrypt.utils.KeGenAES;
+import uk.co.kennah.encrypt.utils.LatencyHistogram;
+import uk.co.kennah.encrypt.utils.PrivateKeyRSA;
+import uk.co.kennah.encrypt.utils.PublicKeyRSA;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+/**
+ * Encrypts or decrypts every file in a directory tree into a mirror tree, as a three-stage pipeline:
+ * one reader walks the tree and reads files, a pool of workers does the crypto, and one writer
+ * writes the results. The stages are joined by bounded queues, so the disk and the cores are kept
+ * busy at the same time, and the reader stops reading once {@link #MAX_BUFFERED_BYTES} of files
+ * are waiting to be written, however small they are.
+ * <p>
+ * Files larger than {@link #INLINE_LIMIT} skip the reader and writer: a worker streams them from
+ * source to target itself, so memory use does not grow with file size. With armour on, the
+ * ciphertext files are MIME Base64, encoded and decoded as a stream rather than through a String.
+ * Files keep their names and relative paths; one file failing does not stop the others, but a
+ * stage thread dying (an {@link Error}, say) stops the run and is rethrown from {@link #run}.
+ */
+public class DirectoryBatch {
+
+    static final int INLINE_LIMIT = 8 * 1024 * 1024;
+    static final int MAX_BUFFERED_BYTES = 8 * INLINE_LIMIT;
+    private static final long STOP_CHECK_MILLIS = 100;
+
+    private final PublicKeyRSA publicKey;   // null when decrypting
+    private final PrivateKeyRSA privateKey; // null when encrypting
+    private final Compression compression;
+    private final boolean armour;
+    private final int workers;
+
+    /**
+     * Creates an encrypting batch.
+     *
+     * @param publicKey   The key every file is encrypted to.
+     * @param compression The compression to try on each file, or {@link Compression#NONE}.
+     * @param armour      Whether to write the ciphertext as MIME Base64.
+     * @param workers     The number of crypto threads.
+     */
+    public DirectoryBatch(PublicKeyRSA publicKey, Compression compression, boolean armour, int workers) {
+        this(publicKey, null, compression, armour, workers);
+    }
+
+    /**
+     * Creates a decrypting batch.
+     *
+     * @param privateKey The key every file is decrypted with.
+     * @param armour     Whether the ciphertext files are MIME Base64.
+     * @param workers    The number of crypto threads.
+     */
+    public DirectoryBatch(PrivateKeyRSA privateKey, boolean armour, int workers) {
+        this(null, privateKey, Compression.NONE, armour, workers);
+    }
+
+    private DirectoryBatch(PublicKeyRSA publicKey, PrivateKeyRSA privateKey, Compression compression, boolean armour, int workers) {
+        if (workers <= 0) {
+            throw new IllegalArgumentException("workers must be positive: " + workers);
+        }
+        this.publicKey = publicKey;
+        this.privateKey = privateKey;
+        this.compression = compression;
+        this.armour = armour;
+        this.workers = workers;
+    }
+
+    /**
+     * Processes every regular file under {@code source}, writing the results under {@code target}.
+     *
+     * @param source The tree to read.
+     * @param target The tree to write; created as needed.
+     * @return the counts and timings of the run.
+     * @throws Exception if the source tree cannot be walked, a stage is interrupted, or a stage dies.
+     */
+    public Summary run(Path source, Path target) throws Exception {
+        Summary summary = new Summary();
+        BlockingQueue<Job> toWorkers = new ArrayBlockingQueue<>(2 * workers);
+        BlockingQueue<Job> toWriter = new ArrayBlockingQueue<>(2 * workers);
+        // Bytes read but not yet written; released by the writer, or never if a stage dies and the run is abandoned.
+        Semaphore budget = new Semaphore(MAX_BUFFERED_BYTES);
+        AtomicReference<Throwable> died = new AtomicReference<>();
+        long start = System.nanoTime();
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < workers; i++) {
+            threads.add(stage(() -> work(toWorkers, toWriter, source, target, summary, died), "batch-worker-" + i, died));
+        }
+        threads.add(stage(() -> write(toWriter, target, summary, budget, died), "batch-writer", died));
+        for (Thread thread : threads) {
+            thread.start();
+        }
+
+        // The calling thread is the reader.
+        try (Stream<Path> files = Files.walk(source)) {
+            for (Path file : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+                Job job = new Job(source.relativize(file));
+                try {
+                    long size = Files.size(file);
+                    if (size <= INLINE_LIMIT) {
+                        job.permits = (int) size;
+                        if (!acquire(budget, job.permits, died)) {
+                            break;
+                        }
+                        job.data = Files.readAllBytes(file);
+                        summary.bytesRead.addAndGet(job.data.length);
+                    }
+                } catch (IOException ex) {
+                    job.error = ex;
+                }
+                if (!put(toWorkers, job, died)) {
+                    break;
+                }
+            }
+        } finally {
+            for (int i = 0; i < workers; i++) {
+                put(toWorkers, Job.END, died);
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            summary.nanos = System.nanoTime() - start;
+        }
+        Throwable cause = died.get();
+        if (cause != null) {
+            throw new IllegalStateException("Batch stopped: a stage failed", cause);
+        }
+        return summary;
+    }
+
+    /**
+     * A pipeline thread that records anything it dies of, so the other stages and the reader stop waiting for it.
+     */
+    private static Thread stage(Runnable body, String name, AtomicReference<Throwable> died) {
+        Thread thread = new Thread(() -> {
+            try {
+                body.run();
+            } catch (Throwable ex) {
+                died.compareAndSet(null, ex);
+            }
+        }, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    private void work(BlockingQueue<Job> in, BlockingQueue<Job> out, Path source, Path target, Summary summary,
+                      AtomicReference<Throwable> died) {
+        try {
+            Job job;
+            while ((job = take(in, died)) != null && job != Job.END) {
+                if (job.error == null) {
+                    long start = System.nanoTime();
+                    try {
+                        if (job.data != null) {
+                            job.data = transform(job.data);
+                        } else {
+                            stream(source.resolve(job.relative), target.resolve(job.relative), summary);
+                        }
+                        summary.cryptoLatency.record(System.nanoTime() - start);
+                    } catch (Exception ex) {
+                        job.error = ex;
+                    }
+                }
+                if (!put(out, job, died)) {
+                    return;
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // Even when this worker dies, so the writer is not left counting on it.
+            try {
+                put(out, Job.END, died);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void write(BlockingQueue<Job> in, Path target, Summary summary, Semaphore budget, AtomicReference<Throwable> died) {
+        int ended = 0;
+        try {
+            while (ended < workers) {
+                Job job = take(in, died);
+                if (job == null) {
+                    return;
+                }
+                if (job == Job.END) {
+                    ended++;
+                    continue;
+                }
+                try {
+                    if (job.error == null && job.data != null) {
+                        try {
+                            Path file = target.resolve(job.relative);
+                            Files.createDirectories(file.getParent());
+                            Files.write(file, job.data);
+                            summary.bytesWritten.addAndGet(job.data.length);
+                        } catch (IOException ex) {
+                            job.error = ex;
+                        }
+                    }
+                } finally {
+                    job.data = null;
+                    budget.release(job.permits);
+                }
+                if (job.error != null) {
+                    summary.failures.add(job.relative + ": " + job.error);
+                } else {
+                    summary.files.incrementAndGet();
+                    summary.fileLatency.record(System.nanoTime() - job.created);
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Queues a job, giving up if a stage has died.
+     *
+     * @return false if the job was not queued because the run is stopping.
+     */
+    private static boolean put(BlockingQueue<Job> queue, Job job, AtomicReference<Throwable> died) throws InterruptedException {
+        while (!queue.offer(job, STOP_CHECK_MILLIS, TimeUnit.MILLISECONDS)) {
+            if (died.get() != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the next job, or null if a stage has died and none is waiting.
+     */
+    private static Job take(BlockingQueue<Job> queue, AtomicReference<Throwable> died) throws InterruptedException {
+        Job job;
+        while ((job = queue.poll(STOP_CHECK_MILLIS, TimeUnit.MILLISECONDS)) == null) {
+            if (died.get() != null) {
+                return null;
+            }
+        }
+        return job;
+    }
+
+    /**
+     * Waits for room in the byte budget, giving up if a stage has died.
+     */
+    private static boolean acquire(Semaphore budget, int permits, AtomicReference<Throwable> died) throws InterruptedException {
+        while (!budget.tryAcquire(permits, STOP_CHECK_MILLIS, TimeUnit.MILLISECONDS)) {
+            if (died.get() != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Encrypts or decrypts one whole file in memory.
+     */
+    private byte[] transform(byte[] data) throws Exception {
+        if (publicKey != null) {
+            byte[] payload = HybridEncryptor.encrypt(data, KeGenAES.generateKey(128), publicKey, compression);
+            return armour ? Base64.getMimeEncoder().encode(payload) : payload;
+        }
+        return HybridEncryptor.decrypt(armour ? Base64.getMimeDecoder().decode(data) : data, privateKey);
+    }
+
+    /**
+     * Encrypts or decrypts one large file straight from disk to disk.
+     */
+    private void stream(Path from, Path to, Summary summary) throws Exception {
+        Files.createDirectories(to.getParent());
+        try (InputStream file = new BufferedInputStream(Files.newInputStream(from), 64 * 1024);
+             OutputStream target = new BufferedOutputStream(Files.newOutputStream(to), 64 * 1024)) {
+            if (publicKey != null) {
+                // Closing the encoder adds the final Base64 quantum; it also closes the file, which is harmless.
+                try (OutputStream out = armour ? Base64.getMimeEncoder().wrap(target) : target) {
+                    HybridEncryptor.encrypt(file, out, KeGenAES.generateKey(128), publicKey, compression);
+                }
+            } else {
+                // No inflate limit: the plaintext goes straight to disk, however large it is.
+                HybridEncryptor.decrypt(armour ? Base64.getMimeDecoder().wrap(file) : file, target, privateKey, Long.MAX_VALUE);
+            }
+        } catch (Throwable ex) {
+            // Leave nothing behind, as a file that fails in memory never reaches the writer.
+            Files.deleteIfExists(to);
+            throw ex;
+        }
+        summary.bytesRead.addAndGet(Files.size(from));
+        summary.bytesWritten.addAndGet(Files.size(to));
+    }
+
+    /**
+     * One file passing through the pipeline.
+     */
+    private static final class Job {
+        static final Job END = new Job(null);
+
+        final Path relative;
+        final long created = System.nanoTime();
+        byte[] data; // null for a file too large to hold, which a worker streams instead
+        int permits; // bytes of the budget this file holds until it is written
+        Exception error;
+
+        Job(Path relative) {
+            this.relative = relative;
+        }
+    }
+
+    /**
+     * The outcome of a run: counts, bytes and per-file latencies.
+     */
+    public static final class Summary {
+        private final AtomicLong files = new AtomicLong();
+        private final AtomicLong bytesRead = new AtomicLong();
+        private final AtomicLong bytesWritten = new AtomicLong();
+        private final List<String> failures = Collections.synchronizedList(new ArrayList<>());
+        private final LatencyHistogram cryptoLatency = new LatencyHistogram();
+        private final LatencyHistogram fileLatency = new LatencyHistogram();
+        private volatile long nanos;
+
+        public long getFiles() {
+            return files.get();
+        }
+
+        public long getBytesRead() {
+            return bytesRead.get();
+        }
+
+        public long getBytesWritten() {
+            return bytesWritten.get();
+        }
+
+        /**
+         * @return one "path: error" line per file that failed.
+         */
+        public List<String> getFailures() {
+            return new ArrayList<>(failures);
+        }
+
+        /**
+         * @return the time each file spent in a worker, in nanoseconds.
+         */
+        public LatencyHistogram getCryptoLatency() {
+            return cryptoLatency;
+        }
+
+        /**
+         * @return the time from reading each file to writing it, queueing included, in nanoseconds.
+         */
+        public LatencyHistogram getFileLatency() {
+            return fileLatency;
+        }
+
+        public long getElapsedNanos() {
+            return nanos;
+        }
+
+        @Override
+        public String toString() {
+            double seconds = Math.max(nanos, 1) / 1e9;
+            return String.format("%d files (%d failed) in %.2f s: %.1f files/s, %.1f MB/s read, %.1f MB/s written%n"
+                            + "  crypto per file  p50 %s  p99 %s  max %s%n"
+                            + "  read to write    p50 %s  p99 %s  max %s",
+                    files.get(), failures.size(), seconds, files.get() / seconds,
+                    bytesRead.get() / seconds / 1e6, bytesWritten.get() / seconds / 1e6,
+                    millis(cryptoLatency.getPercentile(50)), millis(cryptoLatency.getPercentile(99)), millis(cryptoLatency.getMax()),
+                    millis(fileLatency.getPercentile(50)), millis(fileLatency.getPercentile(99)), millis(fileLatency.getMax()));
+        }
+
+        private static String millis(long nanos) {
+            return String.format("%.2f ms", nanos / 1e6);
+        }
+    }
+}
@@ -0,0 +1,320 @@
+package uk.co.kennah.encrypt;
+
+import uk.co.kennah.encrypt.utils.KeGenAES;
+import uk.co.kennah.encrypt.utils.PublicKeyRSA;
+import uk.co.kennah.encrypt.utils.RandomSource;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * An append-only log of encrypted records, for many small records such as audit entries.
+ * Instead of a whole hybrid payload per record, each segment file carries one RSA-wrapped AES key
+ * in its header, and every record is a [length: int][IV][CBC body] unit under that key with its
+ * own random IV, so appending costs one AES operation and a sequential write.
+ * <p>
+ * A directory holds segments named by the number of their first record, each with a sparse
+ * index beside it:
+ * <pre>
+ * 00000000000000000000.log   [magic "TKL"][version][first record: long][key length: int][wrapped AES key][records...]
+ * 00000000000000000000.idx   [position: long] of every 16th record, so a lookup reads one entry and skips at most 15 lengths
+ * </pre>
+ * A new segment is started when the current one reaches its size or record limit, and each time
+ * the log is opened, so writing never needs the private key. Records are read back with
+ * {@link EncryptedLogReader}. Appends are serialised; buffered records reach the file on
+ * {@link #flush()} or {@link #close()}, but each segment's header is synced as the segment starts.
+ * A record torn by a crash is dropped when the log is reopened, and a segment left without its
+ * header is skipped by readers and replaced by the writer.
+ */
+public class EncryptedLog implements AutoCloseable {
+
+    public static final long DEFAULT_MAX_SEGMENT_BYTES = 64L * 1024 * 1024;
+    public static final int DEFAULT_MAX_SEGMENT_RECORDS = 1 << 20;
+
+    static final byte[] MAGIC = {'T', 'K', 'L'};
+    static final byte VERSION = 1;
+    static final int HEADER_PREFIX = 16; // magic, version, first record, key length
+    static final int INDEX_INTERVAL = 16;
+    private static final int BLOCK = 16;
+
+    private final Path directory;
+    private final PublicKeyRSA publicKey;
+    private final long maxSegmentBytes;
+    private final int maxSegmentRecords;
+    private final Cipher aesCipher;
+    private final SecureRandom random = RandomSource.shared();
+
+    private DataOutputStream log;
+    private DataOutputStream index;
+    private SecretKey segmentKey;
+    private long segmentPosition; // bytes in the current segment file, i.e. where the next record goes
+    private int segmentRecords;
+    private long nextRecord;
+
+    /**
+     * Opens a log with the default segment limits.
+     *
+     * @param directory Where the segments live; created if missing.
+     * @param publicKey The key each segment's AES key is wrapped with.
+     * @throws Exception if the directory or its last segment cannot be read.
+     */
+    public EncryptedLog(Path directory, PublicKeyRSA publicKey) throws Exception {
+        this(directory, publicKey, DEFAULT_MAX_SEGMENT_BYTES, DEFAULT_MAX_SEGMENT_RECORDS);
+    }
+
+    /**
+     * @param directory         Where the segments live; created if missing.
+     * @param publicKey         The key each segment's AES key is wrapped with.
+     * @param maxSegmentBytes   The size at which a segment is closed and a new one started.
+     * @param maxSegmentRecords The record count at which a segment is closed and a new one started.
+     * @throws Exception if the directory or its last segment cannot be read.
+     */
+    public EncryptedLog(Path directory, PublicKeyRSA publicKey, long maxSegmentBytes, int maxSegmentRecords) throws Exception {
+        if (maxSegmentBytes <= 0 || maxSegmentRecords <= 0) {
+            throw new IllegalArgumentException("Segment limits must be positive");
+        }
+        this.directory = directory;
+        this.publicKey = publicKey;
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.maxSegmentRecords = maxSegmentRecords;
+        this.aesCipher = Cipher.getInstance(HybridEncryptor.AES_ALGORITHM);
+
+        Files.createDirectories(directory);
+        List<Path> segments = segments(directory);
+        for (int i = segments.size() - 1; i >= 0; i--) {
+            // Carry on numbering after the last segment, dropping any record a crash left half written.
+            Path last = segments.get(i);
+            Segment segment = Segment.load(last);
+            if (segment == null) {
+                // A crash before its header was written; it holds no records, so start again in its place.
+                Files.delete(last);
+                Files.deleteIfExists(indexFileOf(last));
+                continue;
+            }
+            try (FileChannel channel = FileChannel.open(last, StandardOpenOption.WRITE)) {
+                channel.truncate(segment.end);
+            }
+            nextRecord = segment.firstRecord + segment.records;
+            break;
+        }
+        startSegment();
+    }
+
+    /**
+     * Encrypts a record and appends it.
+     *
+     * @param record The plaintext record.
+     * @return the record's number, for {@link EncryptedLogReader#read(long)}.
+     * @throws Exception if encryption or I/O fails.
+     */
+    public synchronized long append(byte[] record) throws Exception {
+        int unitLength = 4 + BLOCK + (record.length / BLOCK + 1) * BLOCK;
+        if (segmentRecords >= maxSegmentRecords || (segmentRecords > 0 && segmentPosition + unitLength > maxSegmentBytes)) {
+            log.close();
+            index.close();
+            startSegment();
+        }
+
+        byte[] iv = new byte[BLOCK];
+        random.nextBytes(iv);
+        aesCipher.init(Cipher.ENCRYPT_MODE, segmentKey, new IvParameterSpec(iv));
+        byte[] body = aesCipher.doFinal(record);
+
+        if (segmentRecords % INDEX_INTERVAL == 0) {
+            index.writeLong(segmentPosition);
+        }
+        log.writeInt(BLOCK + body.length);
+        log.write(iv);
+        log.write(body);
+        segmentPosition += unitLength;
+        segmentRecords++;
+        return nextRecord++;
+    }
+
+    /**
+     * @return the number the next appended record will get.
+     */
+    public synchronized long getNextRecordNumber() {
+        return nextRecord;
+    }
+
+    /**
+     * Writes buffered records out to the segment files.
+     */
+    public synchronized void flush() throws IOException {
+        log.flush(); // records before the index entries that point at them
+        index.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        log.close();
+        index.close();
+    }
+
+    private void startSegment() throws IOException {
+        segmentKey = KeGenAES.generateKey(128);
+        byte[] wrapped = HybridEncryptor.wrapKey(segmentKey, publicKey, random);
+        String name = segmentName(nextRecord);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_PREFIX + wrapped.length)
+                .put(MAGIC).put(VERSION).putLong(nextRecord).putInt(wrapped.length).put(wrapped).flip();
+        // The header goes to disk before any record is buffered, so a reader, or a reopen after a crash,
+        // never meets a segment without one; records then follow through the buffer.
+        FileChannel channel = FileChannel.open(directory.resolve(name + ".log"),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            channel.force(true);
+        } catch (IOException ex) {
+            channel.close();
+            throw ex;
+        }
+        log = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024));
+        index = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(directory.resolve(name + ".idx")), 4 * 1024));
+        segmentPosition = HEADER_PREFIX + wrapped.length;
+        segmentRecords = 0;
+    }
+
+    static String segmentName(long firstRecord) {
+        return String.format("%020d", firstRecord);
+    }
+
+    static Path indexFileOf(Path logFile) {
+        String name = logFile.getFileName().toString();
+        return logFile.resolveSibling(name.substring(0, name.length() - 4) + ".idx");
+    }
+
+    /**
+     * @return the segment files in a directory, in record order.
+     */
+    static List<Path> segments(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().matches("\\d{20}\\.log"))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * What is known about one segment file without decrypting anything: its header, its index
+     * (rebuilt from the record lengths where the index file is missing or behind) and where the
+     * last whole record ends.
+     */
+    static final class Segment {
+        final Path path;
+        final long firstRecord;
+        final byte[] wrappedKey;
+        final long[] index;
+        final int records;
+        final long end;
+
+        private Segment(Path path, long firstRecord, byte[] wrappedKey, long[] index, int records, long end) {
+            this.path = path;
+            this.firstRecord = firstRecord;
+            this.wrappedKey = wrappedKey;
+            this.index = index;
+            this.records = records;
+            this.end = end;
+        }
+
+        /**
+         * @return the segment, or null if the file is shorter than its header: one a crash, or a writer
+         *         still starting it, left without a header and so without records.
+         */
+        static Segment load(Path path) throws IOException {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                if (channel.size() < HEADER_PREFIX) {
+                    return null;
+                }
+                ByteBuffer prefix = read(channel, 0, HEADER_PREFIX);
+                if (prefix.get() != MAGIC[0] || prefix.get() != MAGIC[1] || prefix.get() != MAGIC[2]) {
+                    throw new IllegalArgumentException("Not a log segment: bad magic in " + path);
+                }
+                byte version = prefix.get();
+                if (version != VERSION) {
+                    throw new IllegalArgumentException("Unsupported log segment version " + version + " in " + path);
+                }
+                long firstRecord = prefix.getLong();
+                int keyLength = prefix.getInt();
+                if (keyLength <= 0) {
+                    throw new IllegalArgumentException("Not a log segment: bad key length in " + path);
+                }
+                if (HEADER_PREFIX + (long) keyLength > channel.size()) {
+                    return null;
+                }
+                byte[] wrappedKey = new byte[keyLength];
+                read(channel, HEADER_PREFIX, keyLength).get(wrappedKey);
+
+                // Trust the index file up to its last entry, then walk the record lengths from there.
+                long[] index = readIndex(path, channel.size());
+                int indexed = index.length;
+                int records = indexed == 0 ? 0 : (indexed - 1) * INDEX_INTERVAL;
+                long position = indexed == 0 ? HEADER_PREFIX + keyLength : index[indexed - 1];
+                index = Arrays.copyOf(index, indexed + 16);
+                indexed = Math.max(indexed - 1, 0);
+                long size = channel.size();
+                while (position + 4 <= size) {
+                    int length = read(channel, position, 4).getInt();
+                    if (length < 2 * BLOCK || length % BLOCK != 0 || position + 4 + length > size) {
+                        break; // torn by a crash
+                    }
+                    if (records % INDEX_INTERVAL == 0) {
+                        if (indexed == index.length) {
+                            index = Arrays.copyOf(index, indexed * 2);
+                        }
+                        index[indexed++] = position;
+                    }
+                    position += 4 + length;
+                    records++;
+                }
+                return new Segment(path, firstRecord, wrappedKey, Arrays.copyOf(index, indexed), records, position);
+            }
+        }
+
+        private static long[] readIndex(Path logFile, long logSize) throws IOException {
+            Path indexFile = indexFileOf(logFile);
+            if (!Files.exists(indexFile)) {
+                return new long[0];
+            }
+            ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(indexFile));
+            long[] index = new long[bytes.remaining() / 8];
+            int valid = 0;
+            while (valid < index.length) {
+                long position = bytes.getLong();
+                if (position >= logSize || (valid > 0 && position <= index[valid - 1])) {
+                    break; // written ahead of its record, or damaged
+                }
+                index[valid++] = position;
+            }
+            return Arrays.copyOf(index, valid);
+        }
+
+        static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+            ByteBuffer into = ByteBuffer.allocate(length);
+            while (into.hasRemaining()) {
+                if (channel.read(into, position + into.position()) < 0) {
+                    throw new EOFException("Log segment truncated at " + (position + into.position()));
+                }
+            }
+            return into.flip();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package uk.co.kennah.encrypt;
+
+import uk.co.kennah.encrypt.utils.PrivateKeyRSA;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads records back from an {@link EncryptedLog} directory by record number.
+ * A lookup finds the segment by binary search over the first record numbers, reads one index
+ * entry, skips at most 15 record lengths and decrypts the one record; nothing else is read.
+ * Each segment's AES key is unwrapped the first time one of its records is read.
+ * <p>
+ * The reader sees the records that were written when it was opened. Instances are thread-safe.
+ */
+public class EncryptedLogReader implements AutoCloseable {
+
+    private static final int BLOCK = 16;
+
+    private final PrivateKeyRSA privateKey;
+    private final EncryptedLog.Segment[] segments;
+    private final long[] firstRecords;
+    private final FileChannel[] channels; // guarded by this
+    private final SecretKey[] keys;       // guarded by this
+    private final long size;
+
+    /**
+     * Opens every segment's index; no records are read or decrypted yet.
+     *
+     * @param directory  The log directory.
+     * @param privateKey The private key matching the log's public key.
+     * @throws IOException if the directory or a segment cannot be read.
+     */
+    public EncryptedLogReader(Path directory, PrivateKeyRSA privateKey) throws IOException {
+        this.privateKey = privateKey;
+        List<EncryptedLog.Segment> loaded = new ArrayList<>();
+        for (Path file : EncryptedLog.segments(directory)) {
+            EncryptedLog.Segment segment = EncryptedLog.Segment.load(file);
+            if (segment != null) { // skip a segment whose header is not written yet
+                loaded.add(segment);
+            }
+        }
+        this.segments = loaded.toArray(new EncryptedLog.Segment[0]);
+        this.firstRecords = new long[segments.length];
+        for (int i = 0; i < segments.length; i++) {
+            firstRecords[i] = segments[i].firstRecord;
+        }
+        this.channels = new FileChannel[segments.length];
+        this.keys = new SecretKey[segments.length];
+        this.size = segments.length == 0 ? 0 : firstRecords[segments.length - 1] + segments[segments.length - 1].records;
+    }
+
+    /**
+     * @return the number of records, which is also the number the next record will get.
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Decrypts one record.
+     *
+     * @param recordNumber The number {@link EncryptedLog#append(byte[])} returned.
+     * @return the plaintext record.
+     * @throws Exception if the record does not exist, or decryption or I/O fails.
+     */
+    public byte[] read(long recordNumber) throws Exception {
+        int s = segmentOf(recordNumber);
+        EncryptedLog.Segment segment = segments[s];
+        long relative = recordNumber - segment.firstRecord;
+        if (relative >= segment.records) {
+            throw new IndexOutOfBoundsException("Record " + recordNumber + " is not in the log");
+        }
+        FileChannel channel = channel(s);
+
+        // One index entry, then hop over the lengths of the records before ours.
+        long position = segment.index[(int) (relative / EncryptedLog.INDEX_INTERVAL)];
+        for (long skip = relative % EncryptedLog.INDEX_INTERVAL; skip > 0; skip--) {
+            position += 4 + EncryptedLog.Segment.read(channel, position, 4).getInt();
+        }
+        int length = EncryptedLog.Segment.read(channel, position, 4).getInt();
+        ByteBuffer unit = EncryptedLog.Segment.read(channel, position + 4, length);
+
+        HybridListener l = HybridEncryptor.getListener();
+        long start = l == null ? 0 : System.nanoTime();
+        Cipher aesCipher = Cipher.getInstance(HybridEncryptor.AES_ALGORITHM);
+        aesCipher.init(Cipher.DECRYPT_MODE, key(s), new IvParameterSpec(unit.array(), 0, BLOCK));
+        byte[] record = aesCipher.doFinal(unit.array(), BLOCK, length - BLOCK);
+        if (l != null) {
+            l.onPhase(HybridListener.Phase.AES_DECRYPT, System.nanoTime() - start, record.length);
+        }
+        return record;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (FileChannel channel : channels) {
+            if (channel != null) {
+                channel.close();
+            }
+        }
+    }
+
+    private int segmentOf(long recordNumber) {
+        if (recordNumber < 0 || recordNumber >= size) {
+            throw new IndexOutOfBoundsException("Record " + recordNumber + " is not in the log of " + size + " records");
+        }
+        int found = Arrays.binarySearch(firstRecords, recordNumber);
+        return found >= 0 ? found : -found - 2;
+    }
+
+    private synchronized FileChannel channel(int s) throws IOException {
+        if (channels[s] == null) {
+            channels[s] = FileChannel.open(segments[s].path, StandardOpenOption.READ);
+        }
+        return channels[s];
+    }
+
+    private synchronized SecretKey key(int s) {
+        if (keys[s] == null) {
+            keys[s] = HybridEncryptor.unwrapKey(segments[s].wrappedKey, privateKey);
+        }
+        return keys[s];
+    }
+}
@@ -0,0 +1,81 @@
+package uk.co.kennah.encrypt;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A blocking client for {@link HybridServer}, over one connection.
+ * Requests on one client are sent one at a time; use a client per thread for concurrency.
+ */
+public class HybridClient implements AutoCloseable {
+
+    private final SocketChannel channel;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+
+    /**
+     * Connects to a server.
+     *
+     * @param address The server's TCP or Unix-domain address.
+     * @throws IOException if the connection fails.
+     */
+    public HybridClient(SocketAddress address) throws IOException {
+        this.channel = address instanceof UnixDomainSocketAddress
+                ? SocketChannel.open(StandardProtocolFamily.UNIX)
+                : SocketChannel.open();
+        channel.connect(address);
+        this.in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+        this.out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+    }
+
+    /**
+     * Has the server encrypt a message to its own public key.
+     *
+     * @param message The plaintext message.
+     * @return A hybrid payload in the {@link HybridEncryptor} format.
+     * @throws IOException if the server reports an error or the connection fails.
+     */
+    public byte[] encrypt(byte[] message) throws IOException {
+        return call(HybridServer.OP_ENCRYPT, message);
+    }
+
+    /**
+     * Has the server decrypt a hybrid payload with its private key.
+     *
+     * @param hybridCiphertext The hybrid payload.
+     * @return The plaintext message.
+     * @throws IOException if the server reports an error or the connection fails.
+     */
+    public byte[] decrypt(byte[] hybridCiphertext) throws IOException {
+        return call(HybridServer.OP_DECRYPT, hybridCiphertext);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private synchronized byte[] call(byte op, byte[] payload) throws IOException {
+        HybridServer.writeFrame(out, op, payload);
+        int length = in.readInt();
+        if (length < 1) {
+            throw new IOException("Bad response frame length: " + length);
+        }
+        byte status = in.readByte();
+        byte[] response = new byte[length - 1];
+        in.readFully(response);
+        if (status != HybridServer.STATUS_OK) {
+            throw new IOException("Server error: " + new String(response, StandardCharsets.UTF_8));
+        }
+        return response;
+    }
+}
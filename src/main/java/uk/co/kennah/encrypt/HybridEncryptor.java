@@ -1,14 +1,30 @@
 package uk.co.kennah.encrypt;
 
+import uk.co.kennah.encrypt.utils.KeGenAES;
+import uk.co.kennah.encrypt.utils.KemRSA;
 import uk.co.kennah.encrypt.utils.PaddedRSA;
+import uk.co.kennah.encrypt.utils.PrivateKeyRSA;
+import uk.co.kennah.encrypt.utils.PublicKeyRSA;
+import uk.co.kennah.encrypt.utils.RandomSource;
 
+import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
+import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.SecretKey;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.function.Function;
 
 /**
  * Implements a hybrid encryption scheme using RSA and AES.
@@ -16,9 +32,54 @@ import java.security.SecureRandom;
  */
 public class HybridEncryptor {
 
-    private static final String AES_ALGORITHM = "AES/CBC/PKCS5Padding";
+    static final String AES_ALGORITHM = "AES/CBC/PKCS5Padding";
     private static final int AES_KEY_SIZE = 128; // bits
-    private static final int IV_SIZE = 16; // bytes
+    static final int IV_SIZE = 16; // bytes
+    private static final int STREAM_CHUNK_SIZE = 64 * 1024; // bytes per Cipher.update in the streaming paths
+
+    private static volatile HybridListener listener; // null when nobody is listening
+
+    // Per-thread state for the encryptInto/decryptInto paths, so they allocate no buffers of their own.
+    // They pad by hand: the JCE's padded CBC copies the whole input (or buffers the whole output) to add or strip it.
+    private static final ThreadLocal<Cipher> INTO_CIPHER = ThreadLocal.withInitial(HybridEncryptor::newAesCipher);
+    private static final ThreadLocal<byte[]> INTO_SCRATCH = ThreadLocal.withInitial(() -> new byte[0]);
+
+    static final byte[] KEM_MAGIC = {'T', 'K', 'E'};
+    static final byte KEM_VERSION = 1;
+    static final int KEM_HEADER_SIZE = 4;
+
+    /**
+     * The payload layouts this class writes. PKCS1 keeps the original, unmarked layout; KEM
+     * payloads start with a short header, so {@link #decrypt(byte[], PrivateKeyRSA)} recognises
+     * them by itself. Streams are not inspected, so decrypt a KEM stream with its format.
+     */
+    public enum Format {
+        /** [PKCS#1 v1.5-wrapped AES key][IV][Encrypted Message], the layout of every method without a format. */
+        PKCS1,
+        /**
+         * [magic "TKE"][version][RSA-KEM encapsulation][Encrypted Message]. The AES key and IV are both
+         * derived from the encapsulated secret (see {@link KemRSA}), so there is no padding, no unpad
+         * scan and no IV field.
+         */
+        KEM
+    }
+
+    /**
+     * Installs a listener for per-phase timings, replacing any previous one.
+     * Pass null to turn timing off; with no listener the clock is never read.
+     *
+     * @param newListener The listener, or null.
+     */
+    public static void setListener(HybridListener newListener) {
+        listener = newListener;
+    }
+
+    /**
+     * @return the installed listener, or null.
+     */
+    public static HybridListener getListener() {
+        return listener;
+    }
 
     /**
      * Encrypts a message of any size using a hybrid RSA-AES scheme.
@@ -31,37 +92,217 @@ public class HybridEncryptor {
      * @throws Exception if encryption fails.
      */
     public static byte[] encrypt(byte[] message, SecretKey aesKey, BigInteger e, BigInteger n) throws Exception {
+        return encrypt(message, aesKey, new PublicKeyRSA(e, n));
+    }
+
+    /**
+     * Encrypts a message of any size using a hybrid RSA-AES scheme and a prepared public key.
+     *
+     * @param message   The plaintext message to encrypt.
+     * @param aesKey    The one-time AES key to use for this encryption.
+     * @param publicKey The recipient's public RSA key.
+     * @return A single byte array containing the encrypted AES key, IV, and encrypted message.
+     * @throws Exception if encryption fails.
+     */
+    public static byte[] encrypt(byte[] message, SecretKey aesKey, PublicKeyRSA publicKey) throws Exception {
         // 1. The one-time AES key is now passed in as a parameter.
+        //    Encrypt it with RSA up front; the rest only needs the wrapped bytes.
+        return encrypt(message, aesKey, wrapKey(aesKey, publicKey));
+    }
 
+    /**
+     * Encrypts a message, compressing it first if a sample shows that is worthwhile.
+     * {@link #decrypt(byte[], PrivateKeyRSA)} reverses the compression without being told;
+     * a message left uncompressed is in the ordinary format.
+     *
+     * @param message     The plaintext message to encrypt.
+     * @param aesKey      The one-time AES key to use for this encryption.
+     * @param publicKey   The recipient's public RSA key.
+     * @param compression The compression to try, e.g. {@link Compression#deflate()}.
+     * @return A single byte array containing the encrypted AES key, IV, and encrypted message.
+     * @throws Exception if encryption fails.
+     */
+    public static byte[] encrypt(byte[] message, SecretKey aesKey, PublicKeyRSA publicKey, Compression compression) throws Exception {
+        if (!compression.worthCompressing(message, message.length)) {
+            return encrypt(message, aesKey, publicKey);
+        }
+        return encrypt(compression.compress(message), aesKey, wrapKey(aesKey, compression.flags(), publicKey, RandomSource.shared()));
+    }
+
+    /**
+     * Encrypts a message with a fresh key, in the given format.
+     *
+     * @param message   The plaintext message to encrypt.
+     * @param publicKey The recipient's public RSA key.
+     * @param format    The payload layout; {@link #decrypt(byte[], PrivateKeyRSA)} reads either.
+     * @return The payload.
+     * @throws Exception if encryption fails.
+     */
+    public static byte[] encrypt(byte[] message, PublicKeyRSA publicKey, Format format) throws Exception {
+        if (format == Format.PKCS1) {
+            return encrypt(message, KeGenAES.generateKey(AES_KEY_SIZE), publicKey);
+        }
+        // 1. Encapsulate a fresh secret straight behind the header of a buffer sized for the whole payload.
+        int keyByteLength = publicKey.getByteLength();
+        int bodyOffset = KEM_HEADER_SIZE + keyByteLength;
+        byte[] payload = new byte[bodyOffset + (message.length / IV_SIZE + 1) * IV_SIZE];
+        kemHeader(payload);
+        HybridListener l = listener;
+        long start = l == null ? 0 : System.nanoTime();
+        byte[] secret = KemRSA.encapsulate(publicKey, RandomSource.shared(), payload, KEM_HEADER_SIZE);
+        if (l != null) {
+            long now = System.nanoTime();
+            l.onPhase(HybridListener.Phase.RSA_WRAP, now - start, keyByteLength);
+            start = now;
+        }
+
+        // 2. Encrypt the message behind it, under the derived key and IV.
+        kemCipher(Cipher.ENCRYPT_MODE, secret).doFinal(message, 0, message.length, payload, bodyOffset);
+        if (l != null) {
+            long now = System.nanoTime();
+            l.onPhase(HybridListener.Phase.AES_ENCRYPT, now - start, message.length);
+            // Everything was written in place, so there is nothing left to assemble; report the finished payload.
+            l.onPhase(HybridListener.Phase.PACKAGING, System.nanoTime() - now, payload.length);
+        }
+        return payload;
+    }
+
+    /**
+     * Encrypts a message under an AES key that has already been wrapped with RSA.
+     * The payload has the same layout as a one-time-key message, only the RSA step is skipped.
+     *
+     * @param message              The plaintext message to encrypt.
+     * @param aesKey               The AES key to use for this encryption.
+     * @param encryptedAesKeyBytes The AES key wrapped by {@link #wrapKey(SecretKey, PublicKeyRSA)}.
+     * @return A single byte array containing the encrypted AES key, IV, and encrypted message.
+     * @throws Exception if encryption fails.
+     */
+    static byte[] encrypt(byte[] message, SecretKey aesKey, byte[] encryptedAesKeyBytes) throws Exception {
+        return encrypt(message, aesKey, encryptedAesKeyBytes, Cipher.getInstance(AES_ALGORITHM), RandomSource.shared());
+    }
+
+    /**
+     * As {@link #encrypt(byte[], SecretKey, byte[])}, but with a caller-owned cipher and random source
+     * so that callers encrypting many messages on one thread can reuse them.
+     */
+    static byte[] encrypt(byte[] message, SecretKey aesKey, byte[] encryptedAesKeyBytes,
+                          Cipher aesCipher, SecureRandom random) throws Exception {
         // 2. Generate a random Initialization Vector (IV) for this encryption operation.
         byte[] iv = new byte[IV_SIZE];
-        new SecureRandom().nextBytes(iv);
+        random.nextBytes(iv);
         IvParameterSpec ivSpec = new IvParameterSpec(iv);
 
         // 3. Encrypt the actual message with AES.
-        Cipher aesCipher = Cipher.getInstance(AES_ALGORITHM);
+        HybridListener l = listener;
+        long start = l == null ? 0 : System.nanoTime();
         aesCipher.init(Cipher.ENCRYPT_MODE, aesKey, ivSpec);
         byte[] encryptedMessage = aesCipher.doFinal(message);
+        if (l != null) {
+            long now = System.nanoTime();
+            l.onPhase(HybridListener.Phase.AES_ENCRYPT, now - start, message.length);
+            start = now;
+        }
 
-        System.out.println("Message put in Strongbox ");
-
-        // 4. Encrypt the small AES key with RSA.
-        BigInteger encryptedAesKeyBI = PaddedRSA.encrypt(aesKey.getEncoded(), e, n);
-        System.out.println("Strongbox key placed in Safe and Safe Locked with public key.");
-
-        // 5. Convert the encrypted key BigInteger to a fixed-size byte array.
-        int keyByteLength = (n.bitLength() + 7) / 8;
-        byte[] encryptedAesKeyBytes = toFixedSizeBytes(encryptedAesKeyBI, keyByteLength);
-
-        // 6. Combine everything into a single payload: [Encrypted AES Key][IV][Encrypted Message]
+        // 4. Combine everything into a single payload: [Encrypted AES Key][IV][Encrypted Message]
         ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
         outputStream.write(encryptedAesKeyBytes);
         outputStream.write(iv);
         outputStream.write(encryptedMessage);
+        byte[] payload = outputStream.toByteArray();
+        if (l != null) {
+            l.onPhase(HybridListener.Phase.PACKAGING, System.nanoTime() - start, payload.length);
+        }
+        return payload;
+    }
+
+    /**
+     * Encrypts the small AES key with RSA and converts it to a fixed-size byte array,
+     * the first field of every hybrid payload.
+     */
+    static byte[] wrapKey(SecretKey aesKey, PublicKeyRSA publicKey) {
+        return wrapKey(aesKey, publicKey, RandomSource.shared());
+    }
+
+    static byte[] wrapKey(SecretKey aesKey, PublicKeyRSA publicKey, SecureRandom random) {
+        return wrapKeyBlock(aesKey.getEncoded(), publicKey, random);
+    }
+
+    /**
+     * Wraps the AES key behind a flags byte, which marks the payload as compressed.
+     * AES keys are 16, 24 or 32 bytes, so the one byte longer block cannot be mistaken for a bare key.
+     */
+    static byte[] wrapKey(SecretKey aesKey, byte flags, PublicKeyRSA publicKey, SecureRandom random) {
+        byte[] key = aesKey.getEncoded();
+        byte[] block = new byte[key.length + 1];
+        block[0] = flags;
+        System.arraycopy(key, 0, block, 1, key.length);
+        return wrapKeyBlock(block, publicKey, random);
+    }
+
+    private static byte[] wrapKeyBlock(byte[] key, PublicKeyRSA publicKey, SecureRandom random) {
+        HybridListener l = listener;
+        long start = l == null ? 0 : System.nanoTime();
+        int keyByteLength = publicKey.getByteLength();
+        byte[] encryptedAesKeyBytes = new byte[keyByteLength];
+        PaddedRSA.encrypt(key, 0, key.length, publicKey, random, encryptedAesKeyBytes, 0);
+        if (l != null) {
+            l.onPhase(HybridListener.Phase.RSA_WRAP, System.nanoTime() - start, keyByteLength);
+        }
+        return encryptedAesKeyBytes;
+    }
+
+    /**
+     * Decrypts the RSA-wrapped AES key at the start of a hybrid payload.
+     */
+    static SecretKey unwrapKey(byte[] hybridCiphertext, int keyByteLength, Function<BigInteger, byte[]> keyUnwrapper) {
+        return unwrapKey(hybridCiphertext, 0, keyByteLength, keyUnwrapper);
+    }
+
+    /**
+     * Decrypts an RSA-wrapped AES key found anywhere in a payload.
+     */
+    static SecretKey unwrapKey(byte[] payload, int offset, int keyByteLength, Function<BigInteger, byte[]> keyUnwrapper) {
+        byte[] block = unwrapKeyBlock(payload, offset, keyByteLength, keyUnwrapper);
+        if (isFlagged(block)) {
+            // Only the HybridEncryptor paths know to decompress; anywhere else would return compressed bytes.
+            throw new IllegalArgumentException("Compressed payloads can only be decrypted by HybridEncryptor");
+        }
+        return new SecretKeySpec(block, "AES");
+    }
 
-        System.out.println("Safe and Strongbox packaged together and sent to the recipient\n---");
+    /**
+     * Decrypts an RSA-wrapped key block: either a bare AES key or one behind a flags byte.
+     */
+    static byte[] unwrapKeyBlock(byte[] payload, int offset, int keyByteLength, Function<BigInteger, byte[]> keyUnwrapper) {
+        HybridListener l = listener;
+        long start = l == null ? 0 : System.nanoTime();
+        BigInteger encryptedAesKeyBI = new BigInteger(1, payload, offset, keyByteLength);
+        byte[] block = keyUnwrapper.apply(encryptedAesKeyBI);
+        if (l != null) {
+            l.onPhase(HybridListener.Phase.RSA_UNWRAP, System.nanoTime() - start, keyByteLength);
+        }
+        return block;
+    }
 
-        return outputStream.toByteArray();
+    static boolean isFlagged(byte[] block) {
+        return isFlagged(block.length);
+    }
+
+    private static boolean isFlagged(int blockLength) {
+        return blockLength == 17 || blockLength == 25 || blockLength == 33;
+    }
+
+    static SecretKey keyOf(byte[] block) {
+        return isFlagged(block)
+                ? new SecretKeySpec(block, 1, block.length - 1, "AES")
+                : new SecretKeySpec(block, "AES");
+    }
+
+    /**
+     * Decrypts the RSA-wrapped AES key at the start of a hybrid payload using the CRT form of the private key.
+     */
+    static SecretKey unwrapKey(byte[] hybridCiphertext, PrivateKeyRSA privateKey) {
+        return unwrapKey(hybridCiphertext, privateKey.getByteLength(), encryptedKey -> PaddedRSA.decrypt(encryptedKey, privateKey));
     }
 
     /**
@@ -74,52 +315,696 @@ public class HybridEncryptor {
      * @throws Exception if decryption fails.
      */
     public static byte[] decrypt(byte[] hybridCiphertext, BigInteger d, BigInteger n) throws Exception {
-        int keyByteLength = (n.bitLength() + 7) / 8;
+        return decrypt(hybridCiphertext, (n.bitLength() + 7) / 8, encryptedKey -> PaddedRSA.decrypt(encryptedKey, d, n));
+    }
 
-        // 1. Unpack the payload: [Encrypted AES Key][IV][Encrypted Message]
-        byte[] encryptedAesKeyBytes = new byte[keyByteLength];
-        System.arraycopy(hybridCiphertext, 0, encryptedAesKeyBytes, 0, keyByteLength);
+    /**
+     * Decrypts a hybrid-encrypted message using the CRT form of the private key.
+     * This is the faster path, as unwrapping the AES key is the most expensive step of decryption.
+     * A payload in the {@link Format#KEM} format is recognised by its header and decrypted as one.
+     *
+     * @param hybridCiphertext The combined encrypted payload.
+     * @param privateKey       The private RSA key with its CRT components.
+     * @return The original plaintext message.
+     * @throws Exception if decryption fails.
+     */
+    public static byte[] decrypt(byte[] hybridCiphertext, PrivateKeyRSA privateKey) throws Exception {
+        return decrypt(hybridCiphertext, privateKey, Compression.DEFAULT_MAX_INFLATED_SIZE);
+    }
 
-        System.out.println("---\nSafe and Strongbox received.");
-        byte[] iv = new byte[IV_SIZE];
-        System.arraycopy(hybridCiphertext, keyByteLength, iv, 0, IV_SIZE);
+    /**
+     * As {@link #decrypt(byte[], PrivateKeyRSA)}, with a caller-chosen cap on how far a compressed payload may inflate.
+     *
+     * @param maxInflatedSize The most bytes a compressed message may inflate to.
+     * @throws IllegalArgumentException if a compressed message inflates past {@code maxInflatedSize}.
+     */
+    public static byte[] decrypt(byte[] hybridCiphertext, PrivateKeyRSA privateKey, long maxInflatedSize) throws Exception {
+        if (isKem(hybridCiphertext, privateKey.getByteLength())) {
+            return decryptKem(hybridCiphertext, privateKey);
+        }
+        return decryptAt(hybridCiphertext, 0, privateKey.getByteLength(),
+                encryptedKey -> PaddedRSA.decrypt(encryptedKey, privateKey), maxInflatedSize);
+    }
 
-        byte[] encryptedMessage = new byte[hybridCiphertext.length - keyByteLength - IV_SIZE];
-        System.arraycopy(hybridCiphertext, keyByteLength + IV_SIZE, encryptedMessage, 0, encryptedMessage.length);
+    private static byte[] decrypt(byte[] hybridCiphertext, int keyByteLength, Function<BigInteger, byte[]> keyUnwrapper) throws Exception {
+        return decryptAt(hybridCiphertext, 0, keyByteLength, keyUnwrapper, Compression.DEFAULT_MAX_INFLATED_SIZE);
+    }
 
-        // 2. Decrypt the AES key with RSA.
-        BigInteger encryptedAesKeyBI = new BigInteger(1, encryptedAesKeyBytes);
-        byte[] decryptedAesKeyBytes = PaddedRSA.decrypt(encryptedAesKeyBI, d, n);
+    /**
+     * Decrypts a payload in the given format.
+     *
+     * @param payload    The payload.
+     * @param privateKey The private RSA key with its CRT components.
+     * @param format     The layout the payload was encrypted in.
+     * @return The original plaintext message.
+     * @throws Exception if decryption fails.
+     */
+    public static byte[] decrypt(byte[] payload, PrivateKeyRSA privateKey, Format format) throws Exception {
+        if (format == Format.PKCS1) {
+            return decryptAt(payload, 0, privateKey.getByteLength(), encryptedKey -> PaddedRSA.decrypt(encryptedKey, privateKey),
+                    Compression.DEFAULT_MAX_INFLATED_SIZE);
+        }
+        return decryptKem(payload, privateKey);
+    }
 
-        // 3. Reconstruct the AES key and IV.
-        SecretKey aesKey = new SecretKeySpec(decryptedAesKeyBytes, "AES");
-        IvParameterSpec ivSpec = new IvParameterSpec(iv);
+    private static byte[] decryptKem(byte[] payload, PrivateKeyRSA privateKey) throws Exception {
+        int bodyOffset = KEM_HEADER_SIZE + privateKey.getByteLength();
+        if (payload.length < bodyOffset + IV_SIZE) {
+            throw new IllegalArgumentException("KEM ciphertext too short: " + payload.length + " bytes");
+        }
+        readKemHeader(payload);
+        byte[] secret = decapsulate(payload, KEM_HEADER_SIZE, privateKey);
+        HybridListener l = listener;
+        long start = l == null ? 0 : System.nanoTime();
+        byte[] message = kemCipher(Cipher.DECRYPT_MODE, secret).doFinal(payload, bodyOffset, payload.length - bodyOffset);
+        if (l != null) {
+            l.onPhase(HybridListener.Phase.AES_DECRYPT, System.nanoTime() - start, message.length);
+        }
+        return message;
+    }
 
-        System.out.println("Safe opened with private key, Strongbox key retrieved.");
+    private static byte[] decapsulate(byte[] encapsulation, int offset, PrivateKeyRSA privateKey) {
+        HybridListener l = listener;
+        long start = l == null ? 0 : System.nanoTime();
+        byte[] secret = KemRSA.decapsulate(encapsulation, offset, privateKey);
+        if (l != null) {
+            l.onPhase(HybridListener.Phase.RSA_UNWRAP, System.nanoTime() - start, privateKey.getByteLength());
+        }
+        return secret;
+    }
+
+    /**
+     * Whether a payload is in the KEM format: it starts with the KEM magic and its length fits that
+     * layout. A PKCS1 payload is a whole number of blocks longer than its key, which a KEM payload,
+     * four bytes of header longer again, never is, so random leading bytes cannot be mistaken for a header.
+     */
+    private static boolean isKem(byte[] payload, int keyByteLength) {
+        int bodyLength = payload.length - KEM_HEADER_SIZE - keyByteLength;
+        return bodyLength >= IV_SIZE && bodyLength % IV_SIZE == 0
+                && payload[0] == KEM_MAGIC[0] && payload[1] == KEM_MAGIC[1] && payload[2] == KEM_MAGIC[2];
+    }
 
-        // 4. Decrypt the message with AES.
+    private static void kemHeader(byte[] into) {
+        System.arraycopy(KEM_MAGIC, 0, into, 0, KEM_MAGIC.length);
+        into[KEM_MAGIC.length] = KEM_VERSION;
+    }
+
+    private static void readKemHeader(byte[] header) {
+        if (header[0] != KEM_MAGIC[0] || header[1] != KEM_MAGIC[1] || header[2] != KEM_MAGIC[2]) {
+            throw new IllegalArgumentException("Not a KEM payload: bad magic");
+        }
+        if (header[3] != KEM_VERSION) {
+            throw new IllegalArgumentException("Unsupported KEM payload version: " + header[3]);
+        }
+    }
+
+    /**
+     * Sets up AES under the key and IV derived from a KEM secret, then clears the secret.
+     */
+    private static Cipher kemCipher(int mode, byte[] secret) throws Exception {
+        int keyBytes = AES_KEY_SIZE / 8;
         Cipher aesCipher = Cipher.getInstance(AES_ALGORITHM);
+        aesCipher.init(mode, new SecretKeySpec(secret, 0, keyBytes, "AES"), new IvParameterSpec(secret, keyBytes, IV_SIZE));
+        Arrays.fill(secret, (byte) 0);
+        return aesCipher;
+    }
+
+    /**
+     * Decrypts a hybrid payload that starts {@code offset} bytes into an array, e.g. behind a
+     * format's own header, without copying it out first.
+     */
+    static byte[] decryptAt(byte[] payload, int offset, PrivateKeyRSA privateKey) throws Exception {
+        return decryptAt(payload, offset, privateKey.getByteLength(), encryptedKey -> PaddedRSA.decrypt(encryptedKey, privateKey),
+                Compression.DEFAULT_MAX_INFLATED_SIZE);
+    }
+
+    private static byte[] decryptAt(byte[] payload, int offset, int keyByteLength, Function<BigInteger, byte[]> keyUnwrapper,
+                                    long maxInflatedSize) throws Exception {
+        // 1. Unpack the payload: [Encrypted AES Key][IV][Encrypted Message]
+        if (payload.length - offset < keyByteLength + IV_SIZE) {
+            throw new IllegalArgumentException("Hybrid ciphertext too short: " + (payload.length - offset) + " bytes");
+        }
+
+        // 2. Decrypt the AES key with RSA, and decompress afterwards if it was flagged.
+        byte[] block = unwrapKeyBlock(payload, offset, keyByteLength, keyUnwrapper);
+        byte[] message = decrypt(payload, offset + keyByteLength, keyOf(block));
+        return isFlagged(block) ? Compression.decompress(block[0], message, maxInflatedSize) : message;
+    }
+
+    /**
+     * Decrypts a hybrid-encrypted message whose AES key is already known, skipping the RSA step.
+     *
+     * @param hybridCiphertext The combined encrypted payload.
+     * @param keyByteLength    The length of the wrapped key field, i.e. of the RSA modulus in bytes.
+     *                         More generally, the offset of the IV, which the body follows.
+     * @param aesKey           The unwrapped AES key.
+     * @return The original plaintext message.
+     * @throws Exception if decryption fails.
+     */
+    static byte[] decrypt(byte[] hybridCiphertext, int keyByteLength, SecretKey aesKey) throws Exception {
+        return decrypt(hybridCiphertext, keyByteLength, aesKey, Cipher.getInstance(AES_ALGORITHM));
+    }
+
+    /**
+     * As {@link #decrypt(byte[], int, SecretKey)}, but with a caller-owned cipher.
+     */
+    static byte[] decrypt(byte[] hybridCiphertext, int keyByteLength, SecretKey aesKey, Cipher aesCipher) throws Exception {
+        // 3. Reconstruct the IV and decrypt the message with AES.
+        HybridListener l = listener;
+        long start = l == null ? 0 : System.nanoTime();
+        IvParameterSpec ivSpec = new IvParameterSpec(hybridCiphertext, keyByteLength, IV_SIZE);
         aesCipher.init(Cipher.DECRYPT_MODE, aesKey, ivSpec);
 
-        System.out.println("Strongbox opened, message retrieved.");
-        return aesCipher.doFinal(encryptedMessage);
+        int bodyOffset = keyByteLength + IV_SIZE;
+        byte[] message = aesCipher.doFinal(hybridCiphertext, bodyOffset, hybridCiphertext.length - bodyOffset);
+        if (l != null) {
+            l.onPhase(HybridListener.Phase.AES_DECRYPT, System.nanoTime() - start, message.length);
+        }
+        return message;
+    }
+
+    /**
+     * @return the exact length of the payload for a message of this length: the RSA block, the IV
+     *         and the AES body with its padding.
+     */
+    public static int encryptedSize(int messageLength, PublicKeyRSA publicKey) {
+        return publicKey.getByteLength() + IV_SIZE + (messageLength / IV_SIZE + 1) * IV_SIZE;
+    }
+
+    /**
+     * @return the room {@link #decryptInto(byte[], int, int, PrivateKeyRSA, byte[], int)} needs for a payload
+     *         of this length, i.e. the length of its AES body. The plaintext is 1 to 16 bytes shorter;
+     *         how much only shows once the padding is decrypted.
+     */
+    public static int maxDecryptedSize(int payloadLength, PrivateKeyRSA privateKey) {
+        return Math.max(payloadLength - privateKey.getByteLength() - IV_SIZE, 0);
+    }
+
+    /**
+     * Encrypts a message into a caller-owned buffer, in the same layout as
+     * {@link #encrypt(byte[], SecretKey, PublicKeyRSA)}. The RSA block and IV are written in place
+     * and AES writes straight after them, so no payload-sized array is allocated; what remains is
+     * the RSA arithmetic itself.
+     *
+     * @param message   The buffer holding the plaintext.
+     * @param offset    Where the plaintext starts.
+     * @param length    The length of the plaintext.
+     * @param aesKey    The one-time AES key to use for this encryption.
+     * @param publicKey The recipient's public RSA key.
+     * @param out       The buffer to write the payload into; it must not overlap the message.
+     * @param outOffset Where the payload starts in {@code out}.
+     * @return the number of bytes written, always {@link #encryptedSize(int, PublicKeyRSA)}.
+     * @throws IllegalArgumentException if {@code out} has too little room.
+     * @throws Exception if encryption fails.
+     */
+    public static int encryptInto(byte[] message, int offset, int length, SecretKey aesKey, PublicKeyRSA publicKey,
+                                  byte[] out, int outOffset) throws Exception {
+        int size = encryptedSize(length, publicKey);
+        checkRoom(out.length - outOffset, outOffset, size);
+        int keyByteLength = publicKey.getByteLength();
+        wrapKeyInto(aesKey, publicKey, out, outOffset);
+
+        HybridListener l = listener;
+        long start = l == null ? 0 : System.nanoTime();
+        // Whole blocks go straight from the message to the output; the last one is padded in scratch.
+        int whole = length - length % IV_SIZE;
+        int bodyOffset = outOffset + keyByteLength + IV_SIZE;
+        Cipher aesCipher = INTO_CIPHER.get();
+        aesCipher.init(Cipher.ENCRYPT_MODE, aesKey, new IvParameterSpec(out, outOffset + keyByteLength, IV_SIZE));
+        aesCipher.update(message, offset, whole, out, bodyOffset);
+        byte[] last = scratch(IV_SIZE);
+        System.arraycopy(message, offset + whole, last, 0, length - whole);
+        Arrays.fill(last, length - whole, IV_SIZE, (byte) (IV_SIZE - (length - whole)));
+        aesCipher.doFinal(last, 0, IV_SIZE, out, bodyOffset + whole);
+        Arrays.fill(last, 0, IV_SIZE, (byte) 0);
+        if (l != null) {
+            long now = System.nanoTime();
+            l.onPhase(HybridListener.Phase.AES_ENCRYPT, now - start, length);
+            // The header and body went straight into place, so there is nothing left to assemble; report the finished payload.
+            l.onPhase(HybridListener.Phase.PACKAGING, System.nanoTime() - now, size);
+        }
+        return size;
+    }
+
+    /**
+     * As {@link #encryptInto(byte[], int, int, SecretKey, PublicKeyRSA, byte[], int)}, from the
+     * remaining bytes of one buffer to the position of another, either of which may be direct.
+     * Both positions are advanced.
+     *
+     * @return the number of bytes written, always {@link #encryptedSize(int, PublicKeyRSA)}.
+     */
+    public static int encryptInto(ByteBuffer message, SecretKey aesKey, PublicKeyRSA publicKey, ByteBuffer out) throws Exception {
+        int length = message.remaining();
+        int size = encryptedSize(length, publicKey);
+        checkRoom(out.remaining(), out.position(), size);
+        int keyByteLength = publicKey.getByteLength();
+        // Scratch holds the header, then the last block before and after encryption.
+        byte[] header = scratch(keyByteLength + 3 * IV_SIZE);
+        wrapKeyInto(aesKey, publicKey, header, 0);
+        out.put(header, 0, keyByteLength + IV_SIZE);
+
+        HybridListener l = listener;
+        long start = l == null ? 0 : System.nanoTime();
+        int whole = length - length % IV_SIZE;
+        int last = keyByteLength + IV_SIZE;
+        Cipher aesCipher = INTO_CIPHER.get();
+        aesCipher.init(Cipher.ENCRYPT_MODE, aesKey, new IvParameterSpec(header, keyByteLength, IV_SIZE));
+        int limit = message.limit();
+        message.limit(message.position() + whole);
+        try {
+            aesCipher.update(message, out);
+        } finally {
+            message.limit(limit);
+        }
+        message.get(header, last, length - whole);
+        Arrays.fill(header, last + length - whole, last + IV_SIZE, (byte) (IV_SIZE - (length - whole)));
+        aesCipher.doFinal(header, last, IV_SIZE, header, last + IV_SIZE);
+        out.put(header, last + IV_SIZE, IV_SIZE);
+        Arrays.fill(header, last, last + IV_SIZE, (byte) 0);
+        if (l != null) {
+            long now = System.nanoTime();
+            l.onPhase(HybridListener.Phase.AES_ENCRYPT, now - start, length);
+            // The header and body went straight into place, so there is nothing left to assemble; report the finished payload.
+            l.onPhase(HybridListener.Phase.PACKAGING, System.nanoTime() - now, size);
+        }
+        return size;
+    }
+
+    /**
+     * Decrypts a payload into a caller-owned buffer. The AES body is decrypted straight from the
+     * payload into {@code out}, with nothing copied on the way.
+     * Compressed payloads are not accepted, as they cannot be inflated in place.
+     *
+     * @param payload    The buffer holding the payload.
+     * @param offset     Where the payload starts.
+     * @param length     The length of the payload.
+     * @param privateKey The private RSA key with its CRT components.
+     * @param out        The buffer to write the plaintext into; it needs room for
+     *                   {@link #maxDecryptedSize(int, PrivateKeyRSA)} bytes.
+     * @param outOffset  Where the plaintext starts in {@code out}.
+     * @return the length of the plaintext.
+     * @throws IllegalArgumentException if the payload is too short or compressed, or {@code out} has too little room.
+     * @throws Exception if decryption fails.
+     */
+    public static int decryptInto(byte[] payload, int offset, int length, PrivateKeyRSA privateKey,
+                                  byte[] out, int outOffset) throws Exception {
+        int keyByteLength = privateKey.getByteLength();
+        if (length < keyByteLength + IV_SIZE) {
+            throw new IllegalArgumentException("Hybrid ciphertext too short: " + length + " bytes");
+        }
+        int bodyLength = checkBody(length - keyByteLength - IV_SIZE);
+        checkRoom(out.length - outOffset, outOffset, bodyLength);
+        SecretKey aesKey = unwrapKeyInto(payload, offset, privateKey);
+
+        HybridListener l = listener;
+        long start = l == null ? 0 : System.nanoTime();
+        Cipher aesCipher = INTO_CIPHER.get();
+        aesCipher.init(Cipher.DECRYPT_MODE, aesKey, new IvParameterSpec(payload, offset + keyByteLength, IV_SIZE));
+        aesCipher.doFinal(payload, offset + keyByteLength + IV_SIZE, bodyLength, out, outOffset);
+
+        // Strip the padding, clearing it; on a bad block clear everything, as the key was wrong or the payload damaged.
+        int end = outOffset + bodyLength;
+        int padding = out[end - 1] & 0xFF;
+        boolean valid = padding >= 1 && padding <= IV_SIZE;
+        for (int i = end - (valid ? padding : 1); i < end; i++) {
+            valid &= out[i] == (byte) padding;
+        }
+        if (!valid) {
+            Arrays.fill(out, outOffset, end, (byte) 0);
+            throw new BadPaddingException("Given final block not properly padded");
+        }
+        Arrays.fill(out, end - padding, end, (byte) 0);
+        int written = bodyLength - padding;
+        if (l != null) {
+            l.onPhase(HybridListener.Phase.AES_DECRYPT, System.nanoTime() - start, written);
+        }
+        return written;
+    }
+
+    /**
+     * As {@link #decryptInto(byte[], int, int, PrivateKeyRSA, byte[], int)}, from the remaining bytes
+     * of one buffer to the position of another, either of which may be direct. Both positions are advanced.
+     *
+     * @return the length of the plaintext.
+     */
+    public static int decryptInto(ByteBuffer payload, PrivateKeyRSA privateKey, ByteBuffer out) throws Exception {
+        int keyByteLength = privateKey.getByteLength();
+        int length = payload.remaining();
+        if (length < keyByteLength + IV_SIZE) {
+            throw new IllegalArgumentException("Hybrid ciphertext too short: " + length + " bytes");
+        }
+        int bodyLength = checkBody(length - keyByteLength - IV_SIZE);
+        checkRoom(out.remaining(), out.position(), bodyLength);
+        byte[] header = scratch(2 * keyByteLength + IV_SIZE); // the header, then room to unwrap the key
+        payload.get(header, 0, keyByteLength + IV_SIZE);
+        SecretKey aesKey = unwrapKeyInto(header, 0, privateKey);
+
+        HybridListener l = listener;
+        long start = l == null ? 0 : System.nanoTime();
+        Cipher aesCipher = INTO_CIPHER.get();
+        aesCipher.init(Cipher.DECRYPT_MODE, aesKey, new IvParameterSpec(header, keyByteLength, IV_SIZE));
+        int from = out.position();
+        aesCipher.doFinal(payload, out);
+
+        int end = out.position();
+        int padding = out.get(end - 1) & 0xFF;
+        boolean valid = padding >= 1 && padding <= IV_SIZE;
+        for (int i = end - (valid ? padding : 1); i < end; i++) {
+            valid &= out.get(i) == (byte) padding;
+        }
+        for (int i = valid ? end - padding : from; i < end; i++) {
+            out.put(i, (byte) 0);
+        }
+        out.position(valid ? end - padding : from);
+        if (!valid) {
+            throw new BadPaddingException("Given final block not properly padded");
+        }
+        int written = bodyLength - padding;
+        if (l != null) {
+            l.onPhase(HybridListener.Phase.AES_DECRYPT, System.nanoTime() - start, written);
+        }
+        return written;
+    }
+
+    /**
+     * Writes the RSA-wrapped AES key and a fresh IV at {@code outOffset}: the header of a payload.
+     */
+    private static void wrapKeyInto(SecretKey aesKey, PublicKeyRSA publicKey, byte[] out, int outOffset) {
+        HybridListener l = listener;
+        long start = l == null ? 0 : System.nanoTime();
+        int keyByteLength = publicKey.getByteLength();
+        byte[] key = aesKey.getEncoded();
+        PaddedRSA.encrypt(key, 0, key.length, publicKey, RandomSource.shared(), out, outOffset);
+        Arrays.fill(key, (byte) 0);
+        RandomSource.shared().nextBytes(out, outOffset + keyByteLength, IV_SIZE);
+        if (l != null) {
+            l.onPhase(HybridListener.Phase.RSA_WRAP, System.nanoTime() - start, keyByteLength);
+        }
+    }
+
+    /**
+     * Unwraps the AES key at {@code offset}, by way of the per-thread scratch buffer after the
+     * first key length + IV bytes, where a header read from a ByteBuffer may be.
+     */
+    private static SecretKey unwrapKeyInto(byte[] payload, int offset, PrivateKeyRSA privateKey) {
+        HybridListener l = listener;
+        long start = l == null ? 0 : System.nanoTime();
+        int keyByteLength = privateKey.getByteLength();
+        byte[] scratch = scratch(2 * keyByteLength + IV_SIZE);
+        int blockOffset = keyByteLength + IV_SIZE;
+        int blockLength = PaddedRSA.decrypt(payload, offset, privateKey, scratch, blockOffset);
+        if (l != null) {
+            l.onPhase(HybridListener.Phase.RSA_UNWRAP, System.nanoTime() - start, keyByteLength);
+        }
+        if (isFlagged(blockLength)) {
+            Arrays.fill(scratch, blockOffset, blockOffset + blockLength, (byte) 0);
+            throw new IllegalArgumentException("Compressed payloads cannot be decrypted into a buffer; use decrypt");
+        }
+        SecretKey aesKey = new SecretKeySpec(scratch, blockOffset, blockLength, "AES");
+        Arrays.fill(scratch, blockOffset, blockOffset + blockLength, (byte) 0);
+        return aesKey;
+    }
+
+    /**
+     * @return the per-thread scratch buffer, at least {@code length} bytes long.
+     */
+    private static byte[] scratch(int length) {
+        byte[] scratch = INTO_SCRATCH.get();
+        if (scratch.length < length) {
+            scratch = new byte[length];
+            INTO_SCRATCH.set(scratch);
+        }
+        return scratch;
+    }
+
+    /**
+     * @return the AES body length, if it is a whole number of blocks and at least one.
+     */
+    private static int checkBody(int bodyLength) throws IllegalBlockSizeException {
+        if (bodyLength == 0 || bodyLength % IV_SIZE != 0) {
+            throw new IllegalBlockSizeException("Input length must be multiple of 16 when decrypting with padded cipher");
+        }
+        return bodyLength;
+    }
+
+    private static void checkRoom(int available, int outOffset, int needed) {
+        if (outOffset < 0 || available < needed) {
+            throw new IllegalArgumentException(
+                    "Output buffer too small: " + needed + " bytes needed at offset " + outOffset + ", " + available + " available");
+        }
+    }
+
+    private static Cipher newAesCipher() {
+        try {
+            return Cipher.getInstance("AES/CBC/NoPadding");
+        } catch (Exception ex) {
+            throw new IllegalStateException("AES cipher unavailable: AES/CBC/NoPadding", ex);
+        }
     }
 
     /**
-     * Converts a BigInteger to a byte array of a fixed size, padding with leading zeros
-     * or trimming the sign bit as necessary.
+     * Encrypts a stream of any size using the hybrid RSA-AES scheme, writing the same
+     * [Encrypted AES Key][IV][Encrypted Message] layout as {@link #encrypt(byte[], SecretKey, BigInteger, BigInteger)}.
+     * The header is written first and the message is then pushed through AES in fixed-size
+     * chunks, so memory use stays constant however large the input is.
+     * Neither stream is closed.
+     *
+     * @param in     The plaintext to encrypt.
+     * @param out    Where the hybrid ciphertext is written.
+     * @param aesKey The one-time AES key to use for this encryption.
+     * @param e      The public RSA exponent.
+     * @param n      The public RSA modulus.
+     * @throws Exception if encryption or I/O fails.
+     */
+    public static void encrypt(InputStream in, OutputStream out, SecretKey aesKey, BigInteger e, BigInteger n) throws Exception {
+        encrypt(in, out, aesKey, new PublicKeyRSA(e, n));
+    }
+
+    /**
+     * Encrypts a stream of any size using the hybrid RSA-AES scheme and a prepared public key.
+     * Neither stream is closed.
+     *
+     * @param in        The plaintext to encrypt.
+     * @param out       Where the hybrid ciphertext is written.
+     * @param aesKey    The one-time AES key to use for this encryption.
+     * @param publicKey The recipient's public RSA key.
+     * @throws Exception if encryption or I/O fails.
+     */
+    public static void encrypt(InputStream in, OutputStream out, SecretKey aesKey, PublicKeyRSA publicKey) throws Exception {
+        encrypt(in, out, aesKey, publicKey, Compression.NONE);
+    }
+
+    /**
+     * Encrypts a stream, compressing it on the way if a sample from its start shows that is worthwhile.
+     * Neither stream is closed.
+     *
+     * @param in          The plaintext to encrypt.
+     * @param out         Where the hybrid ciphertext is written.
+     * @param aesKey      The one-time AES key to use for this encryption.
+     * @param publicKey   The recipient's public RSA key.
+     * @param compression The compression to try, e.g. {@link Compression#deflate()}.
+     * @throws Exception if encryption or I/O fails.
      */
-    private static byte[] toFixedSizeBytes(BigInteger value, int length) {
-        byte[] bytes = value.toByteArray();
-        byte[] fixedSizeBytes = new byte[length];
+    public static void encrypt(InputStream in, OutputStream out, SecretKey aesKey, PublicKeyRSA publicKey, Compression compression) throws Exception {
+        // 1. Generate a random IV and set up AES, exactly as the byte array path does.
+        SecureRandom random = RandomSource.shared();
+        byte[] iv = new byte[IV_SIZE];
+        random.nextBytes(iv);
+        Cipher aesCipher = Cipher.getInstance(AES_ALGORITHM);
+        aesCipher.init(Cipher.ENCRYPT_MODE, aesKey, new IvParameterSpec(iv));
+
+        // 2. Read ahead a sample to decide on compression, then put it back in front of the rest.
+        boolean compress = false;
+        if (compression != Compression.NONE) {
+            byte[] sample = in.readNBytes(Math.max(compression.getSampleSize(), 1));
+            compress = compression.worthCompressing(sample, sample.length);
+            in = new SequenceInputStream(new ByteArrayInputStream(sample), in);
+        }
+
+        // 3. Lock the AES key in the Safe and send the header before any message bytes.
+        byte[] encryptedAesKeyBytes = compress
+                ? wrapKey(aesKey, compression.flags(), publicKey, random)
+                : wrapKey(aesKey, publicKey, random);
+        HybridListener l = listener;
+        long start = l == null ? 0 : System.nanoTime();
+        out.write(encryptedAesKeyBytes);
+        out.write(iv);
+        if (l != null) {
+            long now = System.nanoTime();
+            l.onPhase(HybridListener.Phase.PACKAGING, now - start, encryptedAesKeyBytes.length + IV_SIZE);
+            start = now;
+        }
 
-        if (bytes.length > length) {
-            // toByteArray() may add a leading 0x00 for the sign bit, ignore it.
-            System.arraycopy(bytes, bytes.length - length, fixedSizeBytes, 0, length);
+        // 4. Stream the message, compressed or not, through AES.
+        long streamed;
+        if (compress) {
+            try (InputStream compressed = compression.compressing(in)) {
+                streamed = streamThrough(aesCipher, compressed, out, true);
+            }
         } else {
-            // Copy the bytes to the right end of the array, effectively left-padding with zeros.
-            System.arraycopy(bytes, 0, fixedSizeBytes, length - bytes.length, bytes.length);
+            streamed = streamThrough(aesCipher, in, out, true);
+        }
+        if (l != null) {
+            l.onPhase(HybridListener.Phase.AES_ENCRYPT, System.nanoTime() - start, streamed);
+        }
+    }
+
+    /**
+     * Encrypts a stream with a fresh key, in the given format. Neither stream is closed.
+     *
+     * @param in        The plaintext to encrypt.
+     * @param out       Where the payload is written.
+     * @param publicKey The recipient's public RSA key.
+     * @param format    The payload layout; decrypt with the same one.
+     * @throws Exception if encryption or I/O fails.
+     */
+    public static void encrypt(InputStream in, OutputStream out, PublicKeyRSA publicKey, Format format) throws Exception {
+        if (format == Format.PKCS1) {
+            encrypt(in, out, KeGenAES.generateKey(AES_KEY_SIZE), publicKey);
+            return;
+        }
+        byte[] header = new byte[KEM_HEADER_SIZE + publicKey.getByteLength()];
+        kemHeader(header);
+        HybridListener l = listener;
+        long start = l == null ? 0 : System.nanoTime();
+        byte[] secret = KemRSA.encapsulate(publicKey, RandomSource.shared(), header, KEM_HEADER_SIZE);
+        if (l != null) {
+            long now = System.nanoTime();
+            l.onPhase(HybridListener.Phase.RSA_WRAP, now - start, publicKey.getByteLength());
+            start = now;
+        }
+        out.write(header);
+        if (l != null) {
+            long now = System.nanoTime();
+            l.onPhase(HybridListener.Phase.PACKAGING, now - start, header.length);
+            start = now;
+        }
+        long streamed = streamThrough(kemCipher(Cipher.ENCRYPT_MODE, secret), in, out, true);
+        if (l != null) {
+            l.onPhase(HybridListener.Phase.AES_ENCRYPT, System.nanoTime() - start, streamed);
+        }
+    }
+
+    /**
+     * Decrypts a hybrid-encrypted stream, writing the plaintext to {@code out} in fixed-size chunks.
+     * Neither stream is closed.
+     *
+     * @param in  The combined encrypted payload.
+     * @param out Where the plaintext is written.
+     * @param d   The private RSA exponent.
+     * @param n   The private RSA modulus.
+     * @throws Exception if decryption or I/O fails.
+     */
+    public static void decrypt(InputStream in, OutputStream out, BigInteger d, BigInteger n) throws Exception {
+        decrypt(in, out, (n.bitLength() + 7) / 8, encryptedKey -> PaddedRSA.decrypt(encryptedKey, d, n), Long.MAX_VALUE);
+    }
+
+    /**
+     * Decrypts a hybrid-encrypted stream using the CRT form of the private key.
+     * Neither stream is closed. A compressed payload may inflate to any size, as the plaintext goes
+     * straight to {@code out}; pass a limit to the overload below if {@code out} cannot take that.
+     *
+     * @param in         The combined encrypted payload.
+     * @param out        Where the plaintext is written.
+     * @param privateKey The private RSA key with its CRT components.
+     * @throws Exception if decryption or I/O fails.
+     */
+    public static void decrypt(InputStream in, OutputStream out, PrivateKeyRSA privateKey) throws Exception {
+        decrypt(in, out, privateKey, Long.MAX_VALUE);
+    }
+
+    /**
+     * As {@link #decrypt(InputStream, OutputStream, PrivateKeyRSA)}, with a caller-chosen cap on how much
+     * a compressed payload may write to {@code out}.
+     *
+     * @param maxInflatedSize The most bytes a compressed message may inflate to.
+     * @throws IllegalArgumentException if a compressed message inflates past {@code maxInflatedSize};
+     *                                  what came before the limit has already been written.
+     */
+    public static void decrypt(InputStream in, OutputStream out, PrivateKeyRSA privateKey, long maxInflatedSize) throws Exception {
+        decrypt(in, out, privateKey.getByteLength(), encryptedKey -> PaddedRSA.decrypt(encryptedKey, privateKey), maxInflatedSize);
+    }
+
+    private static void decrypt(InputStream in, OutputStream out, int keyByteLength, Function<BigInteger, byte[]> keyUnwrapper,
+                                long maxInflatedSize) throws Exception {
+        // 1. Read the header: [Encrypted AES Key][IV]
+        byte[] encryptedAesKeyBytes = readFully(in, keyByteLength);
+        byte[] iv = readFully(in, IV_SIZE);
+
+        // 2. Decrypt the AES key with RSA.
+        byte[] block = unwrapKeyBlock(encryptedAesKeyBytes, 0, keyByteLength, keyUnwrapper);
+
+        // 3. Stream the rest through AES, and through the decompressor if the key was flagged.
+        HybridListener l = listener;
+        long start = l == null ? 0 : System.nanoTime();
+        Cipher aesCipher = Cipher.getInstance(AES_ALGORITHM);
+        aesCipher.init(Cipher.DECRYPT_MODE, keyOf(block), new IvParameterSpec(iv));
+        long streamed;
+        if (isFlagged(block)) {
+            try (OutputStream decompressed = Compression.decompressing(block[0], out, maxInflatedSize)) {
+                streamed = streamThrough(aesCipher, in, decompressed, false);
+            }
+        } else {
+            streamed = streamThrough(aesCipher, in, out, false);
+        }
+        if (l != null) {
+            l.onPhase(HybridListener.Phase.AES_DECRYPT, System.nanoTime() - start, streamed);
+        }
+    }
+
+    /**
+     * Decrypts a stream in the given format. Neither stream is closed.
+     *
+     * @param in         The payload.
+     * @param out        Where the plaintext is written.
+     * @param privateKey The private RSA key with its CRT components.
+     * @param format     The layout the payload was encrypted in.
+     * @throws Exception if decryption or I/O fails.
+     */
+    public static void decrypt(InputStream in, OutputStream out, PrivateKeyRSA privateKey, Format format) throws Exception {
+        if (format == Format.PKCS1) {
+            decrypt(in, out, privateKey);
+            return;
+        }
+        byte[] header = readFully(in, KEM_HEADER_SIZE + privateKey.getByteLength());
+        readKemHeader(header);
+        byte[] secret = decapsulate(header, KEM_HEADER_SIZE, privateKey);
+        HybridListener l = listener;
+        long start = l == null ? 0 : System.nanoTime();
+        long streamed = streamThrough(kemCipher(Cipher.DECRYPT_MODE, secret), in, out, false);
+        if (l != null) {
+            l.onPhase(HybridListener.Phase.AES_DECRYPT, System.nanoTime() - start, streamed);
+        }
+    }
+
+    /**
+     * Pushes everything left in {@code in} through an initialised cipher using two fixed buffers.
+     *
+     * @return the number of plaintext bytes: those read when encrypting, those written when decrypting.
+     */
+    static long streamThrough(Cipher cipher, InputStream in, OutputStream out, boolean encrypting) throws Exception {
+        long consumed = 0;
+        long produced = 0;
+        byte[] inBuffer = new byte[STREAM_CHUNK_SIZE];
+        // Room for a full chunk plus a block the cipher may have held back and a block of padding.
+        byte[] outBuffer = new byte[STREAM_CHUNK_SIZE + 2 * IV_SIZE];
+        int read;
+        while ((read = in.read(inBuffer)) != -1) {
+            int written = cipher.update(inBuffer, 0, read, outBuffer, 0);
+            out.write(outBuffer, 0, written);
+            consumed += read;
+            produced += written;
+        }
+        int written = cipher.doFinal(outBuffer, 0);
+        out.write(outBuffer, 0, written);
+        return encrypting ? consumed : produced + written;
+    }
+
+    static byte[] readFully(InputStream in, int length) throws IOException {
+        byte[] bytes = in.readNBytes(length);
+        if (bytes.length != length) {
+            throw new EOFException("Hybrid ciphertext truncated: expected " + length + " header bytes, got " + bytes.length);
         }
-        return fixedSizeBytes;
+        return bytes;
     }
-}
\ No newline at end of file
+}
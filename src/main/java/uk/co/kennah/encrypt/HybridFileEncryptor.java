@@ -0,0 +1,166 @@
+package uk.co.kennah.encrypt;
+
+import uk.co.kennah.encrypt.utils.PaddedRSA;
+import uk.co.kennah.encrypt.utils.PrivateKeyRSA;
+import uk.co.kennah.encrypt.utils.PublicKeyRSA;
+import uk.co.kennah.encrypt.utils.RandomSource;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
+import java.io.EOFException;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Function;
+
+/**
+ * File-level hybrid encryption using memory-mapped I/O.
+ * The input file is mapped with {@link FileChannel#map} and AES runs straight from the mapped
+ * input into a mapped region of the output file, so the message never passes through a heap
+ * {@code byte[]}. Files are processed in mapped windows, so they may be larger than 2 GB.
+ * The files use the same [Encrypted AES Key][IV][Encrypted Message] layout as {@link HybridEncryptor}.
+ */
+public class HybridFileEncryptor {
+
+    // Window size for each mapping. A multiple of the AES block size so windows split on block boundaries.
+    private static final long MAP_WINDOW = 64L * 1024 * 1024;
+
+    /**
+     * Encrypts a file into the hybrid format.
+     *
+     * @param source The plaintext file.
+     * @param target The file to write the hybrid ciphertext to; created or replaced.
+     * @param aesKey The one-time AES key to use for this encryption.
+     * @param e      The public RSA exponent.
+     * @param n      The public RSA modulus.
+     * @throws Exception if encryption or I/O fails.
+     */
+    public static void encryptFile(Path source, Path target, SecretKey aesKey, BigInteger e, BigInteger n) throws Exception {
+        encryptFile(source, target, aesKey, new PublicKeyRSA(e, n));
+    }
+
+    /**
+     * Encrypts a file into the hybrid format with a prepared public key.
+     *
+     * @param source    The plaintext file.
+     * @param target    The file to write the hybrid ciphertext to; created or replaced.
+     * @param aesKey    The one-time AES key to use for this encryption.
+     * @param publicKey The recipient's public RSA key.
+     * @throws Exception if encryption or I/O fails.
+     */
+    public static void encryptFile(Path source, Path target, SecretKey aesKey, PublicKeyRSA publicKey) throws Exception {
+        // 1. Generate the IV and wrap the AES key, as HybridEncryptor does.
+        byte[] iv = new byte[HybridEncryptor.IV_SIZE];
+        RandomSource.shared().nextBytes(iv);
+        Cipher aesCipher = Cipher.getInstance(HybridEncryptor.AES_ALGORITHM);
+        aesCipher.init(Cipher.ENCRYPT_MODE, aesKey, new IvParameterSpec(iv));
+
+        byte[] encryptedAesKeyBytes = HybridEncryptor.wrapKey(aesKey, publicKey);
+        int keyByteLength = encryptedAesKeyBytes.length;
+
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                     StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // 2. Write the small header with a plain write, then map the body.
+            writeFully(out, ByteBuffer.wrap(encryptedAesKeyBytes), 0);
+            writeFully(out, ByteBuffer.wrap(iv), keyByteLength);
+
+            long end = mapThrough(aesCipher, in, 0, in.size(), out, keyByteLength + HybridEncryptor.IV_SIZE);
+            out.truncate(end);
+        }
+    }
+
+    /**
+     * Decrypts a hybrid-encrypted file.
+     *
+     * @param source The hybrid ciphertext file.
+     * @param target The file to write the plaintext to; created or replaced.
+     * @param d      The private RSA exponent.
+     * @param n      The private RSA modulus.
+     * @throws Exception if decryption or I/O fails.
+     */
+    public static void decryptFile(Path source, Path target, BigInteger d, BigInteger n) throws Exception {
+        decryptFile(source, target, (n.bitLength() + 7) / 8, encryptedKey -> PaddedRSA.decrypt(encryptedKey, d, n));
+    }
+
+    /**
+     * Decrypts a hybrid-encrypted file using the CRT form of the private key.
+     *
+     * @param source     The hybrid ciphertext file.
+     * @param target     The file to write the plaintext to; created or replaced.
+     * @param privateKey The private RSA key with its CRT components.
+     * @throws Exception if decryption or I/O fails.
+     */
+    public static void decryptFile(Path source, Path target, PrivateKeyRSA privateKey) throws Exception {
+        decryptFile(source, target, privateKey.getByteLength(), encryptedKey -> PaddedRSA.decrypt(encryptedKey, privateKey));
+    }
+
+    private static void decryptFile(Path source, Path target, int keyByteLength, Function<BigInteger, byte[]> keyUnwrapper) throws Exception {
+        int headerLength = keyByteLength + HybridEncryptor.IV_SIZE;
+
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+            // 1. Read the header: [Encrypted AES Key][IV]
+            ByteBuffer header = ByteBuffer.allocate(headerLength);
+            readFully(in, header, 0);
+
+            // 2. Decrypt the AES key with RSA, before the target is touched.
+            byte[] block = HybridEncryptor.unwrapKeyBlock(header.array(), 0, keyByteLength, keyUnwrapper);
+            if (HybridEncryptor.isFlagged(block)) {
+                throw new IllegalArgumentException("Compressed payloads cannot be decrypted by mapping; use HybridEncryptor.decrypt");
+            }
+            SecretKey aesKey = HybridEncryptor.keyOf(block);
+
+            // 3. Map the body through AES.
+            Cipher aesCipher = Cipher.getInstance(HybridEncryptor.AES_ALGORITHM);
+            aesCipher.init(Cipher.DECRYPT_MODE, aesKey, new IvParameterSpec(header.array(), keyByteLength, HybridEncryptor.IV_SIZE));
+            try (FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                long end = mapThrough(aesCipher, in, headerLength, in.size() - headerLength, out, 0);
+                out.truncate(end);
+            }
+        }
+    }
+
+    /**
+     * Runs {@code length} bytes of {@code in} starting at {@code inPosition} through the cipher,
+     * one mapped window at a time, writing into mapped windows of {@code out}.
+     *
+     * @return the position in {@code out} just past the last byte written.
+     */
+    private static long mapThrough(Cipher cipher, FileChannel in, long inPosition, long length,
+                                   FileChannel out, long outPosition) throws Exception {
+        long done = 0;
+        do {
+            long window = Math.min(MAP_WINDOW, length - done);
+            boolean last = done + window == length;
+            MappedByteBuffer inBuffer = in.map(FileChannel.MapMode.READ_ONLY, inPosition + done, window);
+            // Room for the window plus a block the cipher may have held back and a block of padding.
+            MappedByteBuffer outBuffer = out.map(FileChannel.MapMode.READ_WRITE, outPosition,
+                    window + 2L * HybridEncryptor.IV_SIZE);
+            outPosition += last ? cipher.doFinal(inBuffer, outBuffer) : cipher.update(inBuffer, outBuffer);
+            done += window;
+        } while (done < length);
+        return outPosition;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("Hybrid ciphertext truncated: header incomplete");
+            }
+            position += read;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package uk.co.kennah.encrypt;
+
+/**
+ * Receives the timing of each phase of a hybrid encryption or decryption.
+ * Install one with {@link HybridEncryptor#setListener(HybridListener)}; with none installed the
+ * encryptor does not even read the clock. Listeners are called on the encrypting thread, so they
+ * must be thread-safe and cheap.
+ */
+@FunctionalInterface
+public interface HybridListener {
+
+    /**
+     * The phases of the hybrid scheme, in the order they happen.
+     */
+    enum Phase {
+        /** The message is put in the Strongbox: AES encryption of the body. */
+        AES_ENCRYPT,
+        /** The Strongbox key is locked in the Safe: RSA encryption of the AES key. */
+        RSA_WRAP,
+        /** Safe and Strongbox are packaged together into one payload. */
+        PACKAGING,
+        /** The Safe is opened with the private key: RSA decryption of the AES key. */
+        RSA_UNWRAP,
+        /** The Strongbox is opened: AES decryption of the body. */
+        AES_DECRYPT
+    }
+
+    /**
+     * Called when a phase completes.
+     *
+     * @param phase The phase that completed.
+     * @param nanos How long it took, in nanoseconds.
+     * @param bytes The bytes it produced: the plaintext for AES phases, the wrapped key for RSA phases,
+     *              and the whole payload for packaging. For a compressed message the AES phases count
+     *              the compressed bytes and, when streaming, include the time spent compressing.
+     */
+    void onPhase(Phase phase, long nanos, long bytes);
+}
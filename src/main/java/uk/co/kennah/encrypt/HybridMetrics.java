@@ -0,0 +1,145 @@
+package uk.co.kennah.encrypt;
+
+import uk.co.kennah.encrypt.utils.LatencyHistogram;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@link HybridListener} that keeps counters, byte totals and latency histograms for every phase,
+ * and can publish them over JMX. Recording is lock-free.
+ * <pre>
+ * HybridMetrics metrics = new HybridMetrics();
+ * metrics.register();
+ * HybridEncryptor.setListener(metrics);
+ * </pre>
+ */
+public class HybridMetrics implements HybridListener, HybridMetricsMXBean {
+
+    public static final String OBJECT_NAME = "uk.co.kennah.encrypt:type=HybridMetrics";
+
+    private static final HybridListener.Phase[] PHASES = HybridListener.Phase.values();
+
+    private final LongAdder[] counts = newAdders();
+    private final LongAdder[] nanos = newAdders();
+    private final LongAdder[] bytes = newAdders();
+    private final LatencyHistogram[] histograms = new LatencyHistogram[PHASES.length];
+
+    public HybridMetrics() {
+        for (int i = 0; i < PHASES.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    @Override
+    public void onPhase(Phase phase, long phaseNanos, long phaseBytes) {
+        int i = phase.ordinal();
+        counts[i].increment();
+        nanos[i].add(phaseNanos);
+        bytes[i].add(phaseBytes);
+        histograms[i].record(phaseNanos);
+    }
+
+    /**
+     * Registers this instance with the platform MBean server under {@link #OBJECT_NAME}.
+     *
+     * @throws JMException if the name is already taken or registration fails.
+     */
+    public void register() throws JMException {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+    }
+
+    /**
+     * Removes this instance from the platform MBean server.
+     *
+     * @throws JMException if it was not registered.
+     */
+    public void unregister() throws JMException {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(OBJECT_NAME));
+    }
+
+    /**
+     * @return the latency histogram, in nanoseconds, of one phase.
+     */
+    public LatencyHistogram getHistogram(Phase phase) {
+        return histograms[phase.ordinal()];
+    }
+
+    @Override
+    public long getMessagesEncrypted() {
+        return counts[Phase.PACKAGING.ordinal()].sum();
+    }
+
+    @Override
+    public long getMessagesDecrypted() {
+        return counts[Phase.AES_DECRYPT.ordinal()].sum();
+    }
+
+    @Override
+    public long getBytesEncrypted() {
+        return bytes[Phase.AES_ENCRYPT.ordinal()].sum();
+    }
+
+    @Override
+    public long getBytesDecrypted() {
+        return bytes[Phase.AES_DECRYPT.ordinal()].sum();
+    }
+
+    @Override
+    public Map<String, Long> getPhaseCounts() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (Phase phase : PHASES) {
+            result.put(phase.name(), counts[phase.ordinal()].sum());
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getPhaseTotalNanos() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (Phase phase : PHASES) {
+            result.put(phase.name(), nanos[phase.ordinal()].sum());
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Double> getPhaseMeanMicros() {
+        Map<String, Double> result = new LinkedHashMap<>();
+        for (Phase phase : PHASES) {
+            result.put(phase.name(), histograms[phase.ordinal()].getMean() / 1_000);
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Double> getPhaseP99Micros() {
+        Map<String, Double> result = new LinkedHashMap<>();
+        for (Phase phase : PHASES) {
+            result.put(phase.name(), histograms[phase.ordinal()].getPercentile(99) / 1_000.0);
+        }
+        return result;
+    }
+
+    @Override
+    public void reset() {
+        for (int i = 0; i < PHASES.length; i++) {
+            counts[i].reset();
+            nanos[i].reset();
+            bytes[i].reset();
+            histograms[i].reset();
+        }
+    }
+
+    private static LongAdder[] newAdders() {
+        LongAdder[] adders = new LongAdder[PHASES.length];
+        for (int i = 0; i < adders.length; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+}
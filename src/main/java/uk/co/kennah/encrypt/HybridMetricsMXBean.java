@@ -0,0 +1,27 @@
+package uk.co.kennah.encrypt;
+
+import java.util.Map;
+
+/**
+ * The JMX view of {@link HybridMetrics}. Per-phase maps are keyed by {@link HybridListener.Phase} name.
+ */
+public interface HybridMetricsMXBean {
+
+    long getMessagesEncrypted();
+
+    long getMessagesDecrypted();
+
+    long getBytesEncrypted();
+
+    long getBytesDecrypted();
+
+    Map<String, Long> getPhaseCounts();
+
+    Map<String, Long> getPhaseTotalNanos();
+
+    Map<String, Double> getPhaseMeanMicros();
+
+    Map<String, Double> getPhaseP99Micros();
+
+    void reset();
+}
@@ -0,0 +1,96 @@
+package uk.co.kennah.encrypt;
+
+import uk.co.kennah.encrypt.utils.PrivateKeyRSA;
+
+import javax.crypto.SecretKey;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decrypts hybrid payloads for one private key, remembering recently unwrapped AES keys.
+ * Senders using a {@link HybridSession} repeat the same wrapped key across many messages, so
+ * the receiver keeps a bounded LRU cache from wrapped-key bytes to AES key and only pays for
+ * the private RSA operation on a miss. Instances are thread-safe.
+ */
+public class HybridReceiver {
+
+    private final PrivateKeyRSA privateKey;
+    private final int keyByteLength;
+    private final Map<ByteBuffer, SecretKey> cache; // guarded by itself
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param privateKey The private RSA key with its CRT components.
+     * @param capacity   The maximum number of unwrapped AES keys to keep.
+     */
+    public HybridReceiver(PrivateKeyRSA privateKey, int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        this.privateKey = privateKey;
+        this.keyByteLength = privateKey.getByteLength();
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ByteBuffer, SecretKey> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Decrypts a hybrid payload, skipping the RSA step if its wrapped key has been seen recently.
+     *
+     * @param hybridCiphertext The combined encrypted payload.
+     * @return The original plaintext message.
+     * @throws Exception if decryption fails.
+     */
+    public byte[] decrypt(byte[] hybridCiphertext) throws Exception {
+        if (hybridCiphertext.length < keyByteLength) {
+            throw new IllegalArgumentException("Hybrid ciphertext too short: " + hybridCiphertext.length + " bytes");
+        }
+        // ByteBuffer equality is by content, so a view of the payload can be used for the lookup.
+        ByteBuffer wrappedKey = ByteBuffer.wrap(hybridCiphertext, 0, keyByteLength);
+        SecretKey aesKey;
+        synchronized (cache) {
+            aesKey = cache.get(wrappedKey);
+        }
+        if (aesKey != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+            aesKey = HybridEncryptor.unwrapKey(hybridCiphertext, privateKey);
+            ByteBuffer ownKey = ByteBuffer.wrap(Arrays.copyOf(hybridCiphertext, keyByteLength));
+            synchronized (cache) {
+                cache.put(ownKey, aesKey);
+            }
+        }
+        return HybridEncryptor.decrypt(hybridCiphertext, keyByteLength, aesKey);
+    }
+
+    /**
+     * @return the number of payloads whose AES key was found in the cache.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of payloads that needed an RSA unwrap.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of AES keys currently cached.
+     */
+    public int getCacheSize() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+}
@@ -0,0 +1,337 @@
+package uk.co.kennah.encrypt;
+
+import uk.co.kennah.encrypt.utils.KeGenAES;
+import uk.co.kennah.encrypt.utils.PrivateKeyRSA;
+import uk.co.kennah.encrypt.utils.PublicKeyRSA;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A long-lived local service that encrypts and decrypts for one key pair over a socket.
+ * It listens on a TCP or Unix-domain address, and each connection is served by its own thread
+ * with blocking I/O. Requests and responses are length-prefixed frames:
+ * <pre>
+ * request:  [length: int][op: byte][payload]       op 1 = encrypt, op 2 = decrypt
+ * response: [length: int][status: byte][payload]   status 0 = ok, 1 = error (payload is the message)
+ * </pre>
+ * The encryption itself runs on a separate, fixed-size executor, so the RSA work cannot starve
+ * the connection threads. At most {@code maxInFlight} requests are accepted at once across all
+ * connections; beyond that a connection stops reading until a permit is free, which pushes back
+ * on the client through TCP flow control rather than queueing without bound. A permit is taken
+ * before a request's body is read and held until its response is written, so request and response
+ * bodies together never take more than {@code maxInFlight} times twice {@code maxFrameSize} of heap.
+ * At most {@code maxConnections} connections are open at once; further clients wait in the
+ * listen backlog.
+ * <p>
+ * Connection threads come from a caller-supplied executor. The default is a thread per
+ * connection; on Java 21 or later, pass {@code Executors.newVirtualThreadPerTaskExecutor()}.
+ */
+public class HybridServer implements AutoCloseable {
+
+    static final byte OP_ENCRYPT = 1;
+    static final byte OP_DECRYPT = 2;
+    static final byte STATUS_OK = 0;
+    static final byte STATUS_ERROR = 1;
+
+    public static final int DEFAULT_MAX_FRAME_SIZE = 16 * 1024 * 1024;
+    public static final int DEFAULT_MAX_CONNECTIONS = 10_000;
+
+    private final PrivateKeyRSA privateKey;
+    private final PublicKeyRSA publicKey;
+    private final ExecutorService connections;
+    private final boolean ownsConnections;
+    private final ThreadPoolExecutor cpu;
+    private final Semaphore inFlight;
+    private final Semaphore connectionSlots;
+    private final int maxInFlight;
+    private final int maxFrameSize;
+    private final Set<SocketChannel> open = ConcurrentHashMap.newKeySet();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicInteger peakInFlight = new AtomicInteger();
+
+    private volatile ServerSocketChannel server;
+    private volatile Thread acceptor;
+    private volatile boolean closed;
+
+    /**
+     * Creates a server with a thread per connection.
+     *
+     * @param privateKey  The key pair the service encrypts to and decrypts with; it must know its public exponent.
+     * @param cpuThreads  The number of threads doing the encryption work.
+     * @param maxInFlight The most requests accepted at once, across all connections.
+     */
+    public HybridServer(PrivateKeyRSA privateKey, int cpuThreads, int maxInFlight) {
+        this(privateKey, cpuThreads, maxInFlight, DEFAULT_MAX_FRAME_SIZE, DEFAULT_MAX_CONNECTIONS, newConnectionExecutor(), true);
+    }
+
+    /**
+     * @param privateKey  The key pair the service encrypts to and decrypts with; it must know its public exponent.
+     * @param cpuThreads  The number of threads doing the encryption work.
+     * @param maxInFlight The most requests accepted at once, across all connections.
+     * @param maxFrameSize The largest request accepted, in bytes; larger ones close the connection.
+     * @param connections Where each connection is served. It is not shut down by this class.
+     */
+    public HybridServer(PrivateKeyRSA privateKey, int cpuThreads, int maxInFlight, int maxFrameSize, ExecutorService connections) {
+        this(privateKey, cpuThreads, maxInFlight, maxFrameSize, DEFAULT_MAX_CONNECTIONS, connections, false);
+    }
+
+    /**
+     * @param privateKey     The key pair the service encrypts to and decrypts with; it must know its public exponent.
+     * @param cpuThreads     The number of threads doing the encryption work.
+     * @param maxInFlight    The most requests accepted at once, across all connections.
+     * @param maxFrameSize   The largest request accepted, in bytes; larger ones close the connection.
+     * @param maxConnections The most connections open at once.
+     * @param connections    Where each connection is served. It is not shut down by this class.
+     */
+    public HybridServer(PrivateKeyRSA privateKey, int cpuThreads, int maxInFlight, int maxFrameSize, int maxConnections,
+                        ExecutorService connections) {
+        this(privateKey, cpuThreads, maxInFlight, maxFrameSize, maxConnections, connections, false);
+    }
+
+    private HybridServer(PrivateKeyRSA privateKey, int cpuThreads, int maxInFlight, int maxFrameSize, int maxConnections,
+                         ExecutorService connections, boolean ownsConnections) {
+        if (cpuThreads <= 0 || maxInFlight <= 0 || maxFrameSize <= 0 || maxConnections <= 0) {
+            throw new IllegalArgumentException("cpuThreads, maxInFlight, maxFrameSize and maxConnections must be positive");
+        }
+        this.privateKey = privateKey;
+        this.publicKey = privateKey.getPublicKeyRSA();
+        this.connections = connections;
+        this.ownsConnections = ownsConnections;
+        this.maxInFlight = maxInFlight;
+        this.maxFrameSize = maxFrameSize;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.connectionSlots = new Semaphore(maxConnections);
+        // The semaphore keeps the queue from ever filling, so submissions are never rejected.
+        this.cpu = new ThreadPoolExecutor(cpuThreads, cpuThreads, 0, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(maxInFlight), daemonThreads("hybrid-cpu-", 0));
+    }
+
+    /**
+     * Binds the server and starts accepting connections on a background thread.
+     *
+     * @param address A TCP address (e.g. {@code new InetSocketAddress(InetAddress.getLoopbackAddress(), 0)})
+     *                or a {@link UnixDomainSocketAddress}.
+     * @return the bound address, with the actual port if port 0 was asked for.
+     * @throws IOException if the address cannot be bound.
+     */
+    public SocketAddress start(SocketAddress address) throws IOException {
+        ServerSocketChannel channel = address instanceof UnixDomainSocketAddress
+                ? ServerSocketChannel.open(StandardProtocolFamily.UNIX)
+                : ServerSocketChannel.open();
+        channel.bind(address, 4096);
+        this.server = channel;
+        Thread thread = new Thread(this::acceptLoop, "hybrid-accept");
+        thread.setDaemon(true);
+        this.acceptor = thread;
+        thread.start();
+        return channel.getLocalAddress();
+    }
+
+    /**
+     * @return the number of requests answered so far, successfully or not.
+     */
+    public long getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * @return the number of connections accepted so far.
+     */
+    public long getAccepted() {
+        return accepted.get();
+    }
+
+    /**
+     * @return the number of connections open now.
+     */
+    public int getOpenConnections() {
+        return open.size();
+    }
+
+    /**
+     * @return the most requests that have been in flight at once; never more than maxInFlight.
+     */
+    public int getPeakInFlight() {
+        return peakInFlight.get();
+    }
+
+    /**
+     * Stops accepting, closes every open connection and shuts the executors down.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        Thread thread = acceptor;
+        if (thread != null) {
+            thread.interrupt(); // it may be waiting for a connection slot
+        }
+        if (server != null && server.isOpen()) {
+            SocketAddress address = server.getLocalAddress();
+            server.close();
+            if (address instanceof UnixDomainSocketAddress) {
+                Files.deleteIfExists(((UnixDomainSocketAddress) address).getPath());
+            }
+        }
+        for (SocketChannel channel : open) {
+            closeQuietly(channel);
+        }
+        for (Runnable queued : cpu.shutdownNow()) {
+            ((Future<?>) queued).cancel(false); // so no connection waits on work that will never run
+        }
+        if (ownsConnections) {
+            connections.shutdownNow();
+        }
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            // Wait for a free slot before accepting; meanwhile new clients queue in the listen backlog.
+            try {
+                connectionSlots.acquire();
+            } catch (InterruptedException ex) {
+                return; // closed
+            }
+            SocketChannel channel;
+            try {
+                channel = server.accept();
+            } catch (IOException ex) {
+                connectionSlots.release();
+                return; // closed
+            }
+            accepted.incrementAndGet();
+            open.add(channel);
+            try {
+                connections.execute(() -> serve(channel));
+            } catch (RuntimeException ex) {
+                open.remove(channel);
+                closeQuietly(channel);
+                connectionSlots.release();
+            }
+        }
+    }
+
+    /**
+     * Reads requests off one connection and answers them in order until the client hangs up.
+     */
+    private void serve(SocketChannel channel) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)))) {
+            while (!closed) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException ex) {
+                    return; // the client hung up between requests
+                }
+                if (length < 1 || length > maxFrameSize) {
+                    writeFrame(out, STATUS_ERROR, ("Frame length out of range: " + length).getBytes(StandardCharsets.UTF_8));
+                    return;
+                }
+
+                // Wait for room before reading the body, so only requests holding a permit take heap;
+                // while we wait, this connection is not read.
+                inFlight.acquire();
+                try {
+                    peakInFlight.accumulateAndGet(maxInFlight - inFlight.availablePermits(), Math::max);
+                    byte op = in.readByte();
+                    byte[] payload = new byte[length - 1];
+                    in.readFully(payload);
+                    byte[] response;
+                    byte status;
+                    try {
+                        Future<byte[]> result = cpu.submit(() -> handle(op, payload));
+                        response = result.get();
+                        status = STATUS_OK;
+                    } catch (ExecutionException ex) {
+                        Throwable cause = ex.getCause();
+                        response = String.valueOf(cause.getMessage() != null ? cause.getMessage() : cause)
+                                .getBytes(StandardCharsets.UTF_8);
+                        status = STATUS_ERROR;
+                    }
+                    requests.incrementAndGet();
+                    writeFrame(out, status, response);
+                } finally {
+                    inFlight.release();
+                }
+            }
+        } catch (ClosedChannelException | InterruptedException | CancellationException ex) {
+            // The server is shutting down.
+        } catch (IOException ex) {
+            // The client went away mid-frame; nothing to answer.
+        } finally {
+            open.remove(channel);
+            closeQuietly(channel);
+            connectionSlots.release();
+        }
+    }
+
+    private byte[] handle(byte op, byte[] payload) throws Exception {
+        switch (op) {
+            case OP_ENCRYPT:
+                return HybridEncryptor.encrypt(payload, KeGenAES.generateKey(128), publicKey);
+            case OP_DECRYPT:
+                // A reply is held to the same size as a request, which also stops a small compressed payload inflating without bound.
+                return HybridEncryptor.decrypt(payload, privateKey, maxFrameSize - 1);
+            default:
+                throw new IllegalArgumentException("Unknown operation: " + op);
+        }
+    }
+
+    static void writeFrame(DataOutputStream out, byte type, byte[] payload) throws IOException {
+        out.writeInt(payload.length + 1);
+        out.writeByte(type);
+        out.write(payload);
+        out.flush();
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException ex) {
+            // Already gone.
+        }
+    }
+
+    private static ExecutorService newConnectionExecutor() {
+        // Connection threads only shuffle frames, so a small stack lets thousands of them share the heap.
+        return Executors.newCachedThreadPool(daemonThreads("hybrid-conn-", 256 * 1024));
+    }
+
+    private static ThreadFactory daemonThreads(String prefix, long stackSize) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(null, runnable, prefix + count.incrementAndGet(), stackSize);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,94 @@
+package uk.co.kennah.encrypt;
+
+import uk.co.kennah.encrypt.utils.KeGenAES;
+import uk.co.kennah.encrypt.utils.PublicKeyRSA;
+
+import javax.crypto.SecretKey;
+import java.math.BigInteger;
+import java.time.Duration;
+
+/**
+ * Sends many messages to one recipient without paying for an RSA wrap on every message.
+ * The session locks one AES key in the Safe and reuses that wrapped key for a bounded number
+ * of messages, or a bounded time, before rotating to a fresh one. Every message still gets
+ * a fresh IV, and the output is the ordinary {@link HybridEncryptor} format, so any recipient
+ * can decrypt it; a {@link HybridReceiver} can also skip the RSA step for repeated keys.
+ * Instances are thread-safe.
+ */
+public class HybridSession {
+
+    private final PublicKeyRSA publicKey;
+    private final int maxMessages;
+    private final long maxAgeNanos;
+
+    private SessionKey current; // guarded by this
+    private long rotations;     // guarded by this
+
+    /**
+     * @param e           The recipient's public RSA exponent.
+     * @param n           The recipient's public RSA modulus.
+     * @param maxMessages The number of messages sent under one AES key before it is rotated.
+     * @param maxAge      How long one AES key is used before it is rotated.
+     */
+    public HybridSession(BigInteger e, BigInteger n, int maxMessages, Duration maxAge) {
+        this(new PublicKeyRSA(e, n), maxMessages, maxAge);
+    }
+
+    /**
+     * @param publicKey   The recipient's public RSA key.
+     * @param maxMessages The number of messages sent under one AES key before it is rotated.
+     * @param maxAge      How long one AES key is used before it is rotated.
+     */
+    public HybridSession(PublicKeyRSA publicKey, int maxMessages, Duration maxAge) {
+        if (maxMessages <= 0) {
+            throw new IllegalArgumentException("maxMessages must be positive: " + maxMessages);
+        }
+        if (maxAge.isNegative() || maxAge.isZero()) {
+            throw new IllegalArgumentException("maxAge must be positive: " + maxAge);
+        }
+        this.publicKey = publicKey;
+        this.maxMessages = maxMessages;
+        this.maxAgeNanos = maxAge.toNanos();
+    }
+
+    /**
+     * Encrypts a message under the current session key, rotating it first if it is used up or too old.
+     *
+     * @param message The plaintext message to encrypt.
+     * @return A hybrid payload in the {@link HybridEncryptor} format.
+     * @throws Exception if encryption fails.
+     */
+    public byte[] encrypt(byte[] message) throws Exception {
+        SessionKey key = acquire();
+        return HybridEncryptor.encrypt(message, key.aesKey, key.encryptedAesKeyBytes);
+    }
+
+    /**
+     * @return how many AES keys this session has wrapped so far.
+     */
+    public synchronized long getRotations() {
+        return rotations;
+    }
+
+    private synchronized SessionKey acquire() {
+        if (current == null || current.uses >= maxMessages || System.nanoTime() - current.createdNanos >= maxAgeNanos) {
+            SecretKey aesKey = KeGenAES.generateKey(128);
+            current = new SessionKey(aesKey, HybridEncryptor.wrapKey(aesKey, publicKey));
+            rotations++;
+        }
+        current.uses++;
+        return current;
+    }
+
+    private static final class SessionKey {
+        private final SecretKey aesKey;
+        private final byte[] encryptedAesKeyBytes;
+        private final long createdNanos = System.nanoTime();
+        private int uses;
+
+        private SessionKey(SecretKey aesKey, byte[] encryptedAesKeyBytes) {
+            this.aesKey = aesKey;
+            this.encryptedAesKeyBytes = encryptedAesKeyBytes;
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package uk.co.kennah.encrypt;
+
+import uk.co.kennah.encrypt.utils.PrivateKeyRSA;
+import uk.co.kennah.encrypt.utils.PublicKeyRSA;
+import uk.co.kennah.encrypt.utils.RandomSource;
+
+import javax.crypto.SecretKey;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A set of private keys that decrypts payloads addressed to any of them, without the caller
+ * saying which. Payloads are ordinary hybrid payloads behind a short header naming the recipient:
+ * <pre>
+ * [magic "TKR"][version][fingerprint of the recipient's modulus: long][Encrypted AES Key][IV][Encrypted Message]
+ * </pre>
+ * The fingerprint is {@link PublicKeyRSA#fingerprint}, and the ring finds the key with one hash
+ * lookup, so each decrypt costs exactly one RSA operation however many keys the ring holds.
+ * <p>
+ * Lookups never lock. Keys can be added, retired or the whole set reloaded while other threads
+ * decrypt; a decrypt sees each key either before or after the change.
+ */
+public class KeyRing {
+
+    static final byte[] MAGIC = {'T', 'K', 'R'};
+    static final byte VERSION = 1;
+    static final int HEADER_SIZE = 12;
+
+    private final ConcurrentHashMap<Long, PrivateKeyRSA> keys = new ConcurrentHashMap<>();
+
+    /**
+     * Encrypts a message for one recipient, with a header naming the recipient's key.
+     *
+     * @param message   The plaintext message to encrypt.
+     * @param aesKey    The one-time AES key to use for this encryption.
+     * @param recipient The recipient's public RSA key.
+     * @return The keyed payload.
+     * @throws Exception if encryption fails.
+     */
+    public static byte[] encrypt(byte[] message, SecretKey aesKey, PublicKeyRSA recipient) throws Exception {
+        return encrypt(message, aesKey, recipient, Compression.NONE);
+    }
+
+    /**
+     * As {@link #encrypt(byte[], SecretKey, PublicKeyRSA)}, compressing first if a sample shows that is worthwhile.
+     */
+    public static byte[] encrypt(byte[] message, SecretKey aesKey, PublicKeyRSA recipient, Compression compression) throws Exception {
+        boolean compress = compression.worthCompressing(message, message.length);
+        byte[] wrapped = compress
+                ? HybridEncryptor.wrapKey(aesKey, compression.flags(), recipient, RandomSource.shared())
+                : HybridEncryptor.wrapKey(aesKey, recipient, RandomSource.shared());
+        // The header goes in front of the wrapped key, so the body is written once, straight into the payload.
+        byte[] prefix = new byte[HEADER_SIZE + wrapped.length];
+        header(recipient.getFingerprint(), prefix);
+        System.arraycopy(wrapped, 0, prefix, HEADER_SIZE, wrapped.length);
+        return HybridEncryptor.encrypt(compress ? compression.compress(message) : message, aesKey, prefix);
+    }
+
+    /**
+     * Encrypts a stream for one recipient, with a header naming the recipient's key.
+     * Neither stream is closed.
+     *
+     * @param in        The plaintext to encrypt.
+     * @param out       Where the keyed payload is written.
+     * @param aesKey    The one-time AES key to use for this encryption.
+     * @param recipient The recipient's public RSA key.
+     * @throws Exception if encryption or I/O fails.
+     */
+    public static void encrypt(InputStream in, OutputStream out, SecretKey aesKey, PublicKeyRSA recipient) throws Exception {
+        byte[] header = new byte[HEADER_SIZE];
+        header(recipient.getFingerprint(), header);
+        out.write(header);
+        HybridEncryptor.encrypt(in, out, aesKey, recipient);
+    }
+
+    /**
+     * @param payload A keyed payload.
+     * @return the fingerprint of the key it was encrypted for.
+     */
+    public static long recipient(byte[] payload) {
+        if (payload.length < HEADER_SIZE) {
+            throw new IllegalArgumentException("Not a keyed payload: too short");
+        }
+        return readHeader(ByteBuffer.wrap(payload, 0, HEADER_SIZE));
+    }
+
+    /**
+     * Decrypts a keyed payload with whichever key in the ring it names.
+     *
+     * @param payload The keyed payload.
+     * @return The original plaintext message.
+     * @throws IllegalArgumentException if the payload is malformed or its key is not in the ring.
+     * @throws Exception if decryption fails.
+     */
+    public byte[] decrypt(byte[] payload) throws Exception {
+        return HybridEncryptor.decryptAt(payload, HEADER_SIZE, resolve(recipient(payload)));
+    }
+
+    /**
+     * Decrypts a keyed stream with whichever key in the ring it names. Neither stream is closed.
+     *
+     * @param in  The keyed payload.
+     * @param out Where the plaintext is written.
+     * @throws Exception if the payload is malformed, its key is not in the ring, or decryption or I/O fails.
+     */
+    public void decrypt(InputStream in, OutputStream out) throws Exception {
+        long fingerprint = readHeader(ByteBuffer.wrap(HybridEncryptor.readFully(in, HEADER_SIZE)));
+        HybridEncryptor.decrypt(in, out, resolve(fingerprint));
+    }
+
+    /**
+     * Adds a key, or replaces the key with the same fingerprint.
+     *
+     * @throws IllegalArgumentException if a different key with the same fingerprint is already in the ring.
+     */
+    public void add(PrivateKeyRSA key) {
+        keys.merge(key.getFingerprint(), key, (existing, added) -> {
+            if (!existing.getModulus().equals(added.getModulus())) {
+                throw new IllegalArgumentException("Fingerprint collision: " + Long.toHexString(added.getFingerprint()));
+            }
+            return added;
+        });
+    }
+
+    /**
+     * Retires a key; payloads for it can no longer be decrypted through this ring.
+     *
+     * @return true if the key was in the ring.
+     */
+    public boolean retire(long fingerprint) {
+        return keys.remove(fingerprint) != null;
+    }
+
+    /**
+     * Makes the ring hold exactly these keys: new ones are added first, then retired ones removed,
+     * so keys present before and after stay resolvable throughout.
+     */
+    public void reload(Collection<PrivateKeyRSA> current) {
+        Set<Long> keep = new HashSet<>();
+        for (PrivateKeyRSA key : current) {
+            add(key);
+            keep.add(key.getFingerprint());
+        }
+        keys.keySet().retainAll(keep);
+    }
+
+    /**
+     * @return the key with this fingerprint, or null.
+     */
+    public PrivateKeyRSA get(long fingerprint) {
+        return keys.get(fingerprint);
+    }
+
+    public int size() {
+        return keys.size();
+    }
+
+    private PrivateKeyRSA resolve(long fingerprint) {
+        PrivateKeyRSA key = keys.get(fingerprint);
+        if (key == null) {
+            throw new IllegalArgumentException("No key in the ring for fingerprint " + Long.toHexString(fingerprint));
+        }
+        return key;
+    }
+
+    private static void header(long fingerprint, byte[] into) {
+        ByteBuffer.wrap(into).put(MAGIC).put(VERSION).putLong(fingerprint);
+    }
+
+    private static long readHeader(ByteBuffer header) {
+        if (header.get() != MAGIC[0] || header.get() != MAGIC[1] || header.get() != MAGIC[2]) {
+            throw new IllegalArgumentException("Not a keyed payload: bad magic");
+        }
+        byte version = header.get();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported keyed payload version: " + version);
+        }
+        return header.getLong();
+    }
+}
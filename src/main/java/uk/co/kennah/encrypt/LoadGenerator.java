@@ -0,0 +1,432 @@
+package uk.co.kennah.encrypt;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import uk.co.kennah.encrypt.utils.KeGenAES;
+import uk.co.kennah.encrypt.utils.KeGenRSA;
+import uk.co.kennah.encrypt.utils.LatencyHistogram;
+import uk.co.kennah.encrypt.utils.RandomSource;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives one operation from many threads for a fixed time and reports its latency distribution,
+ * for sizing hosts and catching tail regressions that JMH averages hide.
+ * <p>
+ * With a target rate the load is open loop: each operation has a scheduled start, and its latency
+ * is measured from that schedule rather than from when a thread got round to it, so a stall shows
+ * up in the latency of every operation queued behind it. With no rate each thread runs closed
+ * loop, starting the next operation as soon as the last one finishes.
+ * <p>
+ * Messages are drawn from a pool prepared before the clock starts (and, for decryption, encrypted
+ * up front), with sizes following a {@link PayloadSizes} distribution. Garbage collector pauses
+ * during the measured window are recorded alongside.
+ */
+public class LoadGenerator {
+
+    static final int POOL_SIZE = 128;
+
+    /**
+     * What each operation does.
+     */
+    public enum Operation {
+        /** {@link HybridEncryptor#encrypt(byte[], javax.crypto.SecretKey, uk.co.kennah.encrypt.utils.PublicKeyRSA)} with a fresh AES key. */
+        ENCRYPT,
+        /** {@link HybridEncryptor#decrypt(byte[], uk.co.kennah.encrypt.utils.PrivateKeyRSA)} of a prepared payload. */
+        DECRYPT,
+        /** Constructing a new {@link KeGenRSA}; payload sizes are ignored. */
+        KEYGEN
+    }
+
+    private final Operation operation;
+    private final int threads;
+    private final double rate;
+    private final PayloadSizes sizes;
+    private final int keyBits;
+
+    /**
+     * @param operation The operation to drive.
+     * @param threads   The number of threads issuing it.
+     * @param rate      The target operations per second across all threads, or 0 for closed loop.
+     * @param sizes     The message sizes for encryption and decryption.
+     * @param keyBits   The RSA key size, for the recipient key and for key generation.
+     */
+    public LoadGenerator(Operation operation, int threads, double rate, PayloadSizes sizes, int keyBits) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads must be positive: " + threads);
+        }
+        if (rate < 0) {
+            throw new IllegalArgumentException("rate must not be negative: " + rate);
+        }
+        this.operation = operation;
+        this.threads = threads;
+        this.rate = rate;
+        this.sizes = sizes;
+        this.keyBits = keyBits;
+    }
+
+    /**
+     * Runs the load: a warm-up whose results are discarded, then the measured window.
+     *
+     * @param warmup   How long to run before measuring, to let the JIT settle.
+     * @param duration How long to measure for.
+     * @return the latencies and counts of the measured window.
+     * @throws Exception if the messages cannot be prepared or the run is interrupted.
+     */
+    public Result run(Duration warmup, Duration duration) throws Exception {
+        KeGenRSA keyPair = new KeGenRSA(keyBits);
+        byte[][] pool = prepare(keyPair);
+        Result result = new Result(this, duration.toNanos());
+
+        long startAt = System.nanoTime();
+        long measureFrom = startAt + warmup.toNanos();
+        long endAt = measureFrom + duration.toNanos();
+
+        Queue<long[]> pauses = new ConcurrentLinkedQueue<>();
+        List<Runnable> unwatch = watchGc(pauses);
+        try {
+            List<Thread> workers = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                int index = i;
+                Thread worker = new Thread(() -> drive(index, keyPair, pool, startAt, measureFrom, endAt, result), "load-" + i);
+                worker.setDaemon(true);
+                workers.add(worker);
+                worker.start();
+            }
+            // Note the JVM uptime at both ends of the window, the clock the collector reports pauses against.
+            sleepUntil(measureFrom);
+            long uptimeFrom = ManagementFactory.getRuntimeMXBean().getUptime();
+            sleepUntil(endAt);
+            long uptimeTo = ManagementFactory.getRuntimeMXBean().getUptime();
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            for (long[] pause : pauses) {
+                if (pause[0] >= uptimeFrom && pause[0] < uptimeTo) {
+                    result.gcPauses.record(TimeUnit.MILLISECONDS.toNanos(pause[1]));
+                }
+            }
+        } finally {
+            unwatch.forEach(Runnable::run);
+        }
+        return result;
+    }
+
+    private byte[][] prepare(KeGenRSA keyPair) throws Exception {
+        if (operation == Operation.KEYGEN) {
+            return new byte[0][];
+        }
+        byte[][] pool = new byte[POOL_SIZE][];
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < POOL_SIZE; i++) {
+            byte[] message = new byte[sizes.next(random)];
+            RandomSource.shared().nextBytes(message);
+            pool[i] = operation == Operation.DECRYPT
+                    ? HybridEncryptor.encrypt(message, KeGenAES.generateKey(128), keyPair.getPublicKeyRSA())
+                    : message;
+        }
+        return pool;
+    }
+
+    private void drive(int index, KeGenRSA keyPair, byte[][] pool, long startAt, long measureFrom, long endAt, Result result) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        // Spread the threads' schedules evenly over one interval, so the target rate is smooth rather than in bursts.
+        long interval = rate == 0 ? 0 : (long) (threads * 1e9 / rate);
+        long scheduled = startAt + interval * index / threads;
+        while (true) {
+            long start;
+            if (interval == 0) {
+                start = System.nanoTime();
+                if (start >= endAt) {
+                    return;
+                }
+            } else {
+                if (scheduled >= endAt) {
+                    return;
+                }
+                sleepUntil(scheduled);
+                start = scheduled; // a late start counts against this operation's latency
+                scheduled += interval;
+            }
+            byte[] input = pool.length == 0 ? null : pool[random.nextInt(pool.length)];
+            try {
+                execute(keyPair, input);
+                if (start >= measureFrom) {
+                    result.latency.record(System.nanoTime() - start);
+                }
+            } catch (Exception ex) {
+                if (start >= measureFrom) {
+                    result.errors.increment();
+                    result.firstError.compareAndSet(null, ex);
+                }
+            }
+        }
+    }
+
+    private void execute(KeGenRSA keyPair, byte[] input) throws Exception {
+        switch (operation) {
+            case ENCRYPT:
+                HybridEncryptor.encrypt(input, KeGenAES.generateKey(128), keyPair.getPublicKeyRSA());
+                break;
+            case DECRYPT:
+                HybridEncryptor.decrypt(input, keyPair.getPrivateKeyRSA());
+                break;
+            case KEYGEN:
+                new KeGenRSA(keyBits);
+                break;
+        }
+    }
+
+    private static void sleepUntil(long deadline) {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+    /**
+     * Collects (start uptime ms, duration ms) for each stop-the-world collection. Collectors that
+     * run concurrently with the application are skipped, as their durations are not pauses.
+     *
+     * @return actions that remove the listeners again.
+     */
+    private static List<Runnable> watchGc(Queue<long[]> pauses) {
+        List<Runnable> unwatch = new ArrayList<>();
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            String name = collector.getName();
+            if (!(collector instanceof NotificationEmitter) || name.contains("Concurrent") || name.contains("Cycles")) {
+                continue;
+            }
+            NotificationEmitter emitter = (NotificationEmitter) collector;
+            NotificationListener listener = (notification, handback) -> {
+                if (GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+                    GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+                    pauses.add(new long[]{info.getGcInfo().getStartTime(), info.getGcInfo().getDuration()});
+                }
+            };
+            emitter.addNotificationListener(listener, null, null);
+            unwatch.add(() -> {
+                try {
+                    emitter.removeNotificationListener(listener);
+                } catch (ListenerNotFoundException ignored) {
+                    // already gone
+                }
+            });
+        }
+        return unwatch;
+    }
+
+    /**
+     * A distribution of message sizes, written as a comma-separated list of sizes or ranges, each
+     * with an optional weight after a colon. Sizes take a k or m suffix for KiB or MiB.
+     * <pre>
+     * 4k               every message is 4 KiB
+     * 256-64k          uniform between 256 bytes and 64 KiB
+     * 1k:90,1m:10      90% of messages are 1 KiB, 10% are 1 MiB
+     * </pre>
+     */
+    public static final class PayloadSizes {
+        private final String spec;
+        private final int[] low;
+        private final int[] high;
+        private final double[] cumulative;
+
+        private PayloadSizes(String spec, int[] low, int[] high, double[] cumulative) {
+            this.spec = spec;
+            this.low = low;
+            this.high = high;
+            this.cumulative = cumulative;
+        }
+
+        /**
+         * @return a distribution where every message has this size.
+         */
+        public static PayloadSizes fixed(int bytes) {
+            return parse(Integer.toString(bytes));
+        }
+
+        /**
+         * @throws IllegalArgumentException if the specification cannot be read.
+         */
+        public static PayloadSizes parse(String spec) {
+            String[] entries = spec.split(",");
+            int[] low = new int[entries.length];
+            int[] high = new int[entries.length];
+            double[] cumulative = new double[entries.length];
+            double total = 0;
+            for (int i = 0; i < entries.length; i++) {
+                String entry = entries[i].trim();
+                int colon = entry.indexOf(':');
+                double weight = colon < 0 ? 1 : Double.parseDouble(entry.substring(colon + 1));
+                String range = colon < 0 ? entry : entry.substring(0, colon);
+                int dash = range.indexOf('-');
+                low[i] = parseSize(dash < 0 ? range : range.substring(0, dash));
+                high[i] = dash < 0 ? low[i] : parseSize(range.substring(dash + 1));
+                if (high[i] < low[i] || !(weight > 0)) {
+                    throw new IllegalArgumentException("Bad payload size entry: " + entry);
+                }
+                total += weight;
+                cumulative[i] = total;
+            }
+            for (int i = 0; i < cumulative.length; i++) {
+                cumulative[i] /= total;
+            }
+            return new PayloadSizes(spec, low, high, cumulative);
+        }
+
+        static int parseSize(String size) {
+            String s = size.trim().toLowerCase(Locale.ROOT);
+            int multiplier = s.endsWith("k") ? 1024 : s.endsWith("m") ? 1024 * 1024 : 1;
+            if (multiplier > 1) {
+                s = s.substring(0, s.length() - 1);
+            }
+            long bytes;
+            try {
+                bytes = Long.parseLong(s) * multiplier;
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException("Bad payload size: " + size);
+            }
+            if (bytes < 0 || bytes > Integer.MAX_VALUE - 64) {
+                throw new IllegalArgumentException("Payload size out of range: " + size);
+            }
+            return (int) bytes;
+        }
+
+        /**
+         * @return a size drawn from the distribution.
+         */
+        public int next(ThreadLocalRandom random) {
+            double pick = random.nextDouble();
+            int i = 0;
+            while (i < cumulative.length - 1 && pick >= cumulative[i]) {
+                i++;
+            }
+            return low[i] == high[i] ? low[i] : random.nextInt(low[i], high[i] + 1);
+        }
+
+        @Override
+        public String toString() {
+            return spec;
+        }
+    }
+
+    /**
+     * The outcome of a run: operation latencies, errors and collector pauses in the measured window.
+     */
+    public static final class Result {
+        private static final String CSV_HEADER = "started,operation,threads,target_rate,sizes,key_bits,seconds,operations,errors,"
+                + "ops_per_sec,mean_us,p50_us,p99_us,p999_us,max_us,gc_pauses,gc_total_ms,gc_max_ms";
+
+        private final Instant started = Instant.now();
+        private final Operation operation;
+        private final int threads;
+        private final double rate;
+        private final PayloadSizes sizes;
+        private final int keyBits;
+        private final long nanos;
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LatencyHistogram gcPauses = new LatencyHistogram();
+        private final LongAdder errors = new LongAdder();
+        private final AtomicReference<Exception> firstError = new AtomicReference<>();
+
+        private Result(LoadGenerator generator, long nanos) {
+            this.operation = generator.operation;
+            this.threads = generator.threads;
+            this.rate = generator.rate;
+            this.sizes = generator.sizes;
+            this.keyBits = generator.keyBits;
+            this.nanos = nanos;
+        }
+
+        /**
+         * @return the latency of each successful operation, in nanoseconds.
+         */
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        /**
+         * @return the length of each stop-the-world collection, in nanoseconds (to the millisecond).
+         */
+        public LatencyHistogram getGcPauses() {
+            return gcPauses;
+        }
+
+        public long getErrors() {
+            return errors.sum();
+        }
+
+        /**
+         * @return the first operation that failed, or null.
+         */
+        public Exception getFirstError() {
+            return firstError.get();
+        }
+
+        /**
+         * @return successful operations per second over the measured window.
+         */
+        public double getThroughput() {
+            return latency.getCount() / (nanos / 1e9);
+        }
+
+        /**
+         * Appends this result as a row of a CSV file, writing the header first if the file is new,
+         * so repeated runs build up a history to compare.
+         */
+        public void appendCsv(Path file) throws IOException {
+            StringBuilder out = new StringBuilder();
+            if (!Files.exists(file) || Files.size(file) == 0) {
+                out.append(CSV_HEADER).append('\n');
+            }
+            out.append(String.format(Locale.ROOT, "%s,%s,%d,%.1f,\"%s\",%d,%.1f,%d,%d,%.1f,%.1f,%.1f,%.1f,%.1f,%.1f,%d,%.1f,%.1f%n",
+                    started, operation.name().toLowerCase(Locale.ROOT), threads, rate, sizes, keyBits, nanos / 1e9,
+                    latency.getCount(), getErrors(), getThroughput(), latency.getMean() / 1e3,
+                    micros(latency.getPercentile(50)), micros(latency.getPercentile(99)),
+                    micros(latency.getPercentile(99.9)), micros(latency.getMax()),
+                    gcPauses.getCount(), gcPauses.getMean() * gcPauses.getCount() / 1e6, gcPauses.getMax() / 1e6));
+            Files.write(file, out.toString().getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+
+        private static double micros(long nanos) {
+            return nanos / 1e3;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%s x %d threads, %s, sizes %s, %d-bit keys: %d ops (%d failed) in %.1f s, %.1f ops/s%n"
+                            + "  latency  p50 %s  p99 %s  p99.9 %s  max %s%n"
+                            + "  GC       %d pauses, %.1f ms total, max %.1f ms",
+                    operation.name().toLowerCase(Locale.ROOT), threads, rate == 0 ? "closed loop" : String.format(Locale.ROOT, "%.0f ops/s target", rate),
+                    sizes, keyBits, latency.getCount(), getErrors(), nanos / 1e9, getThroughput(),
+                    millis(latency.getPercentile(50)), millis(latency.getPercentile(99)),
+                    millis(latency.getPercentile(99.9)), millis(latency.getMax()),
+                    gcPauses.getCount(), gcPauses.getMean() * gcPauses.getCount() / 1e6, gcPauses.getMax() / 1e6);
+        }
+
+        private static String millis(long nanos) {
+            return String.format(Locale.ROOT, "%.3f ms", nanos / 1e6);
+        }
+    }
+}
@@ -1,19 +1,49 @@
 package uk.co.kennah.encrypt;
 
+import uk.co.kennah.encrypt.utils.BinaryKeyStore;
 import uk.co.kennah.encrypt.utils.KeGenAES;
 import uk.co.kennah.encrypt.utils.KeGenRSA;
+import uk.co.kennah.encrypt.utils.PrivateKeyRSA;
+import uk.co.kennah.encrypt.utils.PublicKeyRSA;
 
 import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
 import javax.crypto.SecretKey;
 import java.util.Scanner;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.List;
+import java.util.Locale;
 
 
 public class Main {
 
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("serve")) {
+            serve(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("keygen")) {
+            keygen(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("batch")) {
+            batch(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("load")) {
+            load(args);
+            return;
+        }
         try {
+            // The encryptor itself is silent; narrate each phase of the analogy as it happens.
+            HybridEncryptor.setListener(Main::narrate);
+
             KeGenRSA keyPair = new KeGenRSA(2048);
 
             System.out.println("Generating RSA Key pair (Expensive but small Safe) ---");
@@ -48,14 +78,13 @@ public class Main {
             byte[] hybridCiphertext = HybridEncryptor.encrypt(
                     originalMessage.getBytes(StandardCharsets.UTF_8),
                     aesKey,
-                    keyPair.getPublicKey(),
-                    keyPair.getModulus());
+                    keyPair.getPublicKeyRSA());
             System.out.println("Encryption successful!");
             System.out.println("\n\nHybrid Ciphertext (Base64): " + Base64.getEncoder().encodeToString(hybridCiphertext));
 
             // Decrypt using the hybrid scheme
             System.out.println("\nDecrypting with hybrid scheme...");
-            byte[] decryptedBytes = HybridEncryptor.decrypt(hybridCiphertext, keyPair.getPrivateKey(), keyPair.getModulus());
+            byte[] decryptedBytes = HybridEncryptor.decrypt(hybridCiphertext, keyPair.getPrivateKeyRSA());
             String decryptedMessage = new String(decryptedBytes, StandardCharsets.UTF_8);
             System.out.println("Decryption successful!");
             System.out.println("\nDecrypted Message: " + decryptedMessage);
@@ -65,6 +94,234 @@ public class Main {
         }
     }
 
+    /**
+     * Runs the encryption service on the loopback interface until the process is stopped.
+     * Usage: serve [port] [cpuThreads] [maxInFlight]
+     */
+    private static void serve(String[] args) {
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 7878;
+        int cpuThreads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        int maxInFlight = args.length > 3 ? Integer.parseInt(args[3]) : 4 * cpuThreads;
+        try {
+            KeGenRSA keyPair = new KeGenRSA(2048);
+            HybridServer server = new HybridServer(keyPair.getPrivateKeyRSA(), cpuThreads, maxInFlight);
+            SocketAddress address = server.start(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+            System.out.println("Hybrid encryption service listening on " + address
+                    + " (" + cpuThreads + " CPU threads, " + maxInFlight + " requests in flight)");
+            Thread.currentThread().join();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Writes a new key pair to a key store for the batch command.
+     * Usage: keygen store [bits]
+     */
+    private static void keygen(String[] args) {
+        if (args.length < 2) {
+            System.err.println("Usage: keygen <store> [bits]");
+            return;
+        }
+        int bits = args.length > 2 ? Integer.parseInt(args[2]) : 2048;
+        try {
+            KeGenRSA keyPair = new KeGenRSA(bits);
+            BinaryKeyStore.write(Path.of(args[1]), List.of(keyPair.getPrivateKeyRSA()), List.of());
+            System.out.printf("Wrote %d-bit key %016x to %s%n", bits, keyPair.getPrivateKeyRSA().getFingerprint(), args[1]);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Encrypts or decrypts a whole directory tree with a key from a key store: the one named by
+     * {@code --key}, or else the only key the store holds (the only private key, when decrypting).
+     * Usage: batch encrypt|decrypt source target store [--key fingerprint] [--armour] [--compress] [--threads n]
+     */
+    private static void batch(String[] args) {
+        String usage = "Usage: batch encrypt|decrypt <source> <target> <store> [--key fingerprint] [--armour] [--compress] [--threads n]";
+        if (args.length < 5 || !(args[1].equals("encrypt") || args[1].equals("decrypt"))) {
+            System.err.println(usage);
+            return;
+        }
+        boolean armour = false;
+        boolean compress = false;
+        int threads = Runtime.getRuntime().availableProcessors();
+        String key = null;
+        for (int i = 5; i < args.length; i++) {
+            if ((args[i].equals("--key") || args[i].equals("--threads")) && i + 1 == args.length) {
+                System.err.println(usage);
+                return;
+            }
+            switch (args[i]) {
+                case "--key":
+                    key = args[++i];
+                    break;
+                case "--armour":
+                    armour = true;
+                    break;
+                case "--compress":
+                    compress = true;
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    System.err.println("Unknown option: " + args[i]);
+                    return;
+            }
+        }
+        try {
+            BinaryKeyStore store = BinaryKeyStore.open(Path.of(args[4]), 16);
+            if (store.size() == 0) {
+                System.err.println("Key store is empty: " + args[4]);
+                return;
+            }
+            boolean encrypting = args[1].equals("encrypt");
+            long fingerprint;
+            if (key != null) {
+                try {
+                    fingerprint = Long.parseUnsignedLong(key, 16);
+                } catch (NumberFormatException ex) {
+                    System.err.println("--key takes a fingerprint in hex: " + key);
+                    return;
+                }
+            } else {
+                long[] candidates = Arrays.stream(store.fingerprints())
+                        .filter(f -> encrypting || store.hasPrivateKey(f))
+                        .toArray();
+                if (candidates.length != 1) {
+                    System.err.printf("Key store holds %d %s; choose one with --key%n",
+                            candidates.length, encrypting ? "keys" : "private keys");
+                    return;
+                }
+                fingerprint = candidates[0];
+            }
+            DirectoryBatch batch;
+            if (encrypting) {
+                PublicKeyRSA publicKey = store.getPublicKey(fingerprint);
+                if (publicKey == null) {
+                    System.err.printf("No key %016x in %s%n", fingerprint, args[4]);
+                    return;
+                }
+                batch = new DirectoryBatch(publicKey, compress ? Compression.deflate() : Compression.NONE, armour, threads);
+            } else {
+                PrivateKeyRSA privateKey = store.getPrivateKey(fingerprint);
+                if (privateKey == null) {
+                    System.err.printf("No private key %016x in %s%s%n", fingerprint, args[4],
+                            store.contains(fingerprint) ? " (it holds only the public half)" : "");
+                    return;
+                }
+                batch = new DirectoryBatch(privateKey, armour, threads);
+            }
+            DirectoryBatch.Summary summary = batch.run(Path.of(args[2]), Path.of(args[3]));
+            for (String failure : summary.getFailures()) {
+                System.err.println("Failed: " + failure);
+            }
+            System.out.println(summary);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Drives one operation from many threads and prints its latency percentiles, optionally appending them to a CSV file.
+     * Usage: load encrypt|decrypt|keygen [--threads n] [--rate ops/s] [--sizes spec] [--bits n] [--seconds n] [--warmup n] [--csv file]
+     */
+    private static void load(String[] args) {
+        String usage = "Usage: load encrypt|decrypt|keygen [--threads n] [--rate ops/s] [--sizes spec] [--bits n] [--seconds n] [--warmup n] [--csv file]";
+        if (args.length < 2 || !(args[1].equals("encrypt") || args[1].equals("decrypt") || args[1].equals("keygen"))) {
+            System.err.println(usage);
+            return;
+        }
+        int threads = Runtime.getRuntime().availableProcessors();
+        double rate = 0;
+        String sizes = "1k";
+        int bits = 2048;
+        long seconds = 30;
+        long warmup = 10;
+        Path csv = null;
+        for (int i = 2; i < args.length; i++) {
+            if (i + 1 == args.length) {
+                System.err.println(usage);
+                return;
+            }
+            switch (args[i]) {
+                case "--threads":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                case "--rate":
+                    rate = Double.parseDouble(args[++i]);
+                    break;
+                case "--sizes":
+                    sizes = args[++i];
+                    break;
+                case "--bits":
+                    bits = Integer.parseInt(args[++i]);
+                    break;
+                case "--seconds":
+                    seconds = Long.parseLong(args[++i]);
+                    break;
+                case "--warmup":
+                    warmup = Long.parseLong(args[++i]);
+                    break;
+                case "--csv":
+                    csv = Path.of(args[++i]);
+                    break;
+                default:
+                    System.err.println("Unknown option: " + args[i]);
+                    return;
+            }
+        }
+        try {
+            LoadGenerator generator = new LoadGenerator(LoadGenerator.Operation.valueOf(args[1].toUpperCase(Locale.ROOT)),
+                    threads, rate, LoadGenerator.PayloadSizes.parse(sizes), bits);
+            LoadGenerator.Result result = generator.run(Duration.ofSeconds(warmup), Duration.ofSeconds(seconds));
+            if (result.getFirstError() != null) {
+                System.err.println("First failure: " + result.getFirstError());
+            }
+            System.out.println(result);
+            if (csv != null) {
+                result.appendCsv(csv);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    // The key is wrapped before the message is encrypted, but the story puts the message in the Strongbox first.
+    private static boolean keyWrapped;
+
+    private static void narrate(HybridListener.Phase phase, long nanos, long bytes) {
+        switch (phase) {
+            case AES_ENCRYPT:
+                System.out.println("Message put in Strongbox ");
+                narrateWrap();
+                break;
+            case RSA_WRAP:
+                keyWrapped = true; // told once the message is in the Strongbox
+                break;
+            case PACKAGING:
+                narrateWrap();
+                System.out.println("Safe and Strongbox packaged together and sent to the recipient\n---");
+                break;
+            case RSA_UNWRAP:
+                System.out.println("---\nSafe and Strongbox received.");
+                System.out.println("Safe opened with private key, Strongbox key retrieved.");
+                break;
+            case AES_DECRYPT:
+                System.out.println("Strongbox opened, message retrieved.");
+                break;
+        }
+    }
+
+    private static void narrateWrap() {
+        if (keyWrapped) {
+            keyWrapped = false;
+            System.out.println("Strongbox key placed in Safe and Safe Locked with public key.");
+        }
+    }
+
     private static void printRsaKeyInfo(KeGenRSA keyPair) {
         String privateKeyStr = keyPair.getPrivateKey().toString();
         String modulusStr = keyPair.getModulus().toString();
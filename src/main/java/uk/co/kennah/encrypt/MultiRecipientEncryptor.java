@@ -0,0 +1,288 @@
+package uk.co.kennah.encrypt;
+
+import uk.co.kennah.encrypt.utils.PaddedRSA;
+import uk.co.kennah.encrypt.utils.PrivateKeyRSA;
+import uk.co.kennah.encrypt.utils.PublicKeyRSA;
+import uk.co.kennah.encrypt.utils.RandomSource;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+/**
+ * Encrypts one message for many recipients.
+ * The body is encrypted with AES once, and the one-time AES key is wrapped with RSA once per
+ * recipient (the wraps run in parallel on a {@link ForkJoinPool}). The header starts with an
+ * index of recipient fingerprints, sorted so that a recipient finds their own slot with a binary
+ * search. Decrypting costs one RSA unwrap and one AES pass, however many recipients there are.
+ * <p>
+ * Layout (all integers big-endian):
+ * <pre>
+ * [magic "TKM"][version][recipient count: int]
+ * [fingerprint: long][wrapped key offset: int][wrapped key length: int]   one per recipient, by fingerprint
+ * [RSA-wrapped AES key] ...                                                one per recipient, in index order
+ * [IV][AES/CBC body]
+ * </pre>
+ * A fingerprint is the first 8 bytes of the SHA-256 hash of the recipient's modulus, see
+ * {@link PublicKeyRSA#fingerprint(java.math.BigInteger)}.
+ */
+public class MultiRecipientEncryptor {
+
+    private static final byte[] MAGIC = {'T', 'K', 'M'};
+    private static final byte VERSION = 1;
+    private static final int PREFIX_SIZE = 8;  // magic, version and recipient count
+    private static final int ENTRY_SIZE = 16; // one index entry
+    private static final int MAX_RECIPIENTS = 1 << 16; // bounds what a corrupt header can make us allocate
+
+    /**
+     * Encrypts a message for every recipient, wrapping the key on the common pool.
+     *
+     * @param message    The plaintext message to encrypt.
+     * @param aesKey     The one-time AES key to use for this encryption.
+     * @param recipients The recipients' public RSA keys; at least one, with no key given twice.
+     * @return The multi-recipient payload.
+     * @throws Exception if encryption fails.
+     */
+    public static byte[] encrypt(byte[] message, SecretKey aesKey, List<PublicKeyRSA> recipients) throws Exception {
+        return encrypt(message, aesKey, recipients, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Encrypts a message for every recipient.
+     *
+     * @param message    The plaintext message to encrypt.
+     * @param aesKey     The one-time AES key to use for this encryption.
+     * @param recipients The recipients' public RSA keys; at least one, with no key given twice.
+     * @param pool       The pool the key is wrapped on.
+     * @return The multi-recipient payload.
+     * @throws Exception if encryption fails.
+     */
+    public static byte[] encrypt(byte[] message, SecretKey aesKey, List<PublicKeyRSA> recipients, ForkJoinPool pool) throws Exception {
+        byte[] header = header(aesKey, recipients, pool);
+        byte[] iv = new byte[HybridEncryptor.IV_SIZE];
+        RandomSource.shared().nextBytes(iv);
+
+        HybridListener l = HybridEncryptor.getListener();
+        long start = l == null ? 0 : System.nanoTime();
+        Cipher aesCipher = Cipher.getInstance(HybridEncryptor.AES_ALGORITHM);
+        aesCipher.init(Cipher.ENCRYPT_MODE, aesKey, new IvParameterSpec(iv));
+
+        // The body is encrypted straight into the payload, after the header and IV.
+        int bodyOffset = header.length + iv.length;
+        byte[] payload = new byte[bodyOffset + aesCipher.getOutputSize(message.length)];
+        System.arraycopy(header, 0, payload, 0, header.length);
+        System.arraycopy(iv, 0, payload, header.length, iv.length);
+        aesCipher.doFinal(message, 0, message.length, payload, bodyOffset);
+        if (l != null) {
+            l.onPhase(HybridListener.Phase.AES_ENCRYPT, System.nanoTime() - start, message.length);
+        }
+        return payload;
+    }
+
+    /**
+     * Encrypts a stream for every recipient, writing the header first and then the body in fixed-size chunks.
+     * Neither stream is closed.
+     *
+     * @param in         The plaintext to encrypt.
+     * @param out        Where the multi-recipient payload is written.
+     * @param aesKey     The one-time AES key to use for this encryption.
+     * @param recipients The recipients' public RSA keys; at least one, with no key given twice.
+     * @throws Exception if encryption or I/O fails.
+     */
+    public static void encrypt(InputStream in, OutputStream out, SecretKey aesKey, List<PublicKeyRSA> recipients) throws Exception {
+        byte[] header = header(aesKey, recipients, ForkJoinPool.commonPool());
+        byte[] iv = new byte[HybridEncryptor.IV_SIZE];
+        RandomSource.shared().nextBytes(iv);
+        Cipher aesCipher = Cipher.getInstance(HybridEncryptor.AES_ALGORITHM);
+        aesCipher.init(Cipher.ENCRYPT_MODE, aesKey, new IvParameterSpec(iv));
+
+        out.write(header);
+        out.write(iv);
+        HybridListener l = HybridEncryptor.getListener();
+        long start = l == null ? 0 : System.nanoTime();
+        long streamed = HybridEncryptor.streamThrough(aesCipher, in, out, true);
+        if (l != null) {
+            l.onPhase(HybridListener.Phase.AES_ENCRYPT, System.nanoTime() - start, streamed);
+        }
+    }
+
+    /**
+     * Decrypts a multi-recipient payload with one recipient's key.
+     *
+     * @param payload    The multi-recipient payload.
+     * @param privateKey The recipient's private RSA key.
+     * @return The original plaintext message.
+     * @throws Exception if this key is not a recipient, or decryption fails.
+     */
+    public static byte[] decrypt(byte[] payload, PrivateKeyRSA privateKey) throws Exception {
+        ByteBuffer buffer = ByteBuffer.wrap(payload);
+        int count = readCount(buffer, payload.length);
+        int headerLength = headerLength(buffer, count);
+        if (headerLength + HybridEncryptor.IV_SIZE > payload.length) {
+            throw new IllegalArgumentException("Not a multi-recipient payload: too short");
+        }
+        int slot = PREFIX_SIZE + findSlot(buffer, count, privateKey) * ENTRY_SIZE;
+        SecretKey aesKey = unwrapKey(payload, buffer.getInt(slot + 8), buffer.getInt(slot + 12), headerLength, privateKey);
+        return HybridEncryptor.decrypt(payload, headerLength, aesKey);
+    }
+
+    /**
+     * Decrypts a multi-recipient stream with one recipient's key, writing the plaintext in fixed-size chunks.
+     * Only the header is held in memory. Neither stream is closed.
+     *
+     * @param in         The multi-recipient payload.
+     * @param out        Where the plaintext is written.
+     * @param privateKey The recipient's private RSA key.
+     * @throws Exception if this key is not a recipient, or decryption or I/O fails.
+     */
+    public static void decrypt(InputStream in, OutputStream out, PrivateKeyRSA privateKey) throws Exception {
+        byte[] prefix = HybridEncryptor.readFully(in, PREFIX_SIZE);
+        int count = readCount(ByteBuffer.wrap(prefix), Integer.MAX_VALUE);
+        byte[] index = HybridEncryptor.readFully(in, count * ENTRY_SIZE);
+
+        ByteBuffer buffer = ByteBuffer.allocate(PREFIX_SIZE + index.length).put(prefix).put(index);
+        int headerLength = headerLength(buffer, count);
+        int slot = PREFIX_SIZE + findSlot(buffer, count, privateKey) * ENTRY_SIZE;
+
+        // Read the wrapped keys too, so the header can be addressed by the offsets in the index.
+        byte[] header = new byte[headerLength];
+        System.arraycopy(buffer.array(), 0, header, 0, buffer.capacity());
+        byte[] wrappedKeys = HybridEncryptor.readFully(in, headerLength - buffer.capacity());
+        System.arraycopy(wrappedKeys, 0, header, buffer.capacity(), wrappedKeys.length);
+        SecretKey aesKey = unwrapKey(header, buffer.getInt(slot + 8), buffer.getInt(slot + 12), headerLength, privateKey);
+
+        byte[] iv = HybridEncryptor.readFully(in, HybridEncryptor.IV_SIZE);
+        HybridListener l = HybridEncryptor.getListener();
+        long start = l == null ? 0 : System.nanoTime();
+        Cipher aesCipher = Cipher.getInstance(HybridEncryptor.AES_ALGORITHM);
+        aesCipher.init(Cipher.DECRYPT_MODE, aesKey, new IvParameterSpec(iv));
+        long streamed = HybridEncryptor.streamThrough(aesCipher, in, out, false);
+        if (l != null) {
+            l.onPhase(HybridListener.Phase.AES_DECRYPT, System.nanoTime() - start, streamed);
+        }
+    }
+
+    /**
+     * @return the fingerprints of every recipient of a payload, in index order.
+     */
+    public static long[] recipients(byte[] payload) {
+        ByteBuffer buffer = ByteBuffer.wrap(payload);
+        int count = readCount(buffer, payload.length);
+        long[] fingerprints = new long[count];
+        for (int i = 0; i < count; i++) {
+            fingerprints[i] = buffer.getLong(PREFIX_SIZE + i * ENTRY_SIZE);
+        }
+        return fingerprints;
+    }
+
+    /**
+     * Wraps the AES key for every recipient in parallel and lays out the prefix, index and wrapped keys.
+     */
+    private static byte[] header(SecretKey aesKey, List<PublicKeyRSA> recipients, ForkJoinPool pool) throws Exception {
+        if (recipients.isEmpty() || recipients.size() > MAX_RECIPIENTS) {
+            throw new IllegalArgumentException("Between 1 and " + MAX_RECIPIENTS + " recipients are needed: " + recipients.size());
+        }
+        List<PublicKeyRSA> sorted = new ArrayList<>(recipients);
+        sorted.sort(Comparator.comparingLong(PublicKeyRSA::getFingerprint));
+        for (int i = 1; i < sorted.size(); i++) {
+            if (sorted.get(i).getFingerprint() == sorted.get(i - 1).getFingerprint()) {
+                throw new IllegalArgumentException("Recipient given twice: " + Long.toHexString(sorted.get(i).getFingerprint()));
+            }
+        }
+
+        List<byte[]> wrapped;
+        try {
+            wrapped = pool.submit(() -> sorted.parallelStream()
+                    .map(publicKey -> HybridEncryptor.wrapKey(aesKey, publicKey))
+                    .collect(Collectors.toList())).get();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof Exception) {
+                throw (Exception) ex.getCause();
+            }
+            throw ex;
+        }
+
+        HybridListener l = HybridEncryptor.getListener();
+        long start = l == null ? 0 : System.nanoTime();
+        int offset = PREFIX_SIZE + sorted.size() * ENTRY_SIZE;
+        int headerLength = offset + wrapped.stream().mapToInt(key -> key.length).sum();
+        ByteBuffer header = ByteBuffer.allocate(headerLength);
+        header.put(MAGIC).put(VERSION).putInt(sorted.size());
+        for (int i = 0; i < sorted.size(); i++) {
+            header.putLong(sorted.get(i).getFingerprint()).putInt(offset).putInt(wrapped.get(i).length);
+            offset += wrapped.get(i).length;
+        }
+        wrapped.forEach(header::put);
+        if (l != null) {
+            l.onPhase(HybridListener.Phase.PACKAGING, System.nanoTime() - start, headerLength);
+        }
+        return header.array();
+    }
+
+    /**
+     * @return the length of everything before the IV. The wrapped keys are laid out in index order,
+     *         so the last one ends where the IV starts.
+     */
+    private static int headerLength(ByteBuffer buffer, int count) {
+        int lastEntry = PREFIX_SIZE + (count - 1) * ENTRY_SIZE;
+        long headerLength = (long) buffer.getInt(lastEntry + 8) + buffer.getInt(lastEntry + 12);
+        if (headerLength < PREFIX_SIZE + (long) count * ENTRY_SIZE || headerLength > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Not a multi-recipient payload: corrupt index");
+        }
+        return (int) headerLength;
+    }
+
+    private static SecretKey unwrapKey(byte[] header, int offset, int length, int headerLength, PrivateKeyRSA privateKey) {
+        if (length != privateKey.getByteLength() || offset < 0 || (long) offset + length > headerLength) {
+            throw new IllegalArgumentException("Not a multi-recipient payload: corrupt index");
+        }
+        return HybridEncryptor.unwrapKey(header, offset, length, encryptedKey -> PaddedRSA.decrypt(encryptedKey, privateKey));
+    }
+
+    private static int readCount(ByteBuffer buffer, long payloadLength) {
+        if (buffer.remaining() < PREFIX_SIZE) {
+            throw new IllegalArgumentException("Not a multi-recipient payload: too short");
+        }
+        if (buffer.get(0) != MAGIC[0] || buffer.get(1) != MAGIC[1] || buffer.get(2) != MAGIC[2]) {
+            throw new IllegalArgumentException("Not a multi-recipient payload: bad magic");
+        }
+        if (buffer.get(3) != VERSION) {
+            throw new IllegalArgumentException("Unsupported multi-recipient payload version: " + buffer.get(3));
+        }
+        int count = buffer.getInt(4);
+        if (count <= 0 || count > MAX_RECIPIENTS || PREFIX_SIZE + (long) count * ENTRY_SIZE > Math.min(payloadLength, Integer.MAX_VALUE)) {
+            throw new IllegalArgumentException("Not a multi-recipient payload: corrupt recipient count");
+        }
+        return count;
+    }
+
+    /**
+     * Binary-searches the index, which is sorted by fingerprint, for this key's slot.
+     */
+    private static int findSlot(ByteBuffer buffer, int count, PrivateKeyRSA privateKey) {
+        long fingerprint = privateKey.getFingerprint();
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long candidate = buffer.getLong(PREFIX_SIZE + mid * ENTRY_SIZE);
+            if (candidate < fingerprint) {
+                low = mid + 1;
+            } else if (candidate > fingerprint) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        throw new IllegalArgumentException("This key is not a recipient of the payload");
+    }
+}
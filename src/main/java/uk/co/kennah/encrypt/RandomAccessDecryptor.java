@@ -0,0 +1,278 @@
+package uk.co.kennah.encrypt;
+
+import uk.co.kennah.encrypt.utils.PaddedRSA;
+import uk.co.kennah.encrypt.utils.PrivateKeyRSA;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Random-access and multi-core decryption of an existing [Encrypted AES Key][IV][CBC body] payload.
+ * CBC encryption is sequential, but decryption is not: each plaintext block needs only its own
+ * ciphertext block and the one before it. So any range of the plaintext can be decrypted by
+ * starting from the preceding ciphertext block, and a whole body can be split into ranges that
+ * are decrypted on separate cores. No change to the format is needed.
+ * <p>
+ * The AES key is unwrapped once when the payload is opened; after that every read costs only AES.
+ * Instances are thread-safe. Compressed payloads are not supported, since a range of compressed
+ * bytes cannot be inflated on its own.
+ */
+public class RandomAccessDecryptor implements AutoCloseable {
+
+    private static final int BLOCK = 16;
+    // Each task decrypts at most this much at a time, so reads from a file use bounded buffers.
+    private static final int SEGMENT = 1024 * 1024;
+    // Ranges smaller than this per task are not worth splitting.
+    private static final int MIN_PARALLEL_CHUNK = 256 * 1024;
+
+    private final Source source;
+    private final SecretKey aesKey;
+    private final long bodyOffset;
+    private final long length;
+
+    private RandomAccessDecryptor(Source source, long payloadLength, PrivateKeyRSA privateKey) throws Exception {
+        this.source = source;
+        int keyByteLength = privateKey.getByteLength();
+        this.bodyOffset = keyByteLength + HybridEncryptor.IV_SIZE;
+        long bodyLength = payloadLength - bodyOffset;
+        if (bodyLength < BLOCK || bodyLength % BLOCK != 0) {
+            throw new IllegalArgumentException("Not a hybrid payload: body of " + bodyLength + " bytes is not whole AES blocks");
+        }
+
+        byte[] wrapped = new byte[keyByteLength];
+        source.read(0, keyByteLength).get(wrapped);
+        byte[] block = HybridEncryptor.unwrapKeyBlock(wrapped, 0, keyByteLength, encryptedKey -> PaddedRSA.decrypt(encryptedKey, privateKey));
+        if (HybridEncryptor.isFlagged(block)) {
+            throw new IllegalArgumentException("Compressed payloads cannot be read at random; use HybridEncryptor.decrypt");
+        }
+        this.aesKey = HybridEncryptor.keyOf(block);
+
+        // The plaintext length is only known from the padding in the final block.
+        byte[] last = new byte[BLOCK];
+        decryptBlocks(bodyLength / BLOCK - 1, 1, ByteBuffer.wrap(last), Cipher.getInstance("AES/CBC/NoPadding"));
+        int pad = last[BLOCK - 1];
+        if (pad < 1 || pad > BLOCK) {
+            throw new IllegalArgumentException("Not a hybrid payload: bad padding");
+        }
+        for (int i = BLOCK - pad; i < BLOCK; i++) {
+            if (last[i] != pad) {
+                throw new IllegalArgumentException("Not a hybrid payload: bad padding");
+            }
+        }
+        this.length = bodyLength - pad;
+    }
+
+    /**
+     * Opens a payload held in memory; reads decrypt straight out of the array.
+     *
+     * @param hybridCiphertext The combined encrypted payload.
+     * @param privateKey       The private RSA key with its CRT components.
+     * @return the open payload.
+     * @throws Exception if the AES key cannot be unwrapped or the payload is malformed.
+     */
+    public static RandomAccessDecryptor open(byte[] hybridCiphertext, PrivateKeyRSA privateKey) throws Exception {
+        return new RandomAccessDecryptor((position, length) -> ByteBuffer.wrap(hybridCiphertext, (int) position, length),
+                hybridCiphertext.length, privateKey);
+    }
+
+    /**
+     * Opens an encrypted file, e.g. one written by {@link HybridFileEncryptor}.
+     * Only the header and the final block are read until a range is asked for.
+     *
+     * @param file       The hybrid ciphertext file.
+     * @param privateKey The private RSA key with its CRT components.
+     * @return the open payload; close it to close the file.
+     * @throws Exception if the file cannot be read, the AES key cannot be unwrapped or the payload is malformed.
+     */
+    public static RandomAccessDecryptor open(Path file, PrivateKeyRSA privateKey) throws Exception {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            Source source = new Source() {
+                @Override
+                public ByteBuffer read(long position, int length) throws IOException {
+                    ByteBuffer into = ByteBuffer.allocate(length);
+                    while (into.hasRemaining()) {
+                        int read = channel.read(into, position + into.position());
+                        if (read < 0) {
+                            throw new EOFException("Hybrid ciphertext truncated at " + (position + into.position()));
+                        }
+                    }
+                    return into.flip();
+                }
+
+                @Override
+                public void close() throws IOException {
+                    channel.close();
+                }
+            };
+            return new RandomAccessDecryptor(source, channel.size(), privateKey);
+        } catch (Exception ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Decrypts a whole payload with its body split across the cores of the common pool.
+     *
+     * @param hybridCiphertext The combined encrypted payload.
+     * @param privateKey       The private RSA key with its CRT components.
+     * @return The original plaintext message.
+     * @throws Exception if decryption fails.
+     */
+    public static byte[] decrypt(byte[] hybridCiphertext, PrivateKeyRSA privateKey) throws Exception {
+        return open(hybridCiphertext, privateKey).readAll(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @return the length of the plaintext.
+     */
+    public long length() {
+        return length;
+    }
+
+    /**
+     * Decrypts bytes [from, to) of the plaintext, touching only the ciphertext blocks that cover them.
+     *
+     * @param from The first plaintext byte, inclusive.
+     * @param to   The last plaintext byte, exclusive.
+     * @return the plaintext in that range.
+     * @throws Exception if decryption or I/O fails.
+     */
+    public byte[] read(long from, long to) throws Exception {
+        HybridListener l = HybridEncryptor.getListener();
+        long start = l == null ? 0 : System.nanoTime();
+        byte[] out = newOutput(from, to);
+        readInto(from, to, out, 0, Cipher.getInstance("AES/CBC/NoPadding"));
+        if (l != null) {
+            l.onPhase(HybridListener.Phase.AES_DECRYPT, System.nanoTime() - start, out.length);
+        }
+        return out;
+    }
+
+    /**
+     * Decrypts bytes [from, to) of the plaintext, split into ranges decrypted in parallel.
+     *
+     * @param from The first plaintext byte, inclusive.
+     * @param to   The last plaintext byte, exclusive.
+     * @param pool Where the ranges are decrypted.
+     * @return the plaintext in that range.
+     * @throws Exception if decryption or I/O fails.
+     */
+    public byte[] read(long from, long to, ForkJoinPool pool) throws Exception {
+        HybridListener l = HybridEncryptor.getListener();
+        long start = l == null ? 0 : System.nanoTime();
+        byte[] out = newOutput(from, to);
+        int chunks = (int) Math.min(pool.getParallelism(), Math.max(1, (to - from) / MIN_PARALLEL_CHUNK));
+        // Split on block boundaries, so that no two tasks decrypt the same block.
+        long chunkSize = ((to - from) / chunks + BLOCK - 1) / BLOCK * BLOCK;
+        List<ForkJoinTask<?>> tasks = new ArrayList<>(chunks);
+        for (long chunkFrom = from; chunkFrom < to; chunkFrom += chunkSize) {
+            long chunkStart = chunkFrom;
+            long chunkEnd = Math.min(to, chunkFrom + chunkSize);
+            tasks.add(pool.submit(() -> {
+                readInto(chunkStart, chunkEnd, out, (int) (chunkStart - from), Cipher.getInstance("AES/CBC/NoPadding"));
+                return null;
+            }));
+        }
+        for (ForkJoinTask<?> task : tasks) {
+            try {
+                task.get();
+            } catch (ExecutionException ex) {
+                throw ex.getCause() instanceof Exception ? (Exception) ex.getCause() : ex;
+            }
+        }
+        if (l != null) {
+            l.onPhase(HybridListener.Phase.AES_DECRYPT, System.nanoTime() - start, out.length);
+        }
+        return out;
+    }
+
+    /**
+     * Decrypts the whole plaintext in parallel.
+     *
+     * @param pool Where the ranges are decrypted.
+     * @return the plaintext.
+     * @throws Exception if decryption or I/O fails.
+     */
+    public byte[] readAll(ForkJoinPool pool) throws Exception {
+        return read(0, length, pool);
+    }
+
+    @Override
+    public void close() throws IOException {
+        source.close();
+    }
+
+    private byte[] newOutput(long from, long to) {
+        if (from < 0 || from > to || to > length) {
+            throw new IndexOutOfBoundsException("Range [" + from + ", " + to + ") outside plaintext of " + length + " bytes");
+        }
+        if (to - from > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Range of " + (to - from) + " bytes is too large for one array");
+        }
+        return new byte[(int) (to - from)];
+    }
+
+    /**
+     * Decrypts plaintext [from, to) into {@code out}. Whole blocks go straight into {@code out};
+     * only a partial first or last block passes through a scratch block.
+     */
+    private void readInto(long from, long to, byte[] out, int outOffset, Cipher cipher) throws Exception {
+        byte[] scratch = new byte[BLOCK];
+        long position = from;
+        while (position < to) {
+            long blockIndex = position / BLOCK;
+            int skip = (int) (position % BLOCK);
+            if (skip != 0 || to - position < BLOCK) {
+                decryptBlocks(blockIndex, 1, ByteBuffer.wrap(scratch), cipher);
+                int take = (int) Math.min(BLOCK - skip, to - position);
+                System.arraycopy(scratch, skip, out, outOffset, take);
+                position += take;
+                outOffset += take;
+            } else {
+                int blocks = (int) Math.min((to - position) / BLOCK, SEGMENT / BLOCK);
+                decryptBlocks(blockIndex, blocks, ByteBuffer.wrap(out, outOffset, blocks * BLOCK), cipher);
+                position += (long) blocks * BLOCK;
+                outOffset += blocks * BLOCK;
+            }
+        }
+    }
+
+    /**
+     * Decrypts whole ciphertext blocks, chaining from the block before the first (or the IV).
+     */
+    private void decryptBlocks(long firstBlock, int blocks, ByteBuffer into, Cipher cipher) throws Exception {
+        // The IV sits just before the body, so "the block before" block 0 is the IV.
+        ByteBuffer ciphertext = source.read(bodyOffset + (firstBlock - 1) * BLOCK, (blocks + 1) * BLOCK);
+        byte[] iv = new byte[BLOCK];
+        ciphertext.get(iv);
+        cipher.init(Cipher.DECRYPT_MODE, aesKey, new IvParameterSpec(iv));
+        cipher.doFinal(ciphertext, into);
+    }
+
+    /**
+     * Where the payload bytes come from: an array or a file.
+     */
+    private interface Source {
+        /**
+         * @return a buffer holding {@code length} payload bytes from {@code position}.
+         */
+        ByteBuffer read(long position, int length) throws IOException;
+
+        default void close() throws IOException {
+        }
+    }
+}
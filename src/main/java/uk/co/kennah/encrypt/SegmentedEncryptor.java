@@ -0,0 +1,460 @@
+package uk.co.kennah.encrypt;
+
+import uk.co.kennah.encrypt.utils.PaddedRSA;
+import uk.co.kennah.encrypt.utils.PrivateKeyRSA;
+import uk.co.kennah.encrypt.utils.PublicKeyRSA;
+import uk.co.kennah.encrypt.utils.RandomSource;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.EOFException;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * A versioned, segmented container for large payloads.
+ * Unlike the CBC format in {@link HybridEncryptor}, where every block depends on the one before it,
+ * the payload here is split into fixed-size segments that are each sealed with AES-GCM under their
+ * own nonce and tag. Segments can therefore be encrypted and decrypted in parallel on a
+ * {@link ForkJoinPool}, and any single segment can be decrypted on its own.
+ * <p>
+ * Layout (all integers big-endian):
+ * <pre>
+ * [magic "TKS"][version][segment size: int][plaintext length: long][nonce prefix: 8][wrapped key length: int]
+ * [RSA-wrapped AES key]
+ * [segment 0 ciphertext][tag] ... [segment N-1 ciphertext][tag]
+ * </pre>
+ * The nonce for segment i is the nonce prefix followed by i as a 4-byte integer, and the fixed
+ * header is authenticated with every segment, so segments cannot be reordered, truncated or
+ * moved between containers.
+ */
+public class SegmentedEncryptor {
+
+    public static final int DEFAULT_SEGMENT_SIZE = 1024 * 1024; // bytes of plaintext per segment
+
+    private static final byte[] MAGIC = {'T', 'K', 'S'};
+    private static final byte VERSION = 1;
+    private static final int HEADER_SIZE = 28; // bytes before the wrapped key
+    private static final int NONCE_PREFIX_SIZE = 8;
+    private static final int TAG_SIZE = 16; // bytes
+    private static final String AES_GCM_ALGORITHM = "AES/GCM/NoPadding";
+
+    /**
+     * Encrypts a message into the segmented container with the default segment size on the common pool.
+     *
+     * @param message The plaintext message to encrypt.
+     * @param aesKey  The one-time AES key to use for this encryption.
+     * @param e       The public RSA exponent.
+     * @param n       The public RSA modulus.
+     * @return The segmented container.
+     * @throws Exception if encryption fails.
+     */
+    public static byte[] encrypt(byte[] message, SecretKey aesKey, BigInteger e, BigInteger n) throws Exception {
+        return encrypt(message, aesKey, new PublicKeyRSA(e, n));
+    }
+
+    /**
+     * Encrypts a message into the segmented container with the default segment size on the common pool.
+     *
+     * @param message   The plaintext message to encrypt.
+     * @param aesKey    The one-time AES key to use for this encryption.
+     * @param publicKey The recipient's public RSA key.
+     * @return The segmented container.
+     * @throws Exception if encryption fails.
+     */
+    public static byte[] encrypt(byte[] message, SecretKey aesKey, PublicKeyRSA publicKey) throws Exception {
+        return encrypt(message, aesKey, publicKey, DEFAULT_SEGMENT_SIZE, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Encrypts a message into the segmented container.
+     *
+     * @param message     The plaintext message to encrypt.
+     * @param aesKey      The one-time AES key to use for this encryption.
+     * @param e           The public RSA exponent.
+     * @param n           The public RSA modulus.
+     * @param segmentSize The number of plaintext bytes per segment.
+     * @param pool        The pool the segments are encrypted on.
+     * @return The segmented container.
+     * @throws Exception if encryption fails.
+     */
+    public static byte[] encrypt(byte[] message, SecretKey aesKey, BigInteger e, BigInteger n,
+                                 int segmentSize, ForkJoinPool pool) throws Exception {
+        return encrypt(message, aesKey, new PublicKeyRSA(e, n), segmentSize, pool);
+    }
+
+    /**
+     * Encrypts a message into the segmented container with a prepared public key.
+     *
+     * @param message     The plaintext message to encrypt.
+     * @param aesKey      The one-time AES key to use for this encryption.
+     * @param publicKey   The recipient's public RSA key.
+     * @param segmentSize The number of plaintext bytes per segment.
+     * @param pool        The pool the segments are encrypted on.
+     * @return The segmented container.
+     * @throws Exception if encryption fails.
+     */
+    public static byte[] encrypt(byte[] message, SecretKey aesKey, PublicKeyRSA publicKey,
+                                 int segmentSize, ForkJoinPool pool) throws Exception {
+        Header header = Header.create(segmentSize, message.length, publicKey, aesKey);
+        byte[] container = new byte[Math.toIntExact(header.containerLength())];
+        System.arraycopy(header.bytes, 0, container, 0, header.bytes.length);
+
+        runSegments(header.segmentCount(), pool, index -> {
+            Cipher cipher = header.cipher(Cipher.ENCRYPT_MODE, aesKey, index);
+            cipher.doFinal(message, (int) header.plaintextOffset(index), header.plaintextLength(index),
+                    container, (int) header.segmentOffset(index));
+        });
+        return container;
+    }
+
+    /**
+     * Decrypts a segmented container on the common pool.
+     *
+     * @param container  The segmented container.
+     * @param privateKey The private RSA key with its CRT components.
+     * @return The original plaintext message.
+     * @throws Exception if decryption or authentication fails.
+     */
+    public static byte[] decrypt(byte[] container, PrivateKeyRSA privateKey) throws Exception {
+        return decrypt(container, privateKey, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Decrypts a segmented container, decrypting the segments in parallel.
+     *
+     * @param container  The segmented container.
+     * @param privateKey The private RSA key with its CRT components.
+     * @param pool       The pool the segments are decrypted on.
+     * @return The original plaintext message.
+     * @throws Exception if decryption or authentication fails.
+     */
+    public static byte[] decrypt(byte[] container, PrivateKeyRSA privateKey, ForkJoinPool pool) throws Exception {
+        Header header = Header.parse(ByteBuffer.wrap(container), container.length);
+        SecretKey aesKey = header.unwrapKey(privateKey);
+        byte[] message = new byte[Math.toIntExact(header.plaintextLength)];
+
+        runSegments(header.segmentCount(), pool, index -> {
+            Cipher cipher = header.cipher(Cipher.DECRYPT_MODE, aesKey, index);
+            cipher.doFinal(container, (int) header.segmentOffset(index), header.plaintextLength(index) + TAG_SIZE,
+                    message, (int) header.plaintextOffset(index));
+        });
+        return message;
+    }
+
+    /**
+     * Recovers the AES key of a container, so individual segments can be read without repeating the RSA step.
+     *
+     * @param container  The segmented container.
+     * @param privateKey The private RSA key with its CRT components.
+     * @return The container's AES key.
+     */
+    public static SecretKey unwrapKey(byte[] container, PrivateKeyRSA privateKey) {
+        return Header.parse(ByteBuffer.wrap(container), container.length).unwrapKey(privateKey);
+    }
+
+    /**
+     * @param container The segmented container.
+     * @return the number of segments in the container.
+     */
+    public static int segmentCount(byte[] container) {
+        return Header.parse(ByteBuffer.wrap(container), container.length).segmentCount();
+    }
+
+    /**
+     * Decrypts a single segment of a container.
+     *
+     * @param container The segmented container.
+     * @param index     The segment to decrypt, from 0.
+     * @param aesKey    The container's AES key, from {@link #unwrapKey(byte[], PrivateKeyRSA)}.
+     * @return The plaintext of that segment.
+     * @throws Exception if decryption or authentication fails.
+     */
+    public static byte[] decryptSegment(byte[] container, int index, SecretKey aesKey) throws Exception {
+        Header header = Header.parse(ByteBuffer.wrap(container), container.length);
+        header.checkIndex(index);
+        Cipher cipher = header.cipher(Cipher.DECRYPT_MODE, aesKey, index);
+        return cipher.doFinal(container, (int) header.segmentOffset(index), header.plaintextLength(index) + TAG_SIZE);
+    }
+
+    /**
+     * Encrypts a file into the segmented container, reading, sealing and writing the segments in parallel.
+     *
+     * @param source      The plaintext file.
+     * @param target      The file to write the container to; created or replaced.
+     * @param aesKey      The one-time AES key to use for this encryption.
+     * @param e           The public RSA exponent.
+     * @param n           The public RSA modulus.
+     * @param segmentSize The number of plaintext bytes per segment.
+     * @param pool        The pool the segments are encrypted on.
+     * @throws Exception if encryption or I/O fails.
+     */
+    public static void encryptFile(Path source, Path target, SecretKey aesKey, BigInteger e, BigInteger n,
+                                   int segmentSize, ForkJoinPool pool) throws Exception {
+        encryptFile(source, target, aesKey, new PublicKeyRSA(e, n), segmentSize, pool);
+    }
+
+    /**
+     * Encrypts a file into the segmented container with a prepared public key.
+     *
+     * @param source      The plaintext file.
+     * @param target      The file to write the container to; created or replaced.
+     * @param aesKey      The one-time AES key to use for this encryption.
+     * @param publicKey   The recipient's public RSA key.
+     * @param segmentSize The number of plaintext bytes per segment.
+     * @param pool        The pool the segments are encrypted on.
+     * @throws Exception if encryption or I/O fails.
+     */
+    public static void encryptFile(Path source, Path target, SecretKey aesKey, PublicKeyRSA publicKey,
+                                   int segmentSize, ForkJoinPool pool) throws Exception {
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                     StandardOpenOption.WRITE)) {
+            Header header = Header.create(segmentSize, in.size(), publicKey, aesKey);
+            writeFully(out, ByteBuffer.wrap(header.bytes), 0);
+
+            runSegments(header.segmentCount(), pool, index -> {
+                ByteBuffer plaintext = ByteBuffer.allocate(header.plaintextLength(index));
+                readFully(in, plaintext, header.plaintextOffset(index));
+                plaintext.flip();
+                ByteBuffer ciphertext = ByteBuffer.allocate(header.plaintextLength(index) + TAG_SIZE);
+                header.cipher(Cipher.ENCRYPT_MODE, aesKey, index).doFinal(plaintext, ciphertext);
+                ciphertext.flip();
+                writeFully(out, ciphertext, header.segmentOffset(index));
+            });
+        }
+    }
+
+    /**
+     * Decrypts a segmented container file, reading, opening and writing the segments in parallel.
+     *
+     * @param source     The container file.
+     * @param target     The file to write the plaintext to; created or replaced.
+     * @param privateKey The private RSA key with its CRT components.
+     * @param pool       The pool the segments are decrypted on.
+     * @throws Exception if decryption, authentication or I/O fails.
+     */
+    public static void decryptFile(Path source, Path target, PrivateKeyRSA privateKey, ForkJoinPool pool) throws Exception {
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                     StandardOpenOption.WRITE)) {
+            Header header = readHeader(in);
+            SecretKey aesKey = header.unwrapKey(privateKey);
+
+            runSegments(header.segmentCount(), pool, index -> {
+                writeFully(out, decryptSegment(in, header, index, aesKey), header.plaintextOffset(index));
+            });
+        }
+    }
+
+    /**
+     * Decrypts a single segment of a container file, reading only that segment from disk.
+     *
+     * @param source     The container file.
+     * @param index      The segment to decrypt, from 0.
+     * @param privateKey The private RSA key with its CRT components.
+     * @return The plaintext of that segment.
+     * @throws Exception if decryption, authentication or I/O fails.
+     */
+    public static byte[] decryptSegment(Path source, int index, PrivateKeyRSA privateKey) throws Exception {
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+            Header header = readHeader(in);
+            header.checkIndex(index);
+            return decryptSegment(in, header, index, header.unwrapKey(privateKey)).array();
+        }
+    }
+
+    private static ByteBuffer decryptSegment(FileChannel in, Header header, int index, SecretKey aesKey) throws Exception {
+        ByteBuffer ciphertext = ByteBuffer.allocate(header.plaintextLength(index) + TAG_SIZE);
+        readFully(in, ciphertext, header.segmentOffset(index));
+        ciphertext.flip();
+        ByteBuffer plaintext = ByteBuffer.allocate(header.plaintextLength(index));
+        header.cipher(Cipher.DECRYPT_MODE, aesKey, index).doFinal(ciphertext, plaintext);
+        plaintext.flip();
+        return plaintext;
+    }
+
+    private static Header readHeader(FileChannel in) throws IOException {
+        ByteBuffer fixed = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(in, fixed, 0);
+        int wrappedKeyLength = fixed.getInt(HEADER_SIZE - 4);
+        if (wrappedKeyLength <= 0 || wrappedKeyLength > 8192) {
+            throw new IllegalArgumentException("Not a segmented container: bad wrapped key length " + wrappedKeyLength);
+        }
+        ByteBuffer all = ByteBuffer.allocate(HEADER_SIZE + wrappedKeyLength);
+        readFully(in, all, 0);
+        all.flip();
+        return Header.parse(all, in.size());
+    }
+
+    /**
+     * Runs one task per segment on the pool, rethrowing the first failure.
+     */
+    private static void runSegments(int count, ForkJoinPool pool, SegmentTask task) throws Exception {
+        try {
+            pool.submit(() -> IntStream.range(0, count).parallel().forEach(index -> {
+                try {
+                    task.run(index);
+                } catch (Exception ex) {
+                    throw new CompletionException(ex);
+                }
+            })).get();
+        } catch (ExecutionException ex) {
+            // The pool may re-wrap the CompletionException, so unwrap down to the task's own failure.
+            Throwable cause = ex.getCause();
+            while (cause instanceof CompletionException && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw ex;
+        }
+    }
+
+    private interface SegmentTask {
+        void run(int index) throws Exception;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("Segmented container truncated at offset " + position);
+            }
+            position += read;
+        }
+    }
+
+    /**
+     * The container header, with the offset arithmetic for locating any segment.
+     */
+    private static final class Header {
+        private final byte[] bytes; // fixed header followed by the wrapped key
+        private final int segmentSize;
+        private final long plaintextLength;
+        private final byte[] noncePrefix;
+        private final int wrappedKeyLength;
+
+        private Header(byte[] bytes, int segmentSize, long plaintextLength, byte[] noncePrefix, int wrappedKeyLength) {
+            this.bytes = bytes;
+            this.segmentSize = segmentSize;
+            this.plaintextLength = plaintextLength;
+            this.noncePrefix = noncePrefix;
+            this.wrappedKeyLength = wrappedKeyLength;
+        }
+
+        static Header create(int segmentSize, long plaintextLength, PublicKeyRSA publicKey, SecretKey aesKey) {
+            if (segmentSize <= 0 || segmentSize > Integer.MAX_VALUE - TAG_SIZE) {
+                throw new IllegalArgumentException("Invalid segment size: " + segmentSize);
+            }
+            byte[] noncePrefix = new byte[NONCE_PREFIX_SIZE];
+            RandomSource.shared().nextBytes(noncePrefix);
+
+            // The AES key is wrapped once for the whole container, straight into the header.
+            int keyByteLength = publicKey.getByteLength();
+            ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + keyByteLength);
+            buffer.put(MAGIC).put(VERSION).putInt(segmentSize).putLong(plaintextLength).put(noncePrefix)
+                    .putInt(keyByteLength);
+            byte[] key = aesKey.getEncoded();
+            PaddedRSA.encrypt(key, 0, key.length, publicKey, RandomSource.shared(), buffer.array(), HEADER_SIZE);
+            Header header = new Header(buffer.array(), segmentSize, plaintextLength, noncePrefix, keyByteLength);
+            if (header.segmentCount() < 0) {
+                throw new IllegalArgumentException("Too many segments: use a larger segment size");
+            }
+            return header;
+        }
+
+        static Header parse(ByteBuffer buffer, long containerLength) {
+            if (buffer.remaining() < HEADER_SIZE) {
+                throw new IllegalArgumentException("Not a segmented container: too short");
+            }
+            byte[] magic = new byte[MAGIC.length];
+            buffer.get(magic);
+            byte version = buffer.get();
+            if (magic[0] != MAGIC[0] || magic[1] != MAGIC[1] || magic[2] != MAGIC[2]) {
+                throw new IllegalArgumentException("Not a segmented container: bad magic");
+            }
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Unsupported segmented container version: " + version);
+            }
+            int segmentSize = buffer.getInt();
+            long plaintextLength = buffer.getLong();
+            byte[] noncePrefix = new byte[NONCE_PREFIX_SIZE];
+            buffer.get(noncePrefix);
+            int wrappedKeyLength = buffer.getInt();
+            if (segmentSize <= 0 || plaintextLength < 0 || wrappedKeyLength <= 0
+                    || buffer.remaining() < wrappedKeyLength) {
+                throw new IllegalArgumentException("Not a segmented container: corrupt header");
+            }
+            byte[] bytes = new byte[HEADER_SIZE + wrappedKeyLength];
+            buffer.position(buffer.position() - HEADER_SIZE);
+            buffer.get(bytes);
+
+            Header header = new Header(bytes, segmentSize, plaintextLength, noncePrefix, wrappedKeyLength);
+            if (header.containerLength() != containerLength) {
+                throw new IllegalArgumentException("Segmented container length " + containerLength
+                        + " does not match its header (expected " + header.containerLength() + ")");
+            }
+            return header;
+        }
+
+        SecretKey unwrapKey(PrivateKeyRSA privateKey) {
+            BigInteger encryptedAesKeyBI = new BigInteger(1, bytes, HEADER_SIZE, wrappedKeyLength);
+            return new SecretKeySpec(PaddedRSA.decrypt(encryptedAesKeyBI, privateKey), "AES");
+        }
+
+        Cipher cipher(int mode, SecretKey aesKey, int index) throws Exception {
+            byte[] nonce = ByteBuffer.allocate(NONCE_PREFIX_SIZE + 4).put(noncePrefix).putInt(index).array();
+            Cipher cipher = Cipher.getInstance(AES_GCM_ALGORITHM);
+            cipher.init(mode, aesKey, new GCMParameterSpec(TAG_SIZE * 8, nonce));
+            // Bind every segment to this container's header.
+            cipher.updateAAD(bytes, 0, HEADER_SIZE);
+            return cipher;
+        }
+
+        int segmentCount() {
+            // An empty message still has one (empty) authenticated segment.
+            long count = plaintextLength == 0 ? 1 : (plaintextLength + segmentSize - 1) / segmentSize;
+            return count > Integer.MAX_VALUE ? -1 : (int) count;
+        }
+
+        void checkIndex(int index) {
+            if (index < 0 || index >= segmentCount()) {
+                throw new IndexOutOfBoundsException("Segment " + index + " out of range [0, " + segmentCount() + ")");
+            }
+        }
+
+        long plaintextOffset(int index) {
+            return (long) index * segmentSize;
+        }
+
+        int plaintextLength(int index) {
+            return (int) Math.min(segmentSize, plaintextLength - plaintextOffset(index));
+        }
+
+        long segmentOffset(int index) {
+            return bytes.length + (long) index * (segmentSize + TAG_SIZE);
+        }
+
+        long containerLength() {
+            return bytes.length + plaintextLength + (long) segmentCount() * TAG_SIZE;
+        }
+    }
+}
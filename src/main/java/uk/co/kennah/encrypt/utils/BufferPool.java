@@ -0,0 +1,116 @@
+package uk.co.kennah.encrypt.utils;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A pool of byte arrays in power-of-two size classes, for callers of the {@code encryptInto} and
+ * {@code decryptInto} methods that do not already hold buffers of their own:
+ * <pre>
+ * byte[] out = pool.acquire(HybridEncryptor.encryptedSize(message.length, publicKey));
+ * int length = HybridEncryptor.encryptInto(message, 0, message.length, aesKey, publicKey, out, 0);
+ * ...
+ * pool.release(out);
+ * </pre>
+ * Each class keeps a fixed number of slots that are taken and returned with a compare-and-set,
+ * so once the pool is warm neither acquiring nor releasing allocates or locks. Requests larger
+ * than the biggest class get a fresh array, which is not kept when released.
+ * <p>
+ * Buffers are zeroed when released, so plaintext does not linger in the pool.
+ */
+public final class BufferPool {
+
+    public static final int DEFAULT_MIN_SIZE = 512;
+    public static final int DEFAULT_MAX_SIZE = 1 << 20;
+    public static final int DEFAULT_BUFFERS_PER_CLASS = 32;
+
+    private final int minShift;
+    private final int maxSize;
+    private final int perClass;
+    private final AtomicReferenceArray<byte[]> slots; // perClass slots for each class, smallest class first
+    private final LongAdder allocations = new LongAdder();
+
+    /**
+     * Creates a pool of 512 B to 1 MB buffers, keeping up to 32 of each size.
+     */
+    public BufferPool() {
+        this(DEFAULT_MIN_SIZE, DEFAULT_MAX_SIZE, DEFAULT_BUFFERS_PER_CLASS);
+    }
+
+    /**
+     * @param minSize  The smallest buffer handed out; rounded up to a power of two.
+     * @param maxSize  The largest buffer pooled; rounded up to a power of two.
+     * @param perClass The most buffers of each size kept for reuse.
+     */
+    public BufferPool(int minSize, int maxSize, int perClass) {
+        if (minSize <= 0 || maxSize < minSize || maxSize > 1 << 30 || perClass <= 0) {
+            throw new IllegalArgumentException("Bad pool limits: " + minSize + " to " + maxSize + ", " + perClass + " per class");
+        }
+        this.minShift = shiftFor(minSize);
+        int maxShift = shiftFor(maxSize);
+        this.maxSize = 1 << maxShift;
+        this.perClass = perClass;
+        this.slots = new AtomicReferenceArray<>((maxShift - minShift + 1) * perClass);
+    }
+
+    /**
+     * @param minLength The length needed.
+     * @return a zeroed array at least {@code minLength} long: the smallest class that fits, or exactly
+     *         {@code minLength} if that is larger than any class.
+     */
+    public byte[] acquire(int minLength) {
+        if (minLength > maxSize) {
+            allocations.increment();
+            return new byte[minLength];
+        }
+        int sizeClass = classOf(minLength);
+        int base = sizeClass * perClass;
+        // Threads start probing at different slots, so they rarely contend for the same one.
+        int first = (int) (Thread.currentThread().getId() % perClass);
+        for (int i = 0; i < perClass; i++) {
+            int slot = base + (first + i) % perClass;
+            byte[] buffer = slots.get(slot);
+            if (buffer != null && slots.compareAndSet(slot, buffer, null)) {
+                return buffer;
+            }
+        }
+        allocations.increment();
+        return new byte[1 << (minShift + sizeClass)];
+    }
+
+    /**
+     * Zeroes a buffer and keeps it for reuse, if it is one of the pool's sizes and its class has room.
+     * The caller must not use the buffer afterwards.
+     */
+    public void release(byte[] buffer) {
+        int length = buffer.length;
+        if (length > maxSize || length < 1 << minShift || Integer.bitCount(length) != 1) {
+            return;
+        }
+        Arrays.fill(buffer, (byte) 0);
+        int base = classOf(length) * perClass;
+        int first = (int) (Thread.currentThread().getId() % perClass);
+        for (int i = 0; i < perClass; i++) {
+            int slot = base + (first + i) % perClass;
+            if (slots.get(slot) == null && slots.compareAndSet(slot, null, buffer)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return how many arrays {@link #acquire(int)} has had to allocate rather than reuse.
+     */
+    public long getAllocations() {
+        return allocations.sum();
+    }
+
+    private int classOf(int length) {
+        return Math.max(shiftFor(length) - minShift, 0);
+    }
+
+    private static int shiftFor(int size) {
+        return size <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(size - 1);
+    }
+}
@@ -19,12 +19,24 @@ public class KeGenAES {
      * @return A new SecretKey for AES.
      */
     public static SecretKey generateKey(int keySizeInBits) {
+        return generateKey(keySizeInBits, RandomSource.shared());
+    }
+
+    /**
+     * Generates a new AES secret key from a caller-owned random source, avoiding the cost
+     * of seeding a new SecureRandom for every key.
+     *
+     * @param keySizeInBits The desired key size in bits (e.g., 128, 192, 256).
+     * @param random        The source of the key bytes.
+     * @return A new SecretKey for AES.
+     */
+    public static SecretKey generateKey(int keySizeInBits, SecureRandom random) {
         if (keySizeInBits != 128 && keySizeInBits != 192 && keySizeInBits != 256) {
             throw new IllegalArgumentException("Invalid AES key size: " + keySizeInBits + ". Must be 128, 192, or 256.");
         }
         int keySizeInBytes = keySizeInBits / 8;
         byte[] keyBytes = new byte[keySizeInBytes];
-        new SecureRandom().nextBytes(keyBytes);
+        random.nextBytes(keyBytes);
         return new SecretKeySpec(keyBytes, ALGORITHM);
     }
 }
@@ -7,10 +7,14 @@ import java.security.SecureRandom;
  * @author Tony Kennah
  */
 public class KeGenRSA {
-	
+
+	private static final BigInteger PUBLIC_EXPONENT = new BigInteger("65537"); // e
+
 	private final BigInteger privateKey;
 	private final BigInteger publicKey;
 	private final BigInteger modulus;
+	private final PrivateKeyRSA privateKeyRSA;
+	private final PublicKeyRSA publicKeyRSA;
 
 	/**
 	 * Generates an RSA key pair with the specified bit length.
@@ -28,19 +32,47 @@ public class KeGenRSA {
 			q = generatePrime(bitLength / 2, rand);
 		} while (p.equals(q)); // Ensure p and q are distinct primes.
 
+		this.publicKey = PUBLIC_EXPONENT;
+		this.privateKeyRSA = deriveKey(p, q, publicKey);
+		this.modulus = privateKeyRSA.getModulus();
+		this.privateKey = privateKeyRSA.getPrivateExponent();
+		this.publicKeyRSA = privateKeyRSA.getPublicKeyRSA();
+	}
+
+	/**
+	 * Builds an RSA key pair from two primes found elsewhere, for example by
+	 * searching for p and q on separate threads.
+	 *
+	 * @param p The first prime.
+	 * @param q The second prime, distinct from p.
+	 */
+	public KeGenRSA(BigInteger p, BigInteger q) {
+		if (p.equals(q)) {
+			throw new IllegalArgumentException("p and q must be distinct primes");
+		}
+		this.publicKey = PUBLIC_EXPONENT;
+		this.privateKeyRSA = deriveKey(p, q, publicKey);
+		this.modulus = privateKeyRSA.getModulus();
+		this.privateKey = privateKeyRSA.getPrivateExponent();
+		this.publicKeyRSA = privateKeyRSA.getPublicKeyRSA();
+	}
+
+	private static PrivateKeyRSA deriveKey(BigInteger p, BigInteger q, BigInteger e) {
 		// 2. Compute n = p * q. This is the modulus for both keys.
-		this.modulus = p.multiply(q);
+		BigInteger n = p.multiply(q);
 
 		// 3. Compute Euler's totient function: phi(n) = (p-1) * (q-1).
 		BigInteger phi = p.subtract(BigInteger.ONE).multiply(q.subtract(BigInteger.ONE));
 
-		// 4. Choose the public exponent 'e'. 65537 is a common and secure choice.
-		this.publicKey = new BigInteger("65537"); // e
-
+		// 4. The public exponent 'e' is 65537, a common and secure choice.
 		// 5. Compute the private exponent 'd', the modular multiplicative inverse of e (mod phi).
-		this.privateKey = publicKey.modInverse(phi); // d
+		BigInteger d = e.modInverse(phi);
+
+		// 6. Keep p and q, with the CRT exponents, so decryption can work mod p and mod q,
+		//    and e, so decryption can be blinded.
+		return new PrivateKeyRSA(n, e, d, p, q);
 	}
-	
+
 	/**
 	 * Generates a probable prime number. Extracted for testability so it can be overridden.
 	 * @param bitLength bit length for the prime.
@@ -63,4 +95,18 @@ public class KeGenRSA {
 	public BigInteger getPrivateKey() {
 		return privateKey;
 	}
+
+	/**
+	 * @return the private key with its Chinese Remainder Theorem components (p, q, dP, dQ, qInv).
+	 */
+	public PrivateKeyRSA getPrivateKeyRSA() {
+		return privateKeyRSA;
+	}
+
+	/**
+	 * @return the public key (e, n) with its byte length worked out, ready to reuse for every message.
+	 */
+	public PublicKeyRSA getPublicKeyRSA() {
+		return publicKeyRSA;
+	}
 }	
\ No newline at end of file
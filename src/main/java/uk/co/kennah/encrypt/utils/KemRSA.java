@@ -0,0 +1,83 @@
+package uk.co.kennah.encrypt.utils;
+
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * RSA key encapsulation (RSA-KEM, as in ISO/IEC 18033-2 and RFC 5990).
+ * Rather than padding a separately generated key, the sender picks a random integer r below n,
+ * sends r^e mod n, and both sides derive the symmetric secret from r with a KDF. Every value of r
+ * is a valid message, so there is no padding to build or to scan for on the way back, and the
+ * derived secret is fresh for every message, which is what lets it supply the IV as well.
+ */
+public class KemRSA {
+
+    /** The bytes each encapsulation yields: one SHA-256 output. */
+    public static final int SECRET_SIZE = 32;
+
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 unavailable", ex);
+        }
+    });
+
+    /**
+     * Picks a random r in [2, n), writes r^e mod n as a fixed-length block, and derives the secret from r.
+     * @param key The recipient's public key.
+     * @param random The source of r.
+     * @param out The buffer to write the encapsulation into; it needs room for the key byte length.
+     * @param outOffset Where the encapsulation starts in {@code out}.
+     * @return the {@link #SECRET_SIZE}-byte shared secret.
+     */
+    public static byte[] encapsulate(PublicKeyRSA key, SecureRandom random, byte[] out, int outOffset) {
+        int keyByteLength = key.getByteLength();
+        BigInteger n = key.getModulus();
+        // Draw just enough bits for n and retry the rare values at or above it, so r is uniform below n.
+        int excessBits = keyByteLength * 8 - n.bitLength();
+        byte[] z = new byte[keyByteLength];
+        BigInteger r;
+        do {
+            random.nextBytes(z);
+            z[0] &= (byte) (0xFF >>> excessBits);
+            r = new BigInteger(1, z);
+        } while (r.compareTo(n) >= 0 || r.compareTo(BigInteger.TWO) < 0);
+
+        PaddedRSA.toFixedSize(r.modPow(key.getPublicExponent(), n), out, outOffset, keyByteLength);
+        return kdf(z);
+    }
+
+    /**
+     * Recovers the secret from an encapsulation.
+     * @param encapsulation The buffer holding the encapsulation.
+     * @param offset Where it starts; it is the key byte length long.
+     * @param key The private key with its CRT components.
+     * @return the {@link #SECRET_SIZE}-byte shared secret.
+     * @throws IllegalArgumentException if the encapsulation is not below the modulus.
+     */
+    public static byte[] decapsulate(byte[] encapsulation, int offset, PrivateKeyRSA key) {
+        int keyByteLength = key.getByteLength();
+        BigInteger c = new BigInteger(1, encapsulation, offset, keyByteLength);
+        if (c.compareTo(key.getModulus()) >= 0) {
+            throw new IllegalArgumentException("KEM encapsulation out of range for key of " + (keyByteLength * 8) + " bits");
+        }
+        byte[] z = new byte[keyByteLength];
+        PaddedRSA.toFixedSize(PaddedRSA.crtModPow(c, key), z, 0, keyByteLength);
+        return kdf(z);
+    }
+
+    /**
+     * KDF2 with SHA-256, for one block of output: SHA-256(Z || 00 00 00 01). Clears Z afterwards.
+     */
+    static byte[] kdf(byte[] z) {
+        MessageDigest sha256 = SHA256.get();
+        sha256.update(z);
+        sha256.update(new byte[]{0, 0, 0, 1});
+        Arrays.fill(z, (byte) 0);
+        return sha256.digest();
+    }
+}
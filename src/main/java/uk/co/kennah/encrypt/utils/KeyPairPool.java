@@ -0,0 +1,204 @@
+package uk.co.kennah.encrypt.utils;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of ready-made RSA key pairs that refills itself in the background.
+ * Generating a key pair means finding two large primes, which can take hundreds of milliseconds
+ * with a long tail. The pool keeps a target number of pairs ready for each bit length, searching
+ * for p and q at the same time on its worker threads, so callers can take a pair immediately.
+ * Each bit length reports its depth, refill rate and a histogram of generation times.
+ */
+public class KeyPairPool implements AutoCloseable {
+
+    private static final long CLOSE_CHECK_MILLIS = 100;
+
+    private final ExecutorService workers;
+    private final Map<Integer, Shelf> shelves = new ConcurrentHashMap<>();
+    private final ThreadLocal<SecureRandom> random = ThreadLocal.withInitial(SecureRandom::new);
+    private volatile boolean closed;
+
+    /**
+     * @param threads The number of background threads searching for primes.
+     */
+    public KeyPairPool(int threads) {
+        AtomicInteger count = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "key-pair-pool-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Sets how many pairs of a bit length to keep ready, and starts filling up to it.
+     *
+     * @param bitLength The key size in bits (e.g. 2048).
+     * @param depth     The number of pairs to keep ready.
+     */
+    public void setTargetDepth(int bitLength, int depth) {
+        if (depth < 0) {
+            throw new IllegalArgumentException("depth must not be negative: " + depth);
+        }
+        shelf(bitLength).target = depth;
+        refill(bitLength);
+    }
+
+    /**
+     * Takes a ready key pair, waiting for the background threads if none is ready yet.
+     * Bit lengths with no target depth, or a closed pool, generate on the calling thread; so does a
+     * caller left waiting when the pool is closed.
+     *
+     * @param bitLength The key size in bits.
+     * @return A fresh key pair; no pair is ever handed out twice.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public KeGenRSA take(int bitLength) throws InterruptedException {
+        Shelf shelf = shelf(bitLength);
+        if ((shelf.target == 0 || closed) && shelf.ready.isEmpty()) {
+            return new KeGenRSA(bitLength);
+        }
+        // Wait in short steps, so a pool closed meanwhile (which aborts the refills) stops the wait.
+        KeGenRSA keyPair;
+        while ((keyPair = shelf.ready.poll(CLOSE_CHECK_MILLIS, TimeUnit.MILLISECONDS)) == null) {
+            if (closed) {
+                return new KeGenRSA(bitLength);
+            }
+        }
+        refill(bitLength);
+        return keyPair;
+    }
+
+    /**
+     * Takes a ready key pair without waiting.
+     *
+     * @param bitLength The key size in bits.
+     * @return A fresh key pair, or null if none is ready.
+     */
+    public KeGenRSA poll(int bitLength) {
+        KeGenRSA keyPair = shelf(bitLength).ready.poll();
+        if (keyPair != null) {
+            refill(bitLength);
+        }
+        return keyPair;
+    }
+
+    /**
+     * @return the number of pairs of this bit length ready to take.
+     */
+    public int getDepth(int bitLength) {
+        return shelf(bitLength).ready.size();
+    }
+
+    /**
+     * @return the number of pairs of this bit length generated since the pool was created.
+     */
+    public long getGenerated(int bitLength) {
+        return shelf(bitLength).generated.get();
+    }
+
+    /**
+     * @return the average number of pairs of this bit length generated per second since the pool was created.
+     */
+    public double getRefillRate(int bitLength) {
+        Shelf shelf = shelf(bitLength);
+        double seconds = (System.nanoTime() - shelf.createdNanos) / 1e9;
+        return seconds <= 0 ? 0 : shelf.generated.get() / seconds;
+    }
+
+    /**
+     * @return the histogram of wall-clock nanoseconds taken to generate each pair of this bit length.
+     */
+    public LatencyHistogram getGenerationTimes(int bitLength) {
+        return shelf(bitLength).generationTimes;
+    }
+
+    /**
+     * Stops refilling and shuts the background threads down. Pairs already in the pool can still be taken.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        workers.shutdownNow();
+        try {
+            workers.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Shelf shelf(int bitLength) {
+        if (bitLength < 16 || bitLength % 2 != 0) {
+            throw new IllegalArgumentException("Invalid RSA key size: " + bitLength);
+        }
+        return shelves.computeIfAbsent(bitLength, bits -> new Shelf());
+    }
+
+    /**
+     * Starts as many generations as are needed to bring the shelf up to its target.
+     */
+    private void refill(int bitLength) {
+        Shelf shelf = shelf(bitLength);
+        while (!closed) {
+            int pending = shelf.inFlight.get();
+            if (shelf.ready.size() + pending >= shelf.target) {
+                return;
+            }
+            if (shelf.inFlight.compareAndSet(pending, pending + 1)) {
+                generate(bitLength, shelf);
+            }
+        }
+    }
+
+    /**
+     * Searches for p and q concurrently on the workers and combines them when both are found.
+     */
+    private void generate(int bitLength, Shelf shelf) {
+        long start = System.nanoTime();
+        CompletableFuture<BigInteger> p;
+        CompletableFuture<BigInteger> q;
+        try {
+            p = CompletableFuture.supplyAsync(() -> prime(bitLength / 2), workers);
+            q = CompletableFuture.supplyAsync(() -> prime(bitLength / 2), workers);
+        } catch (RejectedExecutionException ex) {
+            shelf.inFlight.decrementAndGet(); // the pool was closed under us
+            return;
+        }
+        p.thenCombine(q, KeGenRSA::new).whenComplete((keyPair, failure) -> {
+            if (keyPair != null) {
+                shelf.generationTimes.record(System.nanoTime() - start);
+                shelf.generated.incrementAndGet();
+                shelf.ready.add(keyPair);
+            }
+            // Only stop counting it as in flight once it is on the shelf, so refills never overshoot.
+            shelf.inFlight.decrementAndGet();
+            // A failure (equal primes, or e not invertible mod phi) is simply retried by the next refill.
+            refill(bitLength);
+        });
+    }
+
+    private BigInteger prime(int bitLength) {
+        return BigInteger.probablePrime(bitLength, random.get());
+    }
+
+    private static final class Shelf {
+        private final BlockingQueue<KeGenRSA> ready = new LinkedBlockingQueue<>();
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicLong generated = new AtomicLong();
+        private final LatencyHistogram generationTimes = new LatencyHistogram();
+        private final long createdNanos = System.nanoTime();
+        private volatile int target;
+    }
+}
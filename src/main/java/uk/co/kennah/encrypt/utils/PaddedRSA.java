@@ -10,6 +10,8 @@ import java.util.Arrays;
  */
 public class PaddedRSA {
 
+    private static final ThreadLocal<byte[]> RANDOM_SCRATCH = ThreadLocal.withInitial(() -> new byte[0]);
+
     /**
      * Encrypts a message using the public key components.
      * @param message The message to encrypt.
@@ -18,16 +20,48 @@ public class PaddedRSA {
      * @return The encrypted ciphertext as a BigInteger.
      */
     public static BigInteger encrypt(byte[] message, BigInteger e, BigInteger n) {
-        int keyByteLength = (n.bitLength() + 7) / 8;
+        return encrypt(message, e, n, RandomSource.shared());
+    }
+
+    /**
+     * Encrypts a message using the public key components, drawing the padding bytes
+     * from a caller-owned random source instead of seeding a new one.
+     * @param message The message to encrypt.
+     * @param e The public exponent.
+     * @param n The modulus.
+     * @param random The source of the random padding string.
+     * @return The encrypted ciphertext as a BigInteger.
+     */
+    public static BigInteger encrypt(byte[] message, BigInteger e, BigInteger n, SecureRandom random) {
+        return encrypt(message, new PublicKeyRSA(e, n), random);
+    }
+
+    /**
+     * Encrypts a message using a prepared public key.
+     * @param message The message to encrypt.
+     * @param key The public key.
+     * @return The encrypted ciphertext as a BigInteger.
+     */
+    public static BigInteger encrypt(byte[] message, PublicKeyRSA key) {
+        return encrypt(message, key, RandomSource.shared());
+    }
 
+    /**
+     * Encrypts a message using a prepared public key and a caller-owned random source.
+     * @param message The message to encrypt.
+     * @param key The public key.
+     * @param random The source of the random padding string.
+     * @return The encrypted ciphertext as a BigInteger.
+     */
+    public static BigInteger encrypt(byte[] message, PublicKeyRSA key, SecureRandom random) {
         // 1. Pad the message
-        byte[] paddedMessage = pad(message, keyByteLength);
+        byte[] paddedMessage = pad(message, key.getByteLength(), random);
 
         // 2. Convert the padded byte array to a BigInteger
         BigInteger m = new BigInteger(1, paddedMessage);
 
         // 3. Perform the RSA encryption: c = m^e mod n
-        return m.modPow(e, n);
+        return m.modPow(key.getPublicExponent(), key.getModulus());
     }
 
     /**
@@ -41,75 +75,275 @@ public class PaddedRSA {
         // 1. Perform RSA decryption: m = c^d mod n
         BigInteger m = ciphertext.modPow(d, n);
 
+        return toUnpaddedMessage(m, keyByteLength(n));
+    }
+
+    /**
+     * Decrypts a ciphertext using the Chinese Remainder Theorem form of the private key.
+     * Produces the same output as {@link #decrypt(BigInteger, BigInteger, BigInteger)}
+     * but replaces one full-size exponentiation with two half-size ones.
+     * @param ciphertext The ciphertext to decrypt.
+     * @param key The private key with its CRT components.
+     * @return The original message as a byte array.
+     */
+    public static byte[] decrypt(BigInteger ciphertext, PrivateKeyRSA key) {
+        // 1. Perform RSA decryption mod p and mod q, then recombine.
+        BigInteger m = crtModPow(ciphertext, key);
+
+        return toUnpaddedMessage(m, key.getByteLength());
+    }
+
+    /**
+     * Computes c^d mod n using Garner's CRT recombination:
+     * m1 = c^dP mod p, m2 = c^dQ mod q, h = qInv * (m1 - m2) mod p, m = m2 + h * q.
+     * If the key carries blinding state, c is multiplied by r^e first and m by r^-1 after.
+     */
+    static BigInteger crtModPow(BigInteger c, PrivateKeyRSA key) {
+        PrivateKeyRSA.Blinding blinding = key.nextBlinding();
+        if (blinding != null) {
+            c = c.multiply(blinding.factor).mod(key.getModulus());
+        }
+        BigInteger p = key.getP();
+        BigInteger q = key.getQ();
+        BigInteger m1 = c.mod(p).modPow(key.getDP(), p);
+        BigInteger m2 = c.mod(q).modPow(key.getDQ(), q);
+        BigInteger h = key.getQInv().multiply(m1.subtract(m2)).mod(p);
+        BigInteger m = m2.add(h.multiply(q));
+        return blinding == null ? m : m.multiply(blinding.inverse).mod(key.getModulus());
+    }
+
+    /**
+     * Encrypts a message straight into a caller-supplied buffer, with no intermediate arrays.
+     * The message is padded in place in the output, then overwritten by the ciphertext as a
+     * fixed-length big-endian block, so the only allocations left are inside the BigInteger arithmetic.
+     * @param message The buffer holding the message.
+     * @param offset Where the message starts.
+     * @param length The length of the message.
+     * @param e The public exponent.
+     * @param n The modulus.
+     * @param random The source of the random padding string.
+     * @param out The buffer to write the ciphertext into; it needs room for the key byte length.
+     * @param outOffset Where the ciphertext starts in {@code out}.
+     * @return the number of bytes written, always the key byte length.
+     */
+    public static int encrypt(byte[] message, int offset, int length, BigInteger e, BigInteger n, SecureRandom random,
+                              byte[] out, int outOffset) {
+        return encrypt(message, offset, length, new PublicKeyRSA(e, n), random, out, outOffset);
+    }
+
+    /**
+     * As {@link #encrypt(byte[], int, int, BigInteger, BigInteger, SecureRandom, byte[], int)}, with a prepared public key.
+     * @param message The buffer holding the message.
+     * @param offset Where the message starts.
+     * @param length The length of the message.
+     * @param key The public key.
+     * @param random The source of the random padding string.
+     * @param out The buffer to write the ciphertext into; it needs room for the key byte length.
+     * @param outOffset Where the ciphertext starts in {@code out}.
+     * @return the number of bytes written, always the key byte length.
+     */
+    public static int encrypt(byte[] message, int offset, int length, PublicKeyRSA key, SecureRandom random,
+                              byte[] out, int outOffset) {
+        int keyByteLength = key.getByteLength();
+
+        // 1. Pad the message where the ciphertext will go.
+        pad(message, offset, length, out, outOffset, keyByteLength, random);
+
+        // 2. Perform the RSA encryption: c = m^e mod n
+        BigInteger c = new BigInteger(1, out, outOffset, keyByteLength).modPow(key.getPublicExponent(), key.getModulus());
+
+        // 3. Overwrite the padded message with the fixed-length ciphertext.
+        toFixedSize(c, out, outOffset, keyByteLength);
+        return keyByteLength;
+    }
+
+    /**
+     * Decrypts a fixed-length ciphertext straight into a caller-supplied buffer.
+     * @param ciphertext The buffer holding the ciphertext.
+     * @param offset Where the ciphertext starts; it is the key byte length long.
+     * @param key The private key with its CRT components.
+     * @param out The buffer to write the message into.
+     * @param outOffset Where the message starts in {@code out}.
+     * @return the length of the message written.
+     */
+    public static int decrypt(byte[] ciphertext, int offset, PrivateKeyRSA key, byte[] out, int outOffset) {
+        BigInteger c = new BigInteger(1, ciphertext, offset, key.getByteLength());
+        return decrypt(c, key, out, outOffset);
+    }
+
+    /**
+     * Decrypts a ciphertext straight into a caller-supplied buffer.
+     * @param ciphertext The ciphertext to decrypt.
+     * @param key The private key with its CRT components.
+     * @param out The buffer to write the message into.
+     * @param outOffset Where the message starts in {@code out}.
+     * @return the length of the message written.
+     */
+    public static int decrypt(BigInteger ciphertext, PrivateKeyRSA key, byte[] out, int outOffset) {
+        BigInteger m = crtModPow(ciphertext, key);
+        return unpad(m.toByteArray(), key.getByteLength(), out, outOffset);
+    }
+
+    /**
+     * Writes a non-negative value as a fixed-length big-endian block, left-padded with zeros.
+     * @param value The value to write; it must fit in {@code length} bytes.
+     * @param out The buffer to write into.
+     * @param outOffset Where the block starts.
+     * @param length The length of the block.
+     */
+    public static void toFixedSize(BigInteger value, byte[] out, int outOffset, int length) {
+        byte[] bytes = value.toByteArray();
+        if (bytes.length > length) {
+            // toByteArray() added a leading 0x00 for the sign bit, ignore it.
+            System.arraycopy(bytes, bytes.length - length, out, outOffset, length);
+        } else {
+            int zeros = length - bytes.length;
+            Arrays.fill(out, outOffset, outOffset + zeros, (byte) 0);
+            System.arraycopy(bytes, 0, out, outOffset + zeros, bytes.length);
+        }
+    }
+
+    private static byte[] toUnpaddedMessage(BigInteger m, int keyByteLength) {
         // 2. Convert the result to a byte array
         byte[] decryptedBytes = m.toByteArray();
-        
-        // 3. The decrypted byte array must be the same length as the key.
-		//    If it's shorter, it's because leading zeros were truncated.
-		//    If it's longer, it's because toByteArray() added a sign bit.
-		//    We need to restore it to the exact key length before unpadding.
-		int keyByteLength = (n.bitLength() + 7) / 8;
-		byte[] paddedMessage = new byte[keyByteLength];
-
-		if (decryptedBytes.length > keyByteLength) {
-			// toByteArray() added a leading 0x00 for the sign bit, ignore it.
-			System.arraycopy(decryptedBytes, 1, paddedMessage, 0, keyByteLength);
-		} else {
-			// Copy the bytes to the right end of the array, effectively left-padding with zeros.
-			System.arraycopy(decryptedBytes, 0, paddedMessage, keyByteLength - decryptedBytes.length, decryptedBytes.length);
-		}
 
-		// 4. Unpad the message
-		return unpad(paddedMessage);
+        // 3. Unpad the message. The decrypted bytes stand for a block of exactly the key length:
+        //    leading zeros truncated by toByteArray() are treated as present, and a sign byte is skipped.
+        byte[] message = new byte[keyByteLength];
+        int messageLength = unpad(decryptedBytes, keyByteLength, message, 0);
+        return Arrays.copyOf(message, messageLength);
     }
 
     /**
      * Implements PKCS#1 v1.5 padding.
      * Format: 0x00 || 0x02 || PS || 0x00 || M
      */
-    private static byte[] pad(byte[] message, int keyByteLength) {
+    static byte[] pad(byte[] message, int keyByteLength, SecureRandom random) {
+        byte[] padded = new byte[keyByteLength];
+        pad(message, 0, message.length, padded, 0, keyByteLength, random);
+        return padded;
+    }
+
+    /**
+     * Implements PKCS#1 v1.5 padding into a caller-supplied buffer.
+     * The message may already sit in {@code out}, at the end of the block.
+     * @return the number of bytes written, always the key byte length.
+     */
+    static int pad(byte[] message, int offset, int length, byte[] out, int outOffset, int keyByteLength, SecureRandom random) {
         int maxMessageLength = keyByteLength - 11;
-        if (message.length > maxMessageLength) {
+        if (length > maxMessageLength) {
             throw new IllegalArgumentException(
-                "Message too long for RSA padding. Message length: " + message.length +
+                "Message too long for RSA padding. Message length: " + length +
                 ", max length: " + maxMessageLength + " for key of " + (keyByteLength * 8) + " bits.");
         }
-        int psLength = keyByteLength - message.length - 3;
-        byte[] ps = new byte[psLength];
-        SecureRandom random = new SecureRandom();
-        random.nextBytes(ps);
-        // Ensure no zero bytes in the padding string
-        for (int i = 0; i < ps.length; i++) {
-            while (ps[i] == 0) {
-                ps[i] = (byte) random.nextInt();
-            }
+        checkRoom(out, outOffset, keyByteLength);
+        int psLength = keyByteLength - length - 3;
+        // Move the message first, in case it overlaps the padding string.
+        System.arraycopy(message, offset, out, outOffset + 3 + psLength, length);
+        out[outOffset] = 0x00;
+        out[outOffset + 1] = 0x02;
+        fillNonZero(out, outOffset + 2, psLength, random);
+        out[outOffset + 2 + psLength] = 0x00;
+        return keyByteLength;
+    }
+
+    /**
+     * Removes PKCS#1 v1.5 padding.
+     */
+    static byte[] unpad(byte[] padded) {
+        int start = messageStart(padded, 0, padded.length);
+        // The message is everything after the separator
+        return Arrays.copyOfRange(padded, start, padded.length);
+    }
+
+    /**
+     * Removes PKCS#1 v1.5 padding into a caller-supplied buffer, which may be {@code padded} itself.
+     * @return the length of the message written.
+     */
+    static int unpad(byte[] padded, int offset, int length, byte[] out, int outOffset) {
+        return unpad(padded, offset, length, out, outOffset, 2);
+    }
+
+    /**
+     * Removes PKCS#1 v1.5 padding from BigInteger.toByteArray() output without first copying it
+     * into a block of the key length.
+     */
+    private static int unpad(byte[] magnitude, int keyByteLength, byte[] out, int outOffset) {
+        if (magnitude.length > keyByteLength) {
+            // toByteArray() added a leading 0x00 for the sign bit, ignore it.
+            return unpad(magnitude, magnitude.length - keyByteLength, keyByteLength, out, outOffset);
+        }
+        int missing = keyByteLength - magnitude.length; // leading zeros truncated by toByteArray()
+        if (missing <= 2) {
+            // Only the leading 0x00 (and perhaps the block type) is missing, so the separator is in the array.
+            return unpad(magnitude, 0, magnitude.length, out, outOffset, 2 - missing);
         }
+        // The block is too short to hold a padding string: its separator is one of the missing zeros.
+        int messageLength = keyByteLength - 3;
+        checkRoom(out, outOffset, messageLength);
+        Arrays.fill(out, outOffset, outOffset + missing - 3, (byte) 0);
+        System.arraycopy(magnitude, 0, out, outOffset + missing - 3, magnitude.length);
+        return messageLength;
+    }
 
-        byte[] padded = new byte[keyByteLength];
-        padded[0] = 0x00;
-        padded[1] = 0x02;
-        System.arraycopy(ps, 0, padded, 2, ps.length);
-        padded[2 + ps.length] = 0x00;
-        System.arraycopy(message, 0, padded, 3 + ps.length, message.length);
-        return padded;
+    private static int unpad(byte[] padded, int offset, int length, byte[] out, int outOffset, int searchFrom) {
+        int start = messageStart(padded, offset, length, searchFrom);
+        int messageLength = offset + length - start;
+        checkRoom(out, outOffset, messageLength);
+        System.arraycopy(padded, start, out, outOffset, messageLength);
+        return messageLength;
+    }
+
+    private static int messageStart(byte[] padded, int offset, int length) {
+        return messageStart(padded, offset, length, 2);
     }
 
     /**
-     * Removes PKCS#1 v1.5 padding.
+     * @return the index just past the 0x00 separator, searching from {@code searchFrom} bytes into the block.
      */
-    private static byte[] unpad(byte[] padded) {
+    private static int messageStart(byte[] padded, int offset, int length, int searchFrom) {
         // Find the 0x00 separator byte
-        int separatorIndex = -1;
-        for (int i = 2; i < padded.length; i++) {
+        for (int i = offset + searchFrom; i < offset + length; i++) {
             if (padded[i] == 0) {
-                separatorIndex = i;
-                break;
+                return i + 1;
+            }
+        }
+        throw new RuntimeException("Invalid padding: separator not found");
+    }
+
+    /**
+     * Fills a range with random non-zero bytes, drawing from a per-thread scratch buffer so nothing is allocated.
+     */
+    private static void fillNonZero(byte[] out, int offset, int length, SecureRandom random) {
+        if (random instanceof RandomSource) {
+            ((RandomSource) random).nextNonZeroBytes(out, offset, length);
+            return;
+        }
+        byte[] scratch = RANDOM_SCRATCH.get();
+        if (scratch.length < length) {
+            scratch = new byte[length];
+            RANDOM_SCRATCH.set(scratch);
+        }
+        int filled = 0;
+        while (filled < length) {
+            random.nextBytes(scratch);
+            // Ensure no zero bytes in the padding string by skipping them.
+            for (int i = 0; i < scratch.length && filled < length; i++) {
+                if (scratch[i] != 0) {
+                    out[offset + filled++] = scratch[i];
+                }
             }
         }
-        if (separatorIndex == -1) {
-            throw new RuntimeException("Invalid padding: separator not found");
+    }
+
+    private static void checkRoom(byte[] out, int outOffset, int length) {
+        if (outOffset < 0 || out.length - outOffset < length) {
+            throw new IllegalArgumentException(
+                "Output buffer too small: " + length + " bytes needed at offset " + outOffset + " of " + out.length);
         }
-        // The message is everything after the separator
-        return Arrays.copyOfRange(padded, separatorIndex + 1, padded.length);
+    }
+
+    private static int keyByteLength(BigInteger n) {
+        return (n.bitLength() + 7) / 8;
     }
 }
@@ -0,0 +1,172 @@
+package uk.co.kennah.encrypt.utils;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * An RSA private key that keeps the primes p and q alongside d and n.
+ * With these, decryption can be split into two half-size exponentiations
+ * (mod p and mod q) and recombined with the Chinese Remainder Theorem,
+ * which is roughly 3-4 times faster than a single c^d mod n.
+ * <p>
+ * Everything derived from the key (the CRT exponents, q^-1 mod p and the byte length) is worked
+ * out once here, so a long-lived key pays for it once rather than on every message. When the
+ * public exponent is known the key also carries RSA blinding state: each decryption multiplies
+ * the ciphertext by r^e and the result by r^-1, so its timing does not depend on the ciphertext.
+ * The blinding pair is refreshed by squaring after every use, which costs two modular
+ * multiplications instead of a fresh inverse.
+ */
+public class PrivateKeyRSA {
+
+    private final BigInteger modulus;
+    private final BigInteger privateExponent;
+    private final BigInteger p;
+    private final BigInteger q;
+    private final BigInteger dP;
+    private final BigInteger dQ;
+    private final BigInteger qInv;
+    private final BigInteger publicExponent; // null if unknown, in which case there is no blinding
+    private final int byteLength;
+    private volatile long fingerprint; // worked out on first use; 0 until then
+    private final AtomicReference<Blinding> blinding;
+
+    /**
+     * Builds the CRT form of a private key, without blinding.
+     *
+     * @param modulus         The modulus n = p * q.
+     * @param privateExponent The private exponent d.
+     * @param p               The first prime factor of n.
+     * @param q               The second prime factor of n.
+     */
+    public PrivateKeyRSA(BigInteger modulus, BigInteger privateExponent, BigInteger p, BigInteger q) {
+        this(modulus, null, privateExponent, p, q);
+    }
+
+    /**
+     * Builds the CRT form of a private key, with blinding.
+     *
+     * @param modulus         The modulus n = p * q.
+     * @param publicExponent  The public exponent e, or null to decrypt without blinding.
+     * @param privateExponent The private exponent d.
+     * @param p               The first prime factor of n.
+     * @param q               The second prime factor of n.
+     */
+    public PrivateKeyRSA(BigInteger modulus, BigInteger publicExponent, BigInteger privateExponent, BigInteger p, BigInteger q) {
+        if (!p.multiply(q).equals(modulus)) {
+            throw new IllegalArgumentException("p * q does not equal the modulus");
+        }
+        this.modulus = modulus;
+        this.publicExponent = publicExponent;
+        this.byteLength = (modulus.bitLength() + 7) / 8;
+        this.blinding = publicExponent == null ? null : new AtomicReference<>(Blinding.create(publicExponent, modulus));
+        this.privateExponent = privateExponent;
+        this.p = p;
+        this.q = q;
+        this.dP = privateExponent.mod(p.subtract(BigInteger.ONE)); // d mod (p-1)
+        this.dQ = privateExponent.mod(q.subtract(BigInteger.ONE)); // d mod (q-1)
+        this.qInv = q.modInverse(p);                                // q^-1 mod p
+    }
+
+    public BigInteger getModulus() {
+        return modulus;
+    }
+
+    public BigInteger getPrivateExponent() {
+        return privateExponent;
+    }
+
+    public BigInteger getP() {
+        return p;
+    }
+
+    public BigInteger getQ() {
+        return q;
+    }
+
+    public BigInteger getDP() {
+        return dP;
+    }
+
+    public BigInteger getDQ() {
+        return dQ;
+    }
+
+    public BigInteger getQInv() {
+        return qInv;
+    }
+
+    /**
+     * @return the public exponent e, or null if this key was built without it.
+     */
+    public BigInteger getPublicExponent() {
+        return publicExponent;
+    }
+
+    /**
+     * @return the length of the modulus in bytes, which is the length of every ciphertext.
+     */
+    public int getByteLength() {
+        return byteLength;
+    }
+
+    /**
+     * @return the fingerprint of the modulus, the same as the matching public key's.
+     */
+    public long getFingerprint() {
+        long result = fingerprint;
+        if (result == 0) {
+            fingerprint = result = PublicKeyRSA.fingerprint(modulus);
+        }
+        return result;
+    }
+
+    /**
+     * @return the matching public key.
+     * @throws IllegalStateException if this key was built without its public exponent.
+     */
+    public PublicKeyRSA getPublicKeyRSA() {
+        if (publicExponent == null) {
+            throw new IllegalStateException("Public exponent unknown");
+        }
+        return new PublicKeyRSA(publicExponent, modulus);
+    }
+
+    /**
+     * Takes the blinding pair for one decryption and leaves the next one (its square) in its place,
+     * so no two decryptions share a pair even when they run at the same time.
+     *
+     * @return the blinding pair, or null if this key has no blinding.
+     */
+    Blinding nextBlinding() {
+        return blinding == null ? null : blinding.getAndUpdate(current -> current.next(modulus));
+    }
+
+    /**
+     * A random r, kept as r^e mod n (applied to the ciphertext) and r^-1 mod n (applied to the result).
+     */
+    static final class Blinding {
+        final BigInteger factor;
+        final BigInteger inverse;
+
+        private Blinding(BigInteger factor, BigInteger inverse) {
+            this.factor = factor;
+            this.inverse = inverse;
+        }
+
+        static Blinding create(BigInteger e, BigInteger n) {
+            SecureRandom random = RandomSource.shared();
+            while (true) {
+                BigInteger r = new BigInteger(n.bitLength() - 1, random);
+                if (r.compareTo(BigInteger.ONE) > 0 && r.gcd(n).equals(BigInteger.ONE)) {
+                    return new Blinding(r.modPow(e, n), r.modInverse(n));
+                }
+            }
+        }
+
+        Blinding next(BigInteger n) {
+            // (r^2)^e = (r^e)^2 and (r^2)^-1 = (r^-1)^2
+            return new Blinding(factor.multiply(factor).mod(n), inverse.multiply(inverse).mod(n));
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package uk.co.kennah.encrypt.utils;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * An RSA public key (e, n) with the values every operation needs worked out once.
+ * Build one per recipient and reuse it, rather than passing the raw e and n to every call.
+ * Instances are immutable and safe to share between threads.
+ */
+public class PublicKeyRSA {
+
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 unavailable", ex);
+        }
+    });
+
+    private final BigInteger publicExponent;
+    private final BigInteger modulus;
+    private final int byteLength;
+    private volatile long fingerprint; // worked out on first use; 0 until then
+
+    /**
+     * @param publicExponent The public exponent e.
+     * @param modulus        The modulus n.
+     */
+    public PublicKeyRSA(BigInteger publicExponent, BigInteger modulus) {
+        if (publicExponent.signum() <= 0 || modulus.signum() <= 0) {
+            throw new IllegalArgumentException("RSA exponent and modulus must be positive");
+        }
+        this.publicExponent = publicExponent;
+        this.modulus = modulus;
+        this.byteLength = (modulus.bitLength() + 7) / 8;
+    }
+
+    public BigInteger getPublicExponent() {
+        return publicExponent;
+    }
+
+    public BigInteger getModulus() {
+        return modulus;
+    }
+
+    /**
+     * @return the length of the modulus in bytes, which is the length of every ciphertext.
+     */
+    public int getByteLength() {
+        return byteLength;
+    }
+
+    /**
+     * @return the key's fingerprint, see {@link #fingerprint(BigInteger)}. It is hashed on the first call,
+     *         so keys that are never looked up by fingerprint never pay for it.
+     */
+    public long getFingerprint() {
+        // Racy single check: threads that race both compute the same value, and a long that is 0 is just recomputed.
+        long result = fingerprint;
+        if (result == 0) {
+            fingerprint = result = fingerprint(modulus);
+        }
+        return result;
+    }
+
+    /**
+     * A short identifier for a key: the first 8 bytes of the SHA-256 hash of its modulus, big-endian.
+     * It names a key in a payload header without writing out the whole modulus.
+     *
+     * @param modulus The modulus n.
+     * @return the fingerprint.
+     */
+    public static long fingerprint(BigInteger modulus) {
+        byte[] hash = SHA256.get().digest(modulus.toByteArray());
+        return ByteBuffer.wrap(hash).getLong();
+    }
+}
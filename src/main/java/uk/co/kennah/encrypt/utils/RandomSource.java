@@ -0,0 +1,161 @@
+package uk.co.kennah.encrypt.utils;
+
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The shared source of random bytes for AES keys, IVs and RSA padding.
+ * Each thread draws from its own buffer, refilled in bulk from its own DRBG, so small requests
+ * (a 16-byte IV, a handful of padding bytes) cost a copy rather than a call into the generator,
+ * and threads never share a lock. Bytes are zeroed in the buffer as they are handed out, so
+ * nothing already served stays in memory.
+ * <p>
+ * It is a {@link SecureRandom}, so it can be passed to any method that takes one. Unlike a plain
+ * SecureRandom, its {@code nextBytes} is not synchronized. It cannot be serialized: its state is
+ * per-thread and must not be copied, so writing it throws {@link NotSerializableException}.
+ */
+public final class RandomSource extends SecureRandom {
+
+    private static final long serialVersionUID = 1L;
+    private static final int BUFFER_SIZE = 4096;
+    private static final RandomSource SHARED = new RandomSource();
+
+    private final ThreadLocal<Buffer> buffers = ThreadLocal.withInitial(Buffer::new);
+    private final LongAdder refills = new LongAdder();
+    private final LongAdder bytesServed = new LongAdder();
+
+    private RandomSource() {
+    }
+
+    /**
+     * @return the process-wide instance.
+     */
+    public static RandomSource shared() {
+        return SHARED;
+    }
+
+    @Override
+    public void nextBytes(byte[] bytes) {
+        nextBytes(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Fills a range with random bytes.
+     */
+    public void nextBytes(byte[] out, int offset, int length) {
+        Buffer buffer = buffers.get();
+        int filled = 0;
+        while (filled < length) {
+            if (buffer.position == BUFFER_SIZE) {
+                refill(buffer);
+            }
+            int take = Math.min(length - filled, BUFFER_SIZE - buffer.position);
+            System.arraycopy(buffer.bytes, buffer.position, out, offset + filled, take);
+            Arrays.fill(buffer.bytes, buffer.position, buffer.position + take, (byte) 0);
+            buffer.position += take;
+            filled += take;
+        }
+        bytesServed.add(length);
+    }
+
+    /**
+     * Fills a range with random non-zero bytes, as PKCS#1 v1.5 padding needs, by skipping the
+     * zero bytes of the buffer rather than drawing a fresh value for each one.
+     */
+    public void nextNonZeroBytes(byte[] out, int offset, int length) {
+        Buffer buffer = buffers.get();
+        byte[] bytes = buffer.bytes;
+        int filled = 0;
+        while (filled < length) {
+            if (buffer.position == BUFFER_SIZE) {
+                refill(buffer);
+            }
+            int i = buffer.position;
+            while (i < BUFFER_SIZE && filled < length) {
+                byte b = bytes[i];
+                bytes[i++] = 0;
+                if (b != 0) {
+                    out[offset + filled++] = b;
+                }
+            }
+            buffer.position = i;
+        }
+        bytesServed.add(length);
+    }
+
+    /**
+     * @return how many times any thread's buffer has been refilled from its generator.
+     */
+    public long getRefills() {
+        return refills.sum();
+    }
+
+    /**
+     * @return the number of random bytes handed out.
+     */
+    public long getBytesServed() {
+        return bytesServed.sum();
+    }
+
+    @Override
+    public byte[] generateSeed(int numBytes) {
+        return buffers.get().generator.generateSeed(numBytes);
+    }
+
+    @Override
+    public void setSeed(byte[] seed) {
+        // Called by the SecureRandom constructor before the buffers exist; afterwards it adds to this thread's generator.
+        if (buffers != null) {
+            buffers.get().generator.setSeed(seed);
+        }
+    }
+
+    @Override
+    public void setSeed(long seed) {
+        if (buffers != null) {
+            buffers.get().generator.setSeed(seed);
+        }
+    }
+
+    @Override
+    public String getAlgorithm() {
+        return "Buffered" + buffers.get().generator.getAlgorithm();
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        throw new NotSerializableException(RandomSource.class.getName());
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException {
+        throw new NotSerializableException(RandomSource.class.getName());
+    }
+
+    private void refill(Buffer buffer) {
+        buffer.generator.nextBytes(buffer.bytes);
+        buffer.position = 0;
+        refills.increment();
+    }
+
+    /**
+     * One thread's generator and its unserved bytes. Starts empty, so the first use refills it.
+     */
+    private static final class Buffer {
+        final SecureRandom generator = newGenerator();
+        final byte[] bytes = new byte[BUFFER_SIZE];
+        int position = BUFFER_SIZE;
+
+        private static SecureRandom newGenerator() {
+            try {
+                return SecureRandom.getInstance("DRBG");
+            } catch (NoSuchAlgorithmException ex) {
+                return new SecureRandom();
+            }
+        }
+    }
+}
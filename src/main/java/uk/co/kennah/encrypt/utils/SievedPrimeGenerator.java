@@ -0,0 +1,183 @@
+package uk.co.kennah.encrypt.utils;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * A prime generator that sieves before it tests.
+ * Rather than testing one random candidate at a time, it picks a random odd starting point and
+ * crosses out every candidate in a window of odd numbers that is divisible by a small prime.
+ * Only the survivors (roughly one in ten) get the expensive Miller-Rabin test, and the search
+ * steps incrementally through the window, then on to the next one.
+ * Windows can be searched on several threads at once, the first prime found wins.
+ * <p>
+ * It plugs into {@link KeGenRSA} through the overridable {@code generatePrime} hook, see {@link #newKeyPair(int)}.
+ */
+public class SievedPrimeGenerator {
+
+    public static final int DEFAULT_WINDOW_SIZE = 4096; // odd candidates per window
+
+    private static final int SMALL_PRIME_LIMIT = 1 << 15;
+    private static final int[] SMALL_PRIMES = smallOddPrimes(SMALL_PRIME_LIMIT);
+    private static final int CERTAINTY = 100; // the same certainty BigInteger.probablePrime uses
+    private static final int MIN_BIT_LENGTH = 32; // below this, candidates may be small primes themselves
+
+    private final int windowSize;
+    private final ExecutorService executor;
+    private final int parallelism;
+
+    /**
+     * Creates a generator that searches on the calling thread.
+     */
+    public SievedPrimeGenerator() {
+        this(DEFAULT_WINDOW_SIZE, null, 1);
+    }
+
+    /**
+     * @param windowSize  The number of odd candidates sieved at a time.
+     * @param executor    Where windows are searched in parallel, or null to search on the calling thread.
+     * @param parallelism The number of windows searched at once when an executor is given.
+     */
+    public SievedPrimeGenerator(int windowSize, ExecutorService executor, int parallelism) {
+        if (windowSize <= 0) {
+            throw new IllegalArgumentException("windowSize must be positive: " + windowSize);
+        }
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+        }
+        this.windowSize = windowSize;
+        this.executor = executor;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Generates a probable prime with exactly the given bit length and its top two bits set,
+     * so the product of two such primes always has the full key length.
+     *
+     * @param bitLength The bit length of the prime.
+     * @param random    The random number generator.
+     * @return a BigInteger that is probably prime.
+     */
+    public BigInteger generate(int bitLength, SecureRandom random) {
+        if (bitLength < MIN_BIT_LENGTH) {
+            return BigInteger.probablePrime(bitLength, random);
+        }
+        if (executor == null || parallelism == 1) {
+            return search(bitLength, random);
+        }
+        List<Callable<BigInteger>> searches = new ArrayList<>(parallelism);
+        for (int i = 0; i < parallelism; i++) {
+            searches.add(() -> search(bitLength, random));
+        }
+        try {
+            return executor.invokeAny(searches);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while searching for a prime", ex);
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException("Prime search failed", ex.getCause());
+        }
+    }
+
+    /**
+     * Creates an RSA key pair whose primes come from this generator.
+     *
+     * @param bitLength The desired bit length of the key (e.g., 2048).
+     * @return A new key pair.
+     */
+    public KeGenRSA newKeyPair(int bitLength) {
+        return new KeGenRSA(bitLength) {
+            @Override
+            protected BigInteger generatePrime(int primeBitLength, SecureRandom random) {
+                return generate(primeBitLength, random);
+            }
+        };
+    }
+
+    private BigInteger search(int bitLength, SecureRandom random) {
+        BigInteger two = BigInteger.TWO;
+        BigInteger step = BigInteger.valueOf(2L * windowSize);
+        BitSet composite = new BitSet(windowSize);
+        BigInteger base = randomBase(bitLength, random);
+        while (!Thread.currentThread().isInterrupted()) {
+            sieve(base, composite);
+            // Step through the survivors, base + 2j, testing each in turn.
+            for (int j = composite.nextClearBit(0); j < windowSize; j = composite.nextClearBit(j + 1)) {
+                BigInteger candidate = base.add(BigInteger.valueOf(j).multiply(two));
+                if (candidate.bitLength() != bitLength) {
+                    break;
+                }
+                if (candidate.isProbablePrime(CERTAINTY)) {
+                    return candidate;
+                }
+            }
+            base = base.add(step);
+            if (base.bitLength() != bitLength) {
+                base = randomBase(bitLength, random); // ran off the top, start again
+            }
+        }
+        throw new CancellationException("Prime search interrupted");
+    }
+
+    /**
+     * Marks every j in the window where base + 2j is divisible by one of the small primes.
+     */
+    private void sieve(BigInteger base, BitSet composite) {
+        composite.clear();
+        int[] words = toWords(base);
+        for (int p : SMALL_PRIMES) {
+            int r = remainder(words, p);
+            // base + 2j = 0 (mod p)  =>  j = -base * 2^-1 (mod p), and 2^-1 mod p is (p + 1) / 2.
+            int start = (int) ((long) (p - r) % p * ((p + 1) / 2) % p);
+            for (int j = start; j < windowSize; j += p) {
+                composite.set(j);
+            }
+        }
+    }
+
+    private static BigInteger randomBase(int bitLength, SecureRandom random) {
+        return new BigInteger(bitLength, random).setBit(bitLength - 1).setBit(bitLength - 2).setBit(0);
+    }
+
+    /**
+     * Splits a positive BigInteger into big-endian 32-bit words.
+     */
+    private static int[] toWords(BigInteger value) {
+        byte[] bytes = value.toByteArray();
+        int[] words = new int[(bytes.length + 3) / 4];
+        for (int i = 0; i < bytes.length; i++) {
+            int fromEnd = bytes.length - 1 - i;
+            words[words.length - 1 - fromEnd / 4] |= (bytes[i] & 0xFF) << (8 * (fromEnd % 4));
+        }
+        return words;
+    }
+
+    private static int remainder(int[] words, int p) {
+        long r = 0;
+        for (int word : words) {
+            r = ((r << 32) | (word & 0xFFFFFFFFL)) % p; // r < p < 2^15, so this never overflows
+        }
+        return (int) r;
+    }
+
+    private static int[] smallOddPrimes(int limit) {
+        BitSet composite = new BitSet(limit);
+        List<Integer> primes = new ArrayList<>();
+        for (int i = 3; i < limit; i += 2) {
+            if (!composite.get(i)) {
+                primes.add(i);
+                for (long k = (long) i * i; k < limit; k += 2L * i) {
+                    composite.set((int) k);
+                }
+            }
+        }
+        return primes.stream().mapToInt(Integer::intValue).toArray();
+    }
+}
@@ -0,0 +1,71 @@
+package uk.co.kennah.encrypt;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import uk.co.kennah.encrypt.utils.KeGenRSA;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BatchHybridEncryptorTest {
+
+    private static KeGenRSA rsaKeyPair;
+    private static ExecutorService executor;
+    private static BatchHybridEncryptor batch;
+
+    @BeforeAll
+    static void setUp() {
+        rsaKeyPair = new KeGenRSA(2048);
+        executor = Executors.newFixedThreadPool(4);
+        batch = new BatchHybridEncryptor(executor, 4);
+    }
+
+    @AfterAll
+    static void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    @DisplayName("Should encrypt and decrypt a batch in order")
+    void testBatchRoundTrip() throws Exception {
+        // Arrange
+        List<byte[]> messages = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            messages.add(("batch message " + i).getBytes(StandardCharsets.UTF_8));
+        }
+
+        // Act
+        List<byte[]> payloads = batch.encryptAll(messages, rsaKeyPair.getPublicKey(), rsaKeyPair.getModulus());
+        List<byte[]> decrypted = batch.decryptAll(payloads, rsaKeyPair.getPrivateKeyRSA());
+
+        // Assert
+        assertEquals(messages.size(), decrypted.size());
+        for (int i = 0; i < messages.size(); i++) {
+            assertArrayEquals(messages.get(i), decrypted.get(i), "Message " + i + " should round-trip in order");
+        }
+        assertArrayEquals(messages.get(7), HybridEncryptor.decrypt(payloads.get(7), rsaKeyPair.getPrivateKeyRSA()),
+                "Batch output should be the ordinary hybrid format");
+    }
+
+    @Test
+    @DisplayName("Should handle an empty batch")
+    void testEmptyBatch() throws Exception {
+        assertTrue(batch.encryptAll(List.of(), rsaKeyPair.getPublicKey(), rsaKeyPair.getModulus()).isEmpty());
+    }
+
+    @Test
+    @DisplayName("Should surface the failure of any message in the batch")
+    void testBatchFailure() throws Exception {
+        List<byte[]> payloads = batch.encryptAll(List.of(new byte[10], new byte[10]), rsaKeyPair.getPublicKey(), rsaKeyPair.getModulus());
+        KeGenRSA wrongKeyPair = new KeGenRSA(2048);
+
+        assertThrows(Exception.class, () -> batch.decryptAll(payloads, wrongKeyPair.getPrivateKeyRSA()));
+    }
+}
@@ -0,0 +1,119 @@
+package uk.co.kennah.encrypt;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import uk.co.kennah.encrypt.utils.BinaryKeyStore;
+import uk.co.kennah.encrypt.utils.KeGenAES;
+import uk.co.kennah.encrypt.utils.KeGenRSA;
+import uk.co.kennah.encrypt.utils.PrivateKeyRSA;
+import uk.co.kennah.encrypt.utils.PublicKeyRSA;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BinaryKeyStoreTest {
+
+    private static KeGenRSA alice;
+    private static KeGenRSA bob;
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeAll
+    static void setUp() {
+        alice = new KeGenRSA(1024); // Use a smaller key size for faster tests
+        bob = new KeGenRSA(1024);
+    }
+
+    @Test
+    @DisplayName("Should store private and public keys and read them back")
+    void testRoundTrip() throws Exception {
+        // Arrange
+        Path file = tempDir.resolve("keys.tkk");
+        BinaryKeyStore.write(file, List.of(alice.getPrivateKeyRSA()), List.of(bob.getPublicKeyRSA(), alice.getPublicKeyRSA()));
+
+        // Act
+        BinaryKeyStore store = BinaryKeyStore.open(file, 16);
+        PrivateKeyRSA storedAlice = store.getPrivateKey(alice.getPrivateKeyRSA().getFingerprint());
+        PublicKeyRSA storedBob = store.getPublicKey(bob.getPublicKeyRSA().getFingerprint());
+
+        // Assert
+        byte[] message = "kept on disk".getBytes(StandardCharsets.UTF_8);
+        assertAll(
+                () -> assertEquals(2, store.size(), "Alice's public key should not be stored twice"),
+                () -> assertTrue(store.hasPrivateKey(alice.getPrivateKeyRSA().getFingerprint())),
+                () -> assertFalse(store.hasPrivateKey(bob.getPublicKeyRSA().getFingerprint())),
+                () -> assertNull(store.getPrivateKey(bob.getPublicKeyRSA().getFingerprint()), "Only Bob's public key is held"),
+                () -> assertNull(store.getPublicKey(42L), "Unknown fingerprints should not be found"),
+                () -> assertEquals(bob.getPublicKeyRSA().getModulus(), storedBob.getModulus()),
+                () -> assertEquals(alice.getPrivateKeyRSA().getQInv(), storedAlice.getQInv()),
+                () -> assertArrayEquals(message, HybridEncryptor.decrypt(
+                        HybridEncryptor.encrypt(message, KeGenAES.generateKey(128), alice.getPublicKeyRSA()), storedAlice),
+                        "A stored key should decrypt what its original encrypted to")
+        );
+    }
+
+    @Test
+    @DisplayName("Should decode each key once and keep only a bounded number")
+    void testLazyCache() throws Exception {
+        Path file = tempDir.resolve("keys.tkk");
+        BinaryKeyStore.write(file, List.of(), List.of(alice.getPublicKeyRSA(), bob.getPublicKeyRSA()));
+        BinaryKeyStore store = BinaryKeyStore.open(file, 1);
+        long aliceFingerprint = alice.getPublicKeyRSA().getFingerprint();
+
+        PublicKeyRSA first = store.getPublicKey(aliceFingerprint);
+        assertSame(first, store.getPublicKey(aliceFingerprint), "A cached key should be reused");
+
+        store.getPublicKey(bob.getPublicKeyRSA().getFingerprint()); // evicts Alice's
+        PublicKeyRSA again = store.getPublicKey(aliceFingerprint);
+        assertNotSame(first, again, "An evicted key should be decoded again");
+        assertEquals(first.getModulus(), again.getModulus());
+    }
+
+    @Test
+    @DisplayName("Should open a store of 100,000 keys without reading them")
+    void testLargeStore() throws Exception {
+        // Arrange: public keys need not be real to be stored, so random moduli stand in for them.
+        Random random = new Random(7);
+        List<PublicKeyRSA> keys = new ArrayList<>();
+        for (int i = 0; i < 100_000; i++) {
+            keys.add(new PublicKeyRSA(BigInteger.valueOf(65537), new BigInteger(1024, random).setBit(1023)));
+        }
+        Path file = tempDir.resolve("large.tkk");
+        BinaryKeyStore.write(file, List.of(), keys);
+
+        // Act
+        long start = System.nanoTime();
+        BinaryKeyStore store = BinaryKeyStore.open(file, 64);
+        long openMillis = (System.nanoTime() - start) / 1_000_000;
+
+        // Assert
+        PublicKeyRSA last = keys.get(keys.size() - 1);
+        long[] fingerprints = store.fingerprints();
+        assertAll(
+                () -> assertEquals(100_000, store.size()),
+                () -> assertTrue(openMillis < 1000, "Opening took " + openMillis + " ms"),
+                () -> assertEquals(last.getModulus(), store.getPublicKey(last.getFingerprint()).getModulus()),
+                () -> assertTrue(fingerprints[0] < fingerprints[fingerprints.length - 1], "The index should be sorted")
+        );
+    }
+
+    @Test
+    @DisplayName("Should reject a file that is not a key store")
+    void testRejectsGarbage() throws Exception {
+        Path file = tempDir.resolve("garbage.tkk");
+        Files.write(file, new byte[64]);
+
+        assertThrows(IOException.class, () -> BinaryKeyStore.open(file, 16));
+    }
+}
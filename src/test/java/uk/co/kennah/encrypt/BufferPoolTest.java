@@ -0,0 +1,90 @@
+package uk.co.kennah.encrypt;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import uk.co.kennah.encrypt.utils.BufferPool;
+import uk.co.kennah.encrypt.utils.KeGenAES;
+import uk.co.kennah.encrypt.utils.KeGenRSA;
+
+import javax.crypto.SecretKey;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BufferPoolTest {
+
+    @Test
+    @DisplayName("Should hand out power-of-two buffers and reuse released ones")
+    void testSizeClassesAndReuse() {
+        // Arrange
+        BufferPool pool = new BufferPool(512, 4096, 2);
+
+        // Act
+        byte[] small = pool.acquire(1);
+        byte[] middle = pool.acquire(1025);
+        byte[] huge = pool.acquire(5000);
+        pool.release(middle);
+        byte[] again = pool.acquire(2000);
+
+        // Assert
+        assertAll(
+                () -> assertEquals(512, small.length),
+                () -> assertEquals(2048, middle.length),
+                () -> assertEquals(5000, huge.length, "Larger than any class, so exactly the size asked for"),
+                () -> assertSame(middle, again),
+                () -> assertEquals(3, pool.getAllocations())
+        );
+    }
+
+    @Test
+    @DisplayName("Should zero buffers on release and keep no more than its limit")
+    void testReleaseZeroesAndBounds() {
+        // Arrange
+        BufferPool pool = new BufferPool(512, 4096, 2);
+        byte[][] buffers = {pool.acquire(600), pool.acquire(600), pool.acquire(600)};
+        Arrays.fill(buffers[0], (byte) 7);
+
+        // Act
+        for (byte[] buffer : buffers) {
+            pool.release(buffer);
+        }
+        pool.release(new byte[1000]); // not one of the pool's sizes, so ignored
+        long before = pool.getAllocations();
+        byte[] first = pool.acquire(600);
+        byte[] second = pool.acquire(600);
+        byte[] third = pool.acquire(600);
+
+        // Assert
+        assertAll(
+                () -> assertEquals(before + 1, pool.getAllocations(), "Only two of the three were kept"),
+                () -> assertTrue(Arrays.equals(new byte[1024], first) && Arrays.equals(new byte[1024], second)),
+                () -> assertEquals(1024, third.length),
+                () -> assertThrows(IllegalArgumentException.class, () -> new BufferPool(4096, 512, 2))
+        );
+    }
+
+    @Test
+    @DisplayName("Should reach a steady state with no new buffers for a stream of messages")
+    void testSteadyStateWithEncryptInto() throws Exception {
+        // Arrange
+        KeGenRSA keyPair = new KeGenRSA(1024); // Use a smaller key size for faster tests
+        SecretKey aesKey = KeGenAES.generateKey(128);
+        BufferPool pool = new BufferPool();
+
+        // Act
+        for (int i = 0; i < 200; i++) {
+            byte[] message = ("message " + i).repeat(i % 20 + 1).getBytes(StandardCharsets.UTF_8);
+            byte[] payload = pool.acquire(HybridEncryptor.encryptedSize(message.length, keyPair.getPublicKeyRSA()));
+            int length = HybridEncryptor.encryptInto(message, 0, message.length, aesKey, keyPair.getPublicKeyRSA(), payload, 0);
+            byte[] plain = pool.acquire(HybridEncryptor.maxDecryptedSize(length, keyPair.getPrivateKeyRSA()));
+            int plainLength = HybridEncryptor.decryptInto(payload, 0, length, keyPair.getPrivateKeyRSA(), plain, 0);
+            assertArrayEquals(message, Arrays.copyOf(plain, plainLength));
+            pool.release(plain);
+            pool.release(payload);
+        }
+
+        // Assert: one buffer for the payloads and one for the plaintexts, per size class used.
+        assertTrue(pool.getAllocations() <= 4, "Allocated " + pool.getAllocations());
+    }
+}
@@ -0,0 +1,192 @@
+package uk.co.kennah.encrypt;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import uk.co.kennah.encrypt.utils.KeGenAES;
+import uk.co.kennah.encrypt.utils.KeGenRSA;
+
+import javax.crypto.SecretKey;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompressionTest {
+
+    private static KeGenRSA rsaKeyPair;
+    private static SecretKey aesKey;
+    private static byte[] json;
+
+    @BeforeAll
+    static void setUp() {
+        rsaKeyPair = new KeGenRSA(1024); // Use a smaller key size for faster tests
+        aesKey = KeGenAES.generateKey(128);
+        StringBuilder log = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            log.append("{\"seq\":").append(i).append(",\"level\":\"INFO\",\"msg\":\"request served\"}\n");
+        }
+        json = log.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    @DisplayName("Should compress a compressible message and reverse it on decrypt")
+    void testCompressedRoundTrip() throws Exception {
+        // Act
+        byte[] plain = HybridEncryptor.encrypt(json, aesKey, rsaKeyPair.getPublicKeyRSA());
+        byte[] compressed = HybridEncryptor.encrypt(json, aesKey, rsaKeyPair.getPublicKeyRSA(), Compression.deflate(6));
+
+        // Assert
+        assertAll(
+                () -> assertTrue(compressed.length < plain.length / 4,
+                        "Compressed payload " + compressed.length + " should be much smaller than " + plain.length),
+                () -> assertArrayEquals(json, HybridEncryptor.decrypt(compressed, rsaKeyPair.getPrivateKeyRSA())),
+                () -> assertArrayEquals(json, HybridEncryptor.decrypt(compressed, rsaKeyPair.getPrivateKey(), rsaKeyPair.getModulus()))
+        );
+    }
+
+    @Test
+    @DisplayName("Should leave an incompressible message in the ordinary format")
+    void testSkipsIncompressible() throws Exception {
+        // Arrange
+        byte[] random = new byte[200_000];
+        new Random(3).nextBytes(random);
+
+        // Act
+        byte[] payload = HybridEncryptor.encrypt(random, aesKey, rsaKeyPair.getPublicKeyRSA(), Compression.deflate());
+
+        // Assert: the body is exactly the AES of the message, so any legacy reader can decrypt it.
+        int keyByteLength = rsaKeyPair.getPrivateKeyRSA().getByteLength();
+        assertAll(
+                () -> assertEquals(keyByteLength + 16 + (random.length / 16 + 1) * 16, payload.length),
+                () -> assertArrayEquals(random, HybridEncryptor.decrypt(payload, keyByteLength,
+                        HybridEncryptor.unwrapKey(payload, rsaKeyPair.getPrivateKeyRSA())))
+        );
+    }
+
+    @Test
+    @DisplayName("Should compress while streaming, readable by either decrypt")
+    void testStreaming() throws Exception {
+        // Arrange
+        ByteArrayOutputStream ciphertext = new ByteArrayOutputStream();
+
+        // Act
+        HybridEncryptor.encrypt(new ByteArrayInputStream(json), ciphertext, aesKey, rsaKeyPair.getPublicKeyRSA(), Compression.deflate(1));
+        ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+        HybridEncryptor.decrypt(new ByteArrayInputStream(ciphertext.toByteArray()), streamed, rsaKeyPair.getPrivateKeyRSA());
+
+        // Assert
+        assertAll(
+                () -> assertTrue(ciphertext.size() < json.length / 4, "The streamed payload should be compressed"),
+                () -> assertArrayEquals(json, streamed.toByteArray()),
+                () -> assertArrayEquals(json, HybridEncryptor.decrypt(ciphertext.toByteArray(), rsaKeyPair.getPrivateKeyRSA()))
+        );
+    }
+
+    @Test
+    @DisplayName("Should refuse to unwrap a compressed payload's key outside HybridEncryptor")
+    void testFlaggedKeyRejectedElsewhere() throws Exception {
+        byte[] compressed = HybridEncryptor.encrypt(json, aesKey, rsaKeyPair.getPublicKeyRSA(), Compression.deflate());
+
+        assertThrows(IllegalArgumentException.class, () -> HybridEncryptor.unwrapKey(compressed, rsaKeyPair.getPrivateKeyRSA()));
+    }
+
+    @Test
+    @DisplayName("Should stop inflating once a payload passes the caller's limit, on both paths")
+    void testInflatedSizeLimit() throws Exception {
+        // Arrange: 4 MB of zeros deflates to a few kilobytes
+        byte[] zeros = new byte[4 * 1024 * 1024];
+        byte[] bomb = HybridEncryptor.encrypt(zeros, aesKey, rsaKeyPair.getPublicKeyRSA(), Compression.deflate(9));
+        ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+
+        // Act & Assert
+        assertAll(
+                () -> assertTrue(bomb.length < 64 * 1024, "payload should be small"),
+                () -> assertArrayEquals(zeros, HybridEncryptor.decrypt(bomb, rsaKeyPair.getPrivateKeyRSA())),
+                () -> assertArrayEquals(zeros, HybridEncryptor.decrypt(bomb, rsaKeyPair.getPrivateKeyRSA(), zeros.length)),
+                () -> assertThrows(IllegalArgumentException.class,
+                        () -> HybridEncryptor.decrypt(bomb, rsaKeyPair.getPrivateKeyRSA(), zeros.length - 1)),
+                () -> assertThrows(IllegalArgumentException.class,
+                        () -> HybridEncryptor.decrypt(new ByteArrayInputStream(bomb), streamed, rsaKeyPair.getPrivateKeyRSA(), 1024 * 1024)),
+                () -> assertTrue(streamed.size() <= 1024 * 1024, "stream should stop at the limit")
+        );
+    }
+
+    @Test
+    @DisplayName("Should stream more than the byte-array limit of compressible data through encrypt and decrypt")
+    void testStreamUncappedByDefault() throws Exception {
+        // Arrange: 300 MB of repeated log lines, generated and checked on the fly so neither side is held in memory
+        byte[] line = "{\"level\":\"INFO\",\"msg\":\"request served\"}\n".getBytes(StandardCharsets.UTF_8);
+        long size = Compression.DEFAULT_MAX_INFLATED_SIZE + 44L * 1024 * 1024;
+        ByteArrayOutputStream ciphertext = new ByteArrayOutputStream();
+        HybridEncryptor.encrypt(new RepeatingInputStream(line, size), ciphertext, aesKey, rsaKeyPair.getPublicKeyRSA(), Compression.deflate(1));
+        long[] written = new long[1];
+        OutputStream check = new OutputStream() {
+            @Override
+            public void write(int b) {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                for (int i = 0; i < len; i++) {
+                    if (b[off + i] != line[(int) ((written[0] + i) % line.length)]) {
+                        throw new AssertionError("Wrong byte at " + (written[0] + i));
+                    }
+                }
+                written[0] += len;
+            }
+        };
+
+        // Act
+        HybridEncryptor.decrypt(new ByteArrayInputStream(ciphertext.toByteArray()), check, rsaKeyPair.getPrivateKeyRSA());
+
+        // Assert
+        assertAll(
+                () -> assertTrue(ciphertext.size() < size / 10, "The stream should have been compressed"),
+                () -> assertEquals(size, written[0])
+        );
+    }
+
+    /**
+     * A pattern repeated up to a length, served without ever being held whole.
+     */
+    private static final class RepeatingInputStream extends InputStream {
+        private final byte[] pattern;
+        private final long length;
+        private long position;
+
+        RepeatingInputStream(byte[] pattern, long length) {
+            this.pattern = pattern;
+            this.length = length;
+        }
+
+        @Override
+        public int read() {
+            return position < length ? pattern[(int) (position++ % pattern.length)] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (position >= length) {
+                return -1;
+            }
+            int n = (int) Math.min(len, length - position);
+            for (int i = 0; i < n; i++) {
+                b[off + i] = pattern[(int) ((position + i) % pattern.length)];
+            }
+            position += n;
+            return n;
+        }
+    }
+
+    @Test
+    @DisplayName("Should reject a Deflate level outside 1 to 9")
+    void testRejectsBadLevel() {
+        assertThrows(IllegalArgumentException.class, () -> Compression.deflate(10));
+    }
+}
@@ -0,0 +1,158 @@
+package uk.co.kennah.encrypt;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import uk.co.kennah.encrypt.utils.KeGenAES;
+import uk.co.kennah.encrypt.utils.KeGenRSA;
+import uk.co.kennah.encrypt.utils.PublicKeyRSA;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DirectoryBatchTest {
+
+    private static KeGenRSA rsaKeyPair;
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeAll
+    static void setUp() {
+        rsaKeyPair = new KeGenRSA(1024); // Use a smaller key size for faster tests
+    }
+
+    /**
+     * A small tree: text files in nested directories, an empty file, and one file large enough to be streamed.
+     */
+    private Path createTree() throws Exception {
+        Path source = tempDir.resolve("source");
+        Random random = new Random(9);
+        for (int i = 0; i < 30; i++) {
+            Path file = source.resolve("dir" + (i % 3)).resolve("sub" + (i % 2)).resolve("file" + i + ".json");
+            Files.createDirectories(file.getParent());
+            Files.write(file, ("{\"n\":" + i + "}\n").repeat(i * 10).getBytes(StandardCharsets.UTF_8));
+        }
+        byte[] large = new byte[DirectoryBatch.INLINE_LIMIT + 100];
+        random.nextBytes(large);
+        Files.write(source.resolve("large.bin"), large);
+        return source;
+    }
+
+    private static void assertSameTree(Path expected, Path actual) throws Exception {
+        try (var files = Files.walk(expected)) {
+            for (Path file : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+                Path other = actual.resolve(expected.relativize(file));
+                assertArrayEquals(Files.readAllBytes(file), Files.readAllBytes(other), "Contents of " + other);
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Should encrypt and decrypt a whole tree")
+    void testRoundTrip() throws Exception {
+        // Arrange
+        Path source = createTree();
+        Path encrypted = tempDir.resolve("encrypted");
+        Path decrypted = tempDir.resolve("decrypted");
+
+        // Act
+        DirectoryBatch.Summary encrypting = new DirectoryBatch(rsaKeyPair.getPublicKeyRSA(), Compression.NONE, false, 3).run(source, encrypted);
+        DirectoryBatch.Summary decrypting = new DirectoryBatch(rsaKeyPair.getPrivateKeyRSA(), false, 3).run(encrypted, decrypted);
+
+        // Assert
+        assertAll(
+                () -> assertEquals(31, encrypting.getFiles()),
+                () -> assertEquals(31, decrypting.getFiles()),
+                () -> assertTrue(encrypting.getFailures().isEmpty(), encrypting.getFailures().toString()),
+                () -> assertEquals(31, encrypting.getCryptoLatency().getCount()),
+                () -> assertEquals(encrypting.getBytesRead(), decrypting.getBytesWritten()),
+                () -> assertTrue(encrypting.toString().contains("31 files"), encrypting.toString())
+        );
+        assertSameTree(source, decrypted);
+    }
+
+    @Test
+    @DisplayName("Should armour and compress, and read the armour back")
+    void testArmouredAndCompressed() throws Exception {
+        Path source = createTree();
+        Path encrypted = tempDir.resolve("encrypted");
+        Path decrypted = tempDir.resolve("decrypted");
+
+        new DirectoryBatch(rsaKeyPair.getPublicKeyRSA(), Compression.deflate(), true, 2).run(source, encrypted);
+        new DirectoryBatch(rsaKeyPair.getPrivateKeyRSA(), true, 2).run(encrypted, decrypted);
+
+        String armoured = Files.readString(encrypted.resolve("large.bin"), StandardCharsets.US_ASCII);
+        assertTrue(armoured.chars().allMatch(c -> c < 128), "Armoured output should be ASCII");
+        assertSameTree(source, decrypted);
+    }
+
+    @Test
+    @DisplayName("Should report a file that fails and carry on with the rest")
+    void testFailureIsReported() throws Exception {
+        Path source = tempDir.resolve("source");
+        Files.createDirectories(source);
+        Files.write(source.resolve("not-encrypted.txt"), "plain".getBytes(StandardCharsets.UTF_8));
+        Files.write(source.resolve("ok.enc"), HybridEncryptor.encrypt(new byte[10],
+                KeGenAES.generateKey(128), rsaKeyPair.getPublicKeyRSA()));
+
+        DirectoryBatch.Summary summary = new DirectoryBatch(rsaKeyPair.getPrivateKeyRSA(), false, 2).run(source, tempDir.resolve("out"));
+
+        assertEquals(1, summary.getFiles());
+        assertEquals(1, summary.getFailures().size());
+        assertTrue(summary.getFailures().get(0).startsWith("not-encrypted.txt"));
+    }
+
+    @Test
+    @DisplayName("Should leave no partial file behind when a streamed decrypt fails")
+    void testFailedStreamLeavesNothing() throws Exception {
+        // Arrange: encrypt the tree, then cut the end off the large, streamed file
+        Path source = createTree();
+        Path encrypted = tempDir.resolve("encrypted");
+        Path decrypted = tempDir.resolve("decrypted");
+        new DirectoryBatch(rsaKeyPair.getPublicKeyRSA(), Compression.NONE, false, 2).run(source, encrypted);
+        Path large = encrypted.resolve("large.bin");
+        byte[] whole = Files.readAllBytes(large);
+        Files.write(large, Arrays.copyOf(whole, whole.length - 100));
+
+        // Act
+        DirectoryBatch.Summary summary = new DirectoryBatch(rsaKeyPair.getPrivateKeyRSA(), false, 2).run(encrypted, decrypted);
+
+        // Assert
+        assertAll(
+                () -> assertEquals(30, summary.getFiles()),
+                () -> assertEquals(1, summary.getFailures().size()),
+                () -> assertTrue(summary.getFailures().get(0).startsWith("large.bin"), summary.getFailures().toString()),
+                () -> assertFalse(Files.exists(decrypted.resolve("large.bin")), "The partial plaintext should be deleted")
+        );
+    }
+
+    @Test
+    @DisplayName("Should fail the run, not hang, when a worker dies of an Error")
+    void testDeadStageFailsRun() throws Exception {
+        // Arrange: a key whose every use throws an Error, which the per-file handling does not catch
+        Path source = createTree();
+        PublicKeyRSA real = rsaKeyPair.getPublicKeyRSA();
+        PublicKeyRSA dying = new PublicKeyRSA(real.getPublicExponent(), real.getModulus()) {
+            @Override
+            public int getByteLength() {
+                throw new OutOfMemoryError("simulated");
+            }
+        };
+        DirectoryBatch batch = new DirectoryBatch(dying, Compression.NONE, false, 2);
+
+        // Act
+        IllegalStateException failure = assertTimeoutPreemptively(Duration.ofSeconds(60),
+                () -> assertThrows(IllegalStateException.class, () -> batch.run(source, tempDir.resolve("out"))));
+
+        // Assert
+        assertInstanceOf(OutOfMemoryError.class, failure.getCause());
+    }
+}
@@ -0,0 +1,132 @@
+package uk.co.kennah.encrypt;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import uk.co.kennah.encrypt.utils.KeGenRSA;
+
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EncryptedLogTest {
+
+    private static KeGenRSA rsaKeyPair;
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeAll
+    static void setUp() {
+        rsaKeyPair = new KeGenRSA(1024); // Use a smaller key size for faster tests
+    }
+
+    private static byte[] record(long i) {
+        return ("{\"audit\":" + i + ",\"user\":\"u" + (i % 7) + "\"}").getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    @DisplayName("Should read back any record by number across segments")
+    void testAppendAndRead() throws Exception {
+        // Arrange: small segments so the log rolls over several times
+        try (EncryptedLog log = new EncryptedLog(tempDir, rsaKeyPair.getPublicKeyRSA(), 1 << 20, 100)) {
+            for (int i = 0; i < 1000; i++) {
+                assertEquals(i, log.append(record(i)));
+            }
+        }
+
+        // Act & Assert
+        try (EncryptedLogReader reader = new EncryptedLogReader(tempDir, rsaKeyPair.getPrivateKeyRSA())) {
+            assertEquals(1000, reader.size());
+            for (long i : new long[]{0, 1, 15, 16, 17, 99, 100, 101, 555, 999}) {
+                assertArrayEquals(record(i), reader.read(i), "Record " + i);
+            }
+            assertThrows(IndexOutOfBoundsException.class, () -> reader.read(1000));
+        }
+        assertEquals(10, EncryptedLog.segments(tempDir).size(), "Should roll over every 100 records");
+    }
+
+    @Test
+    @DisplayName("Should roll over a segment when it reaches its size limit")
+    void testRollsOverBySize() throws Exception {
+        try (EncryptedLog log = new EncryptedLog(tempDir, rsaKeyPair.getPublicKeyRSA(), 4096, Integer.MAX_VALUE)) {
+            for (int i = 0; i < 200; i++) {
+                log.append(record(i));
+            }
+        }
+
+        List<Path> segments = EncryptedLog.segments(tempDir);
+        for (Path segment : segments) {
+            assertTrue(Files.size(segment) <= 4096, segment + " is " + Files.size(segment) + " bytes");
+        }
+        assertTrue(segments.size() > 1);
+    }
+
+    @Test
+    @DisplayName("Should continue numbering after reopening, and drop a record torn by a crash")
+    void testReopenAfterTornWrite() throws Exception {
+        // Arrange: write 40 records, then cut the last one in half and lose the index
+        try (EncryptedLog log = new EncryptedLog(tempDir, rsaKeyPair.getPublicKeyRSA())) {
+            for (int i = 0; i < 40; i++) {
+                log.append(record(i));
+            }
+        }
+        Path segment = EncryptedLog.segments(tempDir).get(0);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 10);
+        }
+        Files.delete(tempDir.resolve("00000000000000000000.idx"));
+
+        // Act
+        try (EncryptedLog log = new EncryptedLog(tempDir, rsaKeyPair.getPublicKeyRSA())) {
+            assertEquals(39, log.append(record(39)), "The torn record should be written again under its number");
+        }
+
+        // Assert
+        try (EncryptedLogReader reader = new EncryptedLogReader(tempDir, rsaKeyPair.getPrivateKeyRSA())) {
+            assertAll(
+                    () -> assertEquals(40, reader.size()),
+                    () -> assertArrayEquals(record(33), reader.read(33), "The index should be rebuilt"),
+                    () -> assertArrayEquals(record(39), reader.read(39))
+            );
+        }
+    }
+
+    @Test
+    @DisplayName("Should skip, and then reuse, a last segment a crash left without its header")
+    void testZeroLengthLastSegment() throws Exception {
+        // Arrange: 5 records, then an empty segment as if the writer died while starting it
+        try (EncryptedLog log = new EncryptedLog(tempDir, rsaKeyPair.getPublicKeyRSA())) {
+            for (int i = 0; i < 5; i++) {
+                log.append(record(i));
+            }
+        }
+        Path torn = tempDir.resolve(EncryptedLog.segmentName(5) + ".log");
+        Files.write(torn, new byte[0]);
+        Files.write(tempDir.resolve(EncryptedLog.segmentName(5) + ".idx"), new byte[0]);
+
+        // Act & Assert: a reader skips it, and a writer starts again in its place
+        try (EncryptedLogReader reader = new EncryptedLogReader(tempDir, rsaKeyPair.getPrivateKeyRSA())) {
+            assertAll(
+                    () -> assertEquals(5, reader.size()),
+                    () -> assertArrayEquals(record(4), reader.read(4))
+            );
+        }
+        try (EncryptedLog log = new EncryptedLog(tempDir, rsaKeyPair.getPublicKeyRSA())) {
+            assertTrue(Files.size(torn) > EncryptedLog.HEADER_PREFIX, "The header should be on disk before any record");
+            assertEquals(5, log.append(record(5)));
+        }
+        try (EncryptedLogReader reader = new EncryptedLogReader(tempDir, rsaKeyPair.getPrivateKeyRSA())) {
+            assertAll(
+                    () -> assertEquals(6, reader.size()),
+                    () -> assertArrayEquals(record(5), reader.read(5))
+            );
+        }
+    }
+}
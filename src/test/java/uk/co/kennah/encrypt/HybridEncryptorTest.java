@@ -6,9 +6,16 @@ import org.junit.jupiter.api.Test;
 import uk.co.kennah.encrypt.utils.KeGenAES;
 import uk.co.kennah.encrypt.utils.KeGenRSA;
 
+import javax.crypto.BadPaddingException;
 import javax.crypto.SecretKey;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -48,6 +55,60 @@ class HybridEncryptorTest {
         );
     }
 
+    @Test
+    @DisplayName("Should decrypt with the CRT private key")
+    void testDecrypt_WithCrtKey() throws Exception {
+        // Arrange
+        byte[] originalMessageBytes = "Decrypted mod p and mod q".getBytes(StandardCharsets.UTF_8);
+        byte[] ciphertext = HybridEncryptor.encrypt(originalMessageBytes, aesKey, rsaKeyPair.getPublicKey(), rsaKeyPair.getModulus());
+
+        // Act
+        byte[] decryptedBytes = HybridEncryptor.decrypt(ciphertext, rsaKeyPair.getPrivateKeyRSA());
+
+        // Assert
+        assertArrayEquals(originalMessageBytes, decryptedBytes, "CRT decryption should recover the original message");
+    }
+
+    @Test
+    @DisplayName("Streaming encryption should be readable by the byte array decrypt")
+    void testStreamEncrypt_ByteArrayDecrypt() throws Exception {
+        // Arrange: several stream chunks plus a partial block
+        byte[] originalMessageBytes = new byte[3 * 64 * 1024 + 5];
+        new Random(42).nextBytes(originalMessageBytes);
+        ByteArrayOutputStream ciphertext = new ByteArrayOutputStream();
+
+        // Act
+        HybridEncryptor.encrypt(new ByteArrayInputStream(originalMessageBytes), ciphertext, aesKey, rsaKeyPair.getPublicKey(), rsaKeyPair.getModulus());
+        byte[] decryptedBytes = HybridEncryptor.decrypt(ciphertext.toByteArray(), rsaKeyPair.getPrivateKeyRSA());
+
+        // Assert
+        assertArrayEquals(originalMessageBytes, decryptedBytes, "Byte array decrypt should read the streamed format");
+    }
+
+    @Test
+    @DisplayName("Streaming decryption should read the byte array encrypt output")
+    void testByteArrayEncrypt_StreamDecrypt() throws Exception {
+        // Arrange
+        byte[] originalMessageBytes = new byte[100_000];
+        new Random(7).nextBytes(originalMessageBytes);
+        byte[] ciphertext = HybridEncryptor.encrypt(originalMessageBytes, aesKey, rsaKeyPair.getPublicKey(), rsaKeyPair.getModulus());
+        ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+
+        // Act
+        HybridEncryptor.decrypt(new ByteArrayInputStream(ciphertext), decrypted, rsaKeyPair.getPrivateKeyRSA());
+
+        // Assert
+        assertArrayEquals(originalMessageBytes, decrypted.toByteArray(), "Streaming decrypt should read the byte array format");
+    }
+
+    @Test
+    @DisplayName("Streaming decryption should fail on a truncated header")
+    void testStreamDecrypt_TruncatedHeader() {
+        byte[] truncated = new byte[10];
+        assertThrows(EOFException.class,
+                () -> HybridEncryptor.decrypt(new ByteArrayInputStream(truncated), new ByteArrayOutputStream(), rsaKeyPair.getPrivateKeyRSA()));
+    }
+
     @Test
     @DisplayName("Should handle an empty message")
     void testEncryptAndDecrypt_EmptyMessage() throws Exception {
@@ -82,4 +143,159 @@ class HybridEncryptorTest {
         assertThrows(Exception.class, () -> HybridEncryptor.decrypt(ciphertext, wrongKeyPair.getPrivateKey(), wrongKeyPair.getModulus()),
                 "Decryption with the wrong key should throw an exception.");
     }
-}
\ No newline at end of file
+
+    @Test
+    @DisplayName("Should round trip KEM payloads of any size, as byte arrays and streams")
+    void testKemFormat_RoundTrip() throws Exception {
+        Random random = new Random(23);
+        for (int size : new int[]{0, 1, 15, 16, 17, 1000, 200_000}) {
+            // Arrange
+            byte[] message = new byte[size];
+            random.nextBytes(message);
+
+            // Act
+            byte[] payload = HybridEncryptor.encrypt(message, rsaKeyPair.getPublicKeyRSA(), HybridEncryptor.Format.KEM);
+            ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+            HybridEncryptor.encrypt(new ByteArrayInputStream(message), streamed, rsaKeyPair.getPublicKeyRSA(), HybridEncryptor.Format.KEM);
+            ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+            HybridEncryptor.decrypt(new ByteArrayInputStream(payload), decrypted, rsaKeyPair.getPrivateKeyRSA(), HybridEncryptor.Format.KEM);
+
+            // Assert
+            assertAll("Message of " + size + " bytes",
+                    () -> assertEquals(4 + 256 + (size / 16 + 1) * 16, payload.length, "A 4-byte header, no IV field, one block of padding at most"),
+                    () -> assertArrayEquals(new byte[]{'T', 'K', 'E', 1}, Arrays.copyOf(payload, 4)),
+                    () -> assertArrayEquals(message, HybridEncryptor.decrypt(payload, rsaKeyPair.getPrivateKeyRSA(), HybridEncryptor.Format.KEM)),
+                    () -> assertArrayEquals(message, HybridEncryptor.decrypt(payload, rsaKeyPair.getPrivateKeyRSA()), "The header should be recognised"),
+                    () -> assertArrayEquals(message, HybridEncryptor.decrypt(streamed.toByteArray(), rsaKeyPair.getPrivateKeyRSA(), HybridEncryptor.Format.KEM)),
+                    () -> assertArrayEquals(message, decrypted.toByteArray())
+            );
+        }
+    }
+
+    @Test
+    @DisplayName("Should keep the PKCS1 format compatible with the methods that take no format")
+    void testPkcs1Format_MatchesDefault() throws Exception {
+        byte[] message = "Same layout as before".getBytes(StandardCharsets.UTF_8);
+
+        byte[] payload = HybridEncryptor.encrypt(message, rsaKeyPair.getPublicKeyRSA(), HybridEncryptor.Format.PKCS1);
+
+        assertAll(
+                () -> assertEquals(256 + 16 + 32, payload.length),
+                () -> assertArrayEquals(message, HybridEncryptor.decrypt(payload, rsaKeyPair.getPrivateKeyRSA()))
+        );
+    }
+
+    @Test
+    @DisplayName("Should fail to decrypt a KEM payload with the wrong key or an out of range encapsulation")
+    void testKemFormat_Rejects() throws Exception {
+        // Arrange
+        KeGenRSA otherKeyPair = new KeGenRSA(2048);
+        byte[] payload = HybridEncryptor.encrypt(new byte[100], rsaKeyPair.getPublicKeyRSA(), HybridEncryptor.Format.KEM);
+        byte[] outOfRange = payload.clone();
+        Arrays.fill(outOfRange, 4, 4 + 256, (byte) 0xFF);
+        byte[] newerVersion = payload.clone();
+        newerVersion[3] = 2;
+        byte[] pkcs1 = HybridEncryptor.encrypt(new byte[100], KeGenAES.generateKey(128), rsaKeyPair.getPublicKeyRSA());
+
+        // Act & Assert
+        // A wrong key derives a wrong AES key, which usually fails the padding check and otherwise yields garbage.
+        byte[] wrong;
+        try {
+            wrong = HybridEncryptor.decrypt(payload, otherKeyPair.getPrivateKeyRSA(), HybridEncryptor.Format.KEM);
+        } catch (Exception expected) {
+            wrong = null;
+        }
+        assertFalse(Arrays.equals(new byte[100], wrong));
+        IllegalArgumentException error = assertThrows(IllegalArgumentException.class,
+                () -> HybridEncryptor.decrypt(outOfRange, rsaKeyPair.getPrivateKeyRSA(), HybridEncryptor.Format.KEM));
+        assertTrue(error.getMessage().contains("out of range"));
+        assertThrows(IllegalArgumentException.class,
+                () -> HybridEncryptor.decrypt(new byte[100], rsaKeyPair.getPrivateKeyRSA(), HybridEncryptor.Format.KEM));
+        IllegalArgumentException version = assertThrows(IllegalArgumentException.class,
+                () -> HybridEncryptor.decrypt(newerVersion, rsaKeyPair.getPrivateKeyRSA()));
+        assertEquals("Unsupported KEM payload version: 2", version.getMessage());
+        IllegalArgumentException magic = assertThrows(IllegalArgumentException.class,
+                () -> HybridEncryptor.decrypt(pkcs1, rsaKeyPair.getPrivateKeyRSA(), HybridEncryptor.Format.KEM));
+        assertEquals("Not a KEM payload: bad magic", magic.getMessage());
+    }
+
+    @Test
+    @DisplayName("Should encrypt into and decrypt from caller-owned arrays at an offset, at the exact size")
+    void testEncryptIntoAndDecryptInto_Arrays() throws Exception {
+        Random random = new Random(31);
+        for (int size : new int[]{0, 15, 16, 100, 70_000}) {
+            // Arrange
+            byte[] message = new byte[size + 10];
+            random.nextBytes(message);
+            int expectedSize = HybridEncryptor.encryptedSize(size, rsaKeyPair.getPublicKeyRSA());
+            byte[] out = new byte[expectedSize + 7];
+
+            // Act
+            int written = HybridEncryptor.encryptInto(message, 10, size, aesKey, rsaKeyPair.getPublicKeyRSA(), out, 7);
+            byte[] payload = Arrays.copyOfRange(out, 7, 7 + written);
+            byte[] plain = new byte[HybridEncryptor.maxDecryptedSize(written, rsaKeyPair.getPrivateKeyRSA()) + 3];
+            int decrypted = HybridEncryptor.decryptInto(out, 7, written, rsaKeyPair.getPrivateKeyRSA(), plain, 3);
+
+            // Assert
+            assertAll("Message of " + size + " bytes",
+                    () -> assertEquals(expectedSize, written),
+                    () -> assertEquals(HybridEncryptor.encrypt(new byte[size], aesKey, rsaKeyPair.getPublicKeyRSA()).length, written),
+                    () -> assertArrayEquals(Arrays.copyOfRange(message, 10, 10 + size), HybridEncryptor.decrypt(payload, rsaKeyPair.getPrivateKeyRSA())),
+                    () -> assertEquals(size, decrypted),
+                    () -> assertArrayEquals(Arrays.copyOfRange(message, 10, 10 + size), Arrays.copyOfRange(plain, 3, 3 + decrypted))
+            );
+        }
+    }
+
+    @Test
+    @DisplayName("Should encrypt into and decrypt from heap and direct ByteBuffers")
+    void testEncryptIntoAndDecryptInto_ByteBuffers() throws Exception {
+        // Arrange
+        byte[] message = "Straight into the network layer's buffers".getBytes(StandardCharsets.UTF_8);
+        ByteBuffer direct = ByteBuffer.allocateDirect(1024);
+        ByteBuffer plain = ByteBuffer.allocate(1024);
+
+        // Act
+        int written = HybridEncryptor.encryptInto(ByteBuffer.wrap(message), aesKey, rsaKeyPair.getPublicKeyRSA(), direct);
+        direct.flip();
+        byte[] payload = new byte[direct.remaining()];
+        direct.duplicate().get(payload);
+        int decrypted = HybridEncryptor.decryptInto(direct, rsaKeyPair.getPrivateKeyRSA(), plain);
+
+        // Assert
+        assertAll(
+                () -> assertEquals(HybridEncryptor.encryptedSize(message.length, rsaKeyPair.getPublicKeyRSA()), written),
+                () -> assertArrayEquals(message, HybridEncryptor.decrypt(payload, rsaKeyPair.getPrivateKeyRSA())),
+                () -> assertEquals(message.length, decrypted),
+                () -> assertEquals(message.length, plain.position()),
+                () -> assertArrayEquals(message, Arrays.copyOf(plain.array(), decrypted)),
+                () -> assertFalse(direct.hasRemaining())
+        );
+    }
+
+    @Test
+    @DisplayName("Should reject a short output buffer or a compressed payload when decrypting into a buffer")
+    void testEncryptIntoAndDecryptInto_Rejects() throws Exception {
+        // Arrange
+        byte[] message = new byte[100];
+        byte[] payload = HybridEncryptor.encrypt(message, aesKey, rsaKeyPair.getPublicKeyRSA());
+        byte[] compressed = HybridEncryptor.encrypt(new byte[10_000], aesKey, rsaKeyPair.getPublicKeyRSA(), Compression.deflate());
+        // In CBC, flipping a bit of the second-last block flips the same bit of the last plaintext block: here, a padding byte.
+        byte[] tampered = HybridEncryptor.encrypt("secret".getBytes(StandardCharsets.UTF_8), aesKey, rsaKeyPair.getPublicKeyRSA());
+        tampered[tampered.length - 16 - 1] ^= 0x40;
+        byte[] plain = new byte[16];
+
+        // Act & Assert
+        assertAll(
+                () -> assertThrows(IllegalArgumentException.class, () -> HybridEncryptor.encryptInto(message, 0, message.length,
+                        aesKey, rsaKeyPair.getPublicKeyRSA(), new byte[HybridEncryptor.encryptedSize(100, rsaKeyPair.getPublicKeyRSA()) - 1], 0)),
+                () -> assertThrows(IllegalArgumentException.class, () -> HybridEncryptor.decryptInto(payload, 0, payload.length,
+                        rsaKeyPair.getPrivateKeyRSA(), new byte[100], 0), "Room is needed for the padding too"),
+                () -> assertThrows(IllegalArgumentException.class, () -> HybridEncryptor.decryptInto(compressed, 0, compressed.length,
+                        rsaKeyPair.getPrivateKeyRSA(), new byte[compressed.length], 0)),
+                () -> assertThrows(BadPaddingException.class, () -> HybridEncryptor.decryptInto(tampered, 0, tampered.length,
+                        rsaKeyPair.getPrivateKeyRSA(), plain, 0)),
+                () -> assertArrayEquals(new byte[16], plain, "Nothing of a rejected message is left in the buffer")
+        );
+    }
+}
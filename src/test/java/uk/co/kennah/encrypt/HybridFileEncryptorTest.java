@@ -0,0 +1,105 @@
+package uk.co.kennah.encrypt;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import uk.co.kennah.encrypt.utils.KeGenAES;
+import uk.co.kennah.encrypt.utils.KeGenRSA;
+
+import javax.crypto.SecretKey;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HybridFileEncryptorTest {
+
+    private static KeGenRSA rsaKeyPair;
+    private static SecretKey aesKey;
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeAll
+    static void setUp() {
+        rsaKeyPair = new KeGenRSA(2048);
+        aesKey = KeGenAES.generateKey(128);
+    }
+
+    @Test
+    @DisplayName("Should encrypt and decrypt a file through memory-mapped buffers")
+    void testFileRoundTrip() throws Exception {
+        // Arrange
+        byte[] original = new byte[1_000_003];
+        new Random(1).nextBytes(original);
+        Path plain = Files.write(tempDir.resolve("plain.bin"), original);
+        Path encrypted = tempDir.resolve("plain.bin.enc");
+        Path decrypted = tempDir.resolve("plain.bin.dec");
+
+        // Act
+        HybridFileEncryptor.encryptFile(plain, encrypted, aesKey, rsaKeyPair.getPublicKey(), rsaKeyPair.getModulus());
+        HybridFileEncryptor.decryptFile(encrypted, decrypted, rsaKeyPair.getPrivateKeyRSA());
+
+        // Assert
+        assertAll(
+                () -> assertEquals(256 + 16 + 1_000_016, Files.size(encrypted), "Ciphertext should be key + IV + padded body"),
+                () -> assertArrayEquals(original, Files.readAllBytes(decrypted), "Decrypted file should match the original")
+        );
+    }
+
+    @Test
+    @DisplayName("Mapped files should use the same layout as HybridEncryptor")
+    void testFileFormatMatchesByteArrayFormat() throws Exception {
+        // Arrange
+        byte[] original = "Archived by the file API, read by the byte array API".getBytes();
+        Path plain = Files.write(tempDir.resolve("note.txt"), original);
+        Path encrypted = tempDir.resolve("note.txt.enc");
+        Path decrypted = tempDir.resolve("note.txt.dec");
+
+        // Act
+        HybridFileEncryptor.encryptFile(plain, encrypted, aesKey, rsaKeyPair.getPublicKey(), rsaKeyPair.getModulus());
+        byte[] viaByteArray = HybridEncryptor.decrypt(Files.readAllBytes(encrypted), rsaKeyPair.getPrivateKeyRSA());
+        Files.write(encrypted, HybridEncryptor.encrypt(original, aesKey, rsaKeyPair.getPublicKey(), rsaKeyPair.getModulus()));
+        HybridFileEncryptor.decryptFile(encrypted, decrypted, rsaKeyPair.getPrivateKey(), rsaKeyPair.getModulus());
+
+        // Assert
+        assertAll(
+                () -> assertArrayEquals(original, viaByteArray, "Byte array decrypt should read a mapped file"),
+                () -> assertArrayEquals(original, Files.readAllBytes(decrypted), "Mapped decrypt should read a byte array payload")
+        );
+    }
+
+    @Test
+    @DisplayName("Should handle an empty file")
+    void testEmptyFile() throws Exception {
+        Path plain = Files.write(tempDir.resolve("empty"), new byte[0]);
+        Path encrypted = tempDir.resolve("empty.enc");
+        Path decrypted = tempDir.resolve("empty.dec");
+
+        HybridFileEncryptor.encryptFile(plain, encrypted, aesKey, rsaKeyPair.getPublicKey(), rsaKeyPair.getModulus());
+        HybridFileEncryptor.decryptFile(encrypted, decrypted, rsaKeyPair.getPrivateKeyRSA());
+
+        assertEquals(0, Files.size(decrypted), "Decrypting an empty file should give an empty file");
+    }
+
+    @Test
+    @DisplayName("Should reject a compressed payload clearly, without touching the target")
+    void testRejectsCompressedPayload() throws Exception {
+        // Arrange
+        byte[] compressed = HybridEncryptor.encrypt(new byte[10_000], aesKey, rsaKeyPair.getPublicKeyRSA(), Compression.deflate());
+        Path encrypted = Files.write(tempDir.resolve("compressed.enc"), compressed);
+        Path decrypted = tempDir.resolve("compressed.dec");
+
+        // Act
+        IllegalArgumentException error = assertThrows(IllegalArgumentException.class,
+                () -> HybridFileEncryptor.decryptFile(encrypted, decrypted, rsaKeyPair.getPrivateKeyRSA()));
+
+        // Assert
+        assertAll(
+                () -> assertTrue(error.getMessage().startsWith("Compressed payloads"), error.getMessage()),
+                () -> assertFalse(Files.exists(decrypted))
+        );
+    }
+}
@@ -0,0 +1,163 @@
+package uk.co.kennah.encrypt;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import uk.co.kennah.encrypt.utils.KeGenAES;
+import uk.co.kennah.encrypt.utils.KeGenRSA;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HybridMetricsTest {
+
+    private static KeGenRSA rsaKeyPair;
+
+    @BeforeAll
+    static void setUp() {
+        rsaKeyPair = new KeGenRSA(2048);
+    }
+
+    @AfterEach
+    void removeListener() {
+        HybridEncryptor.setListener(null);
+    }
+
+    @Test
+    @DisplayName("Metrics should count every phase of a round trip")
+    void testRoundTripPhases() throws Exception {
+        // Arrange
+        HybridMetrics metrics = new HybridMetrics();
+        HybridEncryptor.setListener(metrics);
+        byte[] message = new byte[1000];
+
+        // Act
+        byte[] payload = HybridEncryptor.encrypt(message, KeGenAES.generateKey(128), rsaKeyPair.getPublicKey(), rsaKeyPair.getModulus());
+        HybridEncryptor.decrypt(payload, rsaKeyPair.getPrivateKeyRSA());
+
+        // Assert
+        assertAll("Phase metrics",
+                () -> assertEquals(1, metrics.getMessagesEncrypted()),
+                () -> assertEquals(1, metrics.getMessagesDecrypted()),
+                () -> assertEquals(1000, metrics.getBytesEncrypted()),
+                () -> assertEquals(1000, metrics.getBytesDecrypted()),
+                () -> {
+                    for (HybridListener.Phase phase : HybridListener.Phase.values()) {
+                        assertEquals(1L, metrics.getPhaseCounts().get(phase.name()), phase + " should be seen once");
+                        assertTrue(metrics.getHistogram(phase).getMax() > 0, phase + " should take some time");
+                    }
+                }
+        );
+    }
+
+    @Test
+    @DisplayName("KEM messages should be counted as encrypted, as arrays and as streams")
+    void testKemCounted() throws Exception {
+        // Arrange
+        HybridMetrics metrics = new HybridMetrics();
+        HybridEncryptor.setListener(metrics);
+        byte[] message = new byte[1000];
+
+        // Act
+        byte[] payload = HybridEncryptor.encrypt(message, rsaKeyPair.getPublicKeyRSA(), HybridEncryptor.Format.KEM);
+        HybridEncryptor.encrypt(new ByteArrayInputStream(message), new ByteArrayOutputStream(), rsaKeyPair.getPublicKeyRSA(),
+                HybridEncryptor.Format.KEM);
+        HybridEncryptor.decrypt(payload, rsaKeyPair.getPrivateKeyRSA());
+
+        // Assert
+        assertAll("KEM metrics",
+                () -> assertEquals(2, metrics.getMessagesEncrypted()),
+                () -> assertEquals(1, metrics.getMessagesDecrypted()),
+                () -> assertEquals(2000, metrics.getBytesEncrypted())
+        );
+    }
+
+    @Test
+    @DisplayName("Messages encrypted into caller buffers should be counted like any other")
+    void testEncryptIntoCounted() throws Exception {
+        // Arrange
+        HybridMetrics metrics = new HybridMetrics();
+        HybridEncryptor.setListener(metrics);
+        byte[] message = new byte[1000];
+        int size = HybridEncryptor.encryptedSize(message.length, rsaKeyPair.getPublicKeyRSA());
+
+        // Act
+        HybridEncryptor.encryptInto(message, 0, message.length, KeGenAES.generateKey(128), rsaKeyPair.getPublicKeyRSA(),
+                new byte[size], 0);
+        HybridEncryptor.encryptInto(ByteBuffer.wrap(message), KeGenAES.generateKey(128), rsaKeyPair.getPublicKeyRSA(),
+                ByteBuffer.allocateDirect(size));
+
+        // Assert
+        assertAll("Into metrics",
+                () -> assertEquals(2, metrics.getMessagesEncrypted()),
+                () -> assertEquals(2000, metrics.getBytesEncrypted()),
+                () -> assertEquals(2, metrics.getHistogram(HybridListener.Phase.PACKAGING).getCount())
+        );
+    }
+
+    @Test
+    @DisplayName("The streaming paths should report plaintext bytes like the array paths")
+    void testStreamingPhases() throws Exception {
+        // Arrange
+        HybridMetrics metrics = new HybridMetrics();
+        HybridEncryptor.setListener(metrics);
+        byte[] message = new byte[200_000];
+
+        // Act
+        ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+        HybridEncryptor.encrypt(new ByteArrayInputStream(message), encrypted, KeGenAES.generateKey(128),
+                rsaKeyPair.getPublicKey(), rsaKeyPair.getModulus());
+        HybridEncryptor.decrypt(new ByteArrayInputStream(encrypted.toByteArray()), new ByteArrayOutputStream(),
+                rsaKeyPair.getPrivateKeyRSA());
+
+        // Assert
+        assertEquals(message.length, metrics.getBytesEncrypted());
+        assertEquals(message.length, metrics.getBytesDecrypted());
+    }
+
+    @Test
+    @DisplayName("Metrics should be readable over JMX")
+    void testJmxRegistration() throws Exception {
+        // Arrange
+        HybridMetrics metrics = new HybridMetrics();
+        metrics.register();
+        try {
+            HybridEncryptor.setListener(metrics);
+            HybridEncryptor.encrypt(new byte[10], KeGenAES.generateKey(128), rsaKeyPair.getPublicKey(), rsaKeyPair.getModulus());
+
+            // Act
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            Object encrypted = server.getAttribute(new ObjectName(HybridMetrics.OBJECT_NAME), "MessagesEncrypted");
+
+            // Assert
+            assertEquals(1L, encrypted);
+        } finally {
+            metrics.unregister();
+        }
+    }
+
+    @Test
+    @DisplayName("No listener should be called once it is removed")
+    void testListenerRemoved() throws Exception {
+        // Arrange
+        List<HybridListener.Phase> seen = new ArrayList<>();
+        HybridEncryptor.setListener((phase, nanos, bytes) -> seen.add(phase));
+        HybridEncryptor.setListener(null);
+
+        // Act
+        byte[] payload = HybridEncryptor.encrypt(new byte[10], KeGenAES.generateKey(128), rsaKeyPair.getPublicKey(), rsaKeyPair.getModulus());
+        HybridEncryptor.decrypt(payload, rsaKeyPair.getPrivateKeyRSA());
+
+        // Assert
+        assertTrue(seen.isEmpty(), "A removed listener should not be called");
+    }
+}
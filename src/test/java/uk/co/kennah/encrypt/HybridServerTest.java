@@ -0,0 +1,200 @@
+package uk.co.kennah.encrypt;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import uk.co.kennah.encrypt.utils.KeGenAES;
+import uk.co.kennah.encrypt.utils.KeGenRSA;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnixDomainSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HybridServerTest {
+
+    private static final InetSocketAddress LOOPBACK = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+
+    private static KeGenRSA rsaKeyPair;
+    private static ExecutorService clients;
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeAll
+    static void setUp() {
+        rsaKeyPair = new KeGenRSA(1024); // Use a smaller key size for faster tests
+        clients = Executors.newFixedThreadPool(32);
+    }
+
+    @AfterAll
+    static void tearDown() {
+        clients.shutdownNow();
+    }
+
+    @Test
+    @DisplayName("Should round-trip through the service over TCP")
+    void testRoundTrip() throws Exception {
+        try (HybridServer server = new HybridServer(rsaKeyPair.getPrivateKeyRSA(), 2, 16)) {
+            SocketAddress address = server.start(LOOPBACK);
+            byte[] message = "over the wire".getBytes(StandardCharsets.UTF_8);
+
+            try (HybridClient client = new HybridClient(address)) {
+                byte[] payload = client.encrypt(message);
+
+                assertAll(
+                        () -> assertArrayEquals(message, client.decrypt(payload), "The service should decrypt its own payload"),
+                        () -> assertArrayEquals(message, HybridEncryptor.decrypt(payload, rsaKeyPair.getPrivateKeyRSA()),
+                                "The service should produce the ordinary hybrid format")
+                );
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Should serve over a Unix-domain socket")
+    void testUnixDomainSocket() throws Exception {
+        try (HybridServer server = new HybridServer(rsaKeyPair.getPrivateKeyRSA(), 1, 4)) {
+            SocketAddress address = server.start(UnixDomainSocketAddress.of(tempDir.resolve("hybrid.sock")));
+            byte[] message = "over a local socket".getBytes(StandardCharsets.UTF_8);
+
+            try (HybridClient client = new HybridClient(address)) {
+                assertArrayEquals(message, client.decrypt(client.encrypt(message)));
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Should report a bad request and keep the connection open")
+    void testErrorKeepsConnection() throws Exception {
+        try (HybridServer server = new HybridServer(rsaKeyPair.getPrivateKeyRSA(), 1, 4)) {
+            SocketAddress address = server.start(LOOPBACK);
+
+            try (HybridClient client = new HybridClient(address)) {
+                IOException error = assertThrows(IOException.class, () -> client.decrypt(new byte[5]));
+                assertTrue(error.getMessage().startsWith("Server error"), "Should carry the server's message");
+                assertArrayEquals(new byte[3], client.decrypt(client.encrypt(new byte[3])), "The connection should still work");
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Should refuse to inflate a compressed payload past its frame size")
+    void testDecompressionCappedByFrameSize() throws Exception {
+        ExecutorService connections = Executors.newCachedThreadPool();
+        try (HybridServer server = new HybridServer(rsaKeyPair.getPrivateKeyRSA(), 1, 4, 64 * 1024, connections)) {
+            SocketAddress address = server.start(LOOPBACK);
+            byte[] bomb = HybridEncryptor.encrypt(new byte[1024 * 1024], KeGenAES.generateKey(128),
+                    rsaKeyPair.getPublicKeyRSA(), Compression.deflate());
+
+            try (HybridClient client = new HybridClient(address)) {
+                IOException error = assertThrows(IOException.class, () -> client.decrypt(bomb));
+                assertTrue(error.getMessage().contains("limit"), "Should say the limit was passed: " + error.getMessage());
+            }
+        } finally {
+            connections.shutdownNow();
+        }
+    }
+
+    @Test
+    @DisplayName("Should serve thousands of concurrent connections without exceeding its in-flight limit")
+    void testThousandsOfConnections() throws Exception {
+        int connections = 2000;
+        int maxInFlight = 8;
+        try (HybridServer server = new HybridServer(rsaKeyPair.getPrivateKeyRSA(), 2, maxInFlight)) {
+            SocketAddress address = server.start(LOOPBACK);
+
+            // Arrange: open every connection before sending anything, so all are live at once.
+            List<HybridClient> open = new ArrayList<>();
+            try {
+                for (int i = 0; i < connections; i++) {
+                    open.add(new HybridClient(address));
+                }
+                waitFor(() -> server.getOpenConnections() == connections);
+
+                // Act
+                List<Future<Boolean>> results = new ArrayList<>();
+                for (int i = 0; i < connections; i++) {
+                    HybridClient client = open.get(i);
+                    byte[] message = ("connection " + i).getBytes(StandardCharsets.UTF_8);
+                    results.add(clients.submit(() -> Arrays.equals(message, client.decrypt(client.encrypt(message)))));
+                }
+
+                // Assert
+                for (Future<Boolean> result : results) {
+                    assertTrue(result.get(60, TimeUnit.SECONDS), "Every connection should round-trip");
+                }
+                assertAll(
+                        () -> assertEquals(connections, server.getAccepted()),
+                        () -> assertEquals(2L * connections, server.getRequests()),
+                        () -> assertTrue(server.getPeakInFlight() <= maxInFlight,
+                                "Peak in flight " + server.getPeakInFlight() + " should not exceed " + maxInFlight)
+                );
+            } finally {
+                for (HybridClient client : open) {
+                    client.close();
+                }
+            }
+            waitFor(() -> server.getOpenConnections() == 0);
+        }
+    }
+
+    @Test
+    @DisplayName("Should hold further clients in the backlog once its connection limit is reached")
+    void testConnectionLimit() throws Exception {
+        ExecutorService connections = Executors.newCachedThreadPool();
+        try (HybridServer server = new HybridServer(rsaKeyPair.getPrivateKeyRSA(), 1, 4, HybridServer.DEFAULT_MAX_FRAME_SIZE, 2, connections)) {
+            SocketAddress address = server.start(LOOPBACK);
+            byte[] message = "queued".getBytes(StandardCharsets.UTF_8);
+
+            HybridClient first = new HybridClient(address);
+            try (HybridClient second = new HybridClient(address);
+                 HybridClient third = new HybridClient(address)) {
+                // Arrange
+                assertArrayEquals(message, first.decrypt(first.encrypt(message)));
+                assertArrayEquals(message, second.decrypt(second.encrypt(message)));
+
+                // Act
+                Future<byte[]> waiting = clients.submit(() -> third.encrypt(message));
+                Thread.sleep(300);
+                boolean servedEarly = waiting.isDone();
+                first.close();
+
+                // Assert
+                byte[] payload = waiting.get(30, TimeUnit.SECONDS);
+                assertAll(
+                        () -> assertFalse(servedEarly, "The third client should wait for a free slot"),
+                        () -> assertArrayEquals(message, HybridEncryptor.decrypt(payload, rsaKeyPair.getPrivateKeyRSA())),
+                        () -> assertTrue(server.getOpenConnections() <= 2)
+                );
+            } finally {
+                first.close();
+            }
+        } finally {
+            connections.shutdownNow();
+        }
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "Timed out waiting for the server");
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package uk.co.kennah.encrypt;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import uk.co.kennah.encrypt.utils.KeGenRSA;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HybridSessionTest {
+
+    private static KeGenRSA rsaKeyPair;
+
+    @BeforeAll
+    static void setUp() {
+        rsaKeyPair = new KeGenRSA(2048);
+    }
+
+    private static byte[] wrappedKey(byte[] payload) {
+        return Arrays.copyOf(payload, 256);
+    }
+
+    private static byte[] iv(byte[] payload) {
+        return Arrays.copyOfRange(payload, 256, 256 + 16);
+    }
+
+    @Test
+    @DisplayName("Session should reuse one wrapped key with a fresh IV per message, then rotate")
+    void testSessionReusesAndRotatesKey() throws Exception {
+        // Arrange
+        HybridSession session = new HybridSession(rsaKeyPair.getPublicKey(), rsaKeyPair.getModulus(), 3, Duration.ofHours(1));
+        byte[] message = "same recipient".getBytes(StandardCharsets.UTF_8);
+
+        // Act
+        byte[] first = session.encrypt(message);
+        byte[] second = session.encrypt(message);
+        byte[] third = session.encrypt(message);
+        byte[] fourth = session.encrypt(message);
+
+        // Assert
+        assertAll(
+                () -> assertArrayEquals(wrappedKey(first), wrappedKey(second), "Wrapped key should be reused"),
+                () -> assertArrayEquals(wrappedKey(first), wrappedKey(third), "Wrapped key should be reused up to the limit"),
+                () -> assertFalse(Arrays.equals(wrappedKey(first), wrappedKey(fourth)), "Key should rotate after the limit"),
+                () -> assertFalse(Arrays.equals(iv(first), iv(second)), "Every message should get a fresh IV"),
+                () -> assertEquals(2, session.getRotations()),
+                () -> assertArrayEquals(message, HybridEncryptor.decrypt(second, rsaKeyPair.getPrivateKeyRSA()),
+                        "Session output should be the ordinary hybrid format")
+        );
+    }
+
+    @Test
+    @DisplayName("Session should rotate the key once it is too old")
+    void testSessionRotatesByAge() throws Exception {
+        HybridSession session = new HybridSession(rsaKeyPair.getPublicKey(), rsaKeyPair.getModulus(), 1000, Duration.ofNanos(1));
+        byte[] first = session.encrypt(new byte[1]);
+        Thread.sleep(1);
+        byte[] second = session.encrypt(new byte[1]);
+
+        assertFalse(Arrays.equals(wrappedKey(first), wrappedKey(second)), "Key should rotate after maxAge");
+    }
+
+    @Test
+    @DisplayName("Receiver should unwrap each session key once and count hits and misses")
+    void testReceiverCachesUnwrappedKeys() throws Exception {
+        // Arrange
+        HybridSession session = new HybridSession(rsaKeyPair.getPublicKey(), rsaKeyPair.getModulus(), 5, Duration.ofHours(1));
+        HybridReceiver receiver = new HybridReceiver(rsaKeyPair.getPrivateKeyRSA(), 16);
+
+        // Act: ten messages under two session keys
+        for (int i = 0; i < 10; i++) {
+            byte[] message = ("message " + i).getBytes(StandardCharsets.UTF_8);
+            assertArrayEquals(message, receiver.decrypt(session.encrypt(message)));
+        }
+
+        // Assert
+        assertAll(
+                () -> assertEquals(2, receiver.getMisses(), "Each session key should be unwrapped once"),
+                () -> assertEquals(8, receiver.getHits(), "The other messages should hit the cache"),
+                () -> assertEquals(2, receiver.getCacheSize())
+        );
+    }
+
+    @Test
+    @DisplayName("Receiver cache should stay within its capacity")
+    void testReceiverEvictsLeastRecentlyUsed() throws Exception {
+        // Arrange: every message has its own key, so each one is a miss
+        HybridReceiver receiver = new HybridReceiver(rsaKeyPair.getPrivateKeyRSA(), 2);
+        HybridSession session = new HybridSession(rsaKeyPair.getPublicKey(), rsaKeyPair.getModulus(), 1, Duration.ofHours(1));
+        byte[] a = session.encrypt(new byte[] {1});
+        byte[] b = session.encrypt(new byte[] {2});
+        byte[] c = session.encrypt(new byte[] {3});
+
+        // Act
+        receiver.decrypt(a);
+        receiver.decrypt(b);
+        receiver.decrypt(c); // evicts a
+        receiver.decrypt(a); // miss again
+
+        // Assert
+        assertAll(
+                () -> assertEquals(4, receiver.getMisses()),
+                () -> assertEquals(2, receiver.getCacheSize())
+        );
+    }
+}
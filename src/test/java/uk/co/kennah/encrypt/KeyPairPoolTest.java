@@ -0,0 +1,127 @@
+package uk.co.kennah.encrypt;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import uk.co.kennah.encrypt.utils.KeGenRSA;
+import uk.co.kennah.encrypt.utils.KeyPairPool;
+import uk.co.kennah.encrypt.utils.LatencyHistogram;
+
+import java.math.BigInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KeyPairPoolTest {
+
+    private static final int BITS = 512; // Use a small key size for faster tests
+
+    private KeyPairPool pool;
+
+    @BeforeEach
+    void setUp() {
+        pool = new KeyPairPool(4);
+    }
+
+    @AfterEach
+    void tearDown() {
+        pool.close();
+    }
+
+    private void awaitDepth(int depth) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 30_000;
+        while (pool.getDepth(BITS) < depth && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    @DisplayName("Pool should fill to its target depth in the background and refill after a take")
+    void testFillsAndRefills() throws Exception {
+        // Arrange
+        pool.setTargetDepth(BITS, 3);
+        awaitDepth(3);
+
+        // Act
+        KeGenRSA keyPair = pool.take(BITS);
+        awaitDepth(3);
+
+        // Assert
+        BigInteger message = BigInteger.valueOf(123456789);
+        BigInteger ciphertext = message.modPow(keyPair.getPublicKey(), keyPair.getModulus());
+        assertAll(
+                () -> assertEquals(3, pool.getDepth(BITS), "Pool should refill to its target"),
+                () -> assertTrue(pool.getGenerated(BITS) >= 4, "Pool should have generated the taken pair and its replacement"),
+                () -> assertTrue(pool.getRefillRate(BITS) > 0),
+                () -> assertEquals(pool.getGenerated(BITS), pool.getGenerationTimes(BITS).getCount()),
+                () -> assertEquals(message, ciphertext.modPow(keyPair.getPrivateKey(), keyPair.getModulus()), "Pooled keys should work")
+        );
+    }
+
+    @Test
+    @DisplayName("Pool should never hand out the same pair twice")
+    void testPairsAreDistinct() throws Exception {
+        pool.setTargetDepth(BITS, 2);
+        KeGenRSA first = pool.take(BITS);
+        KeGenRSA second = pool.take(BITS);
+
+        assertNotEquals(first.getModulus(), second.getModulus());
+    }
+
+    @Test
+    @DisplayName("Closing the pool should release a caller waiting for a pair")
+    void testCloseReleasesWaiter() throws Exception {
+        // Arrange: one thread on a large key size, so the first pair is still being searched for.
+        KeyPairPool slowPool = new KeyPairPool(1);
+        slowPool.setTargetDepth(2048, 1);
+        KeGenRSA[] taken = new KeGenRSA[1];
+        Thread waiter = new Thread(() -> {
+            try {
+                taken[0] = slowPool.take(2048);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        waiter.start();
+        Thread.sleep(50);
+
+        // Act
+        slowPool.close();
+        waiter.join(60_000);
+
+        // Assert
+        assertAll(
+                () -> assertFalse(waiter.isAlive(), "The waiter should not stay blocked after close"),
+                () -> assertNotNull(taken[0])
+        );
+    }
+
+    @Test
+    @DisplayName("Bit lengths without a target should be generated on the calling thread")
+    void testTakeWithoutTarget() throws Exception {
+        KeGenRSA keyPair = pool.take(BITS);
+
+        assertAll(
+                () -> assertNotNull(keyPair),
+                () -> assertNull(pool.poll(BITS), "Nothing should be pooled without a target"),
+                () -> assertEquals(0, pool.getGenerated(BITS))
+        );
+    }
+
+    @Test
+    @DisplayName("Histogram percentiles should be within a few percent of the true values")
+    void testHistogramPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 10_000; i++) {
+            histogram.record(i * 1000L);
+        }
+
+        assertAll(
+                () -> assertEquals(10_000, histogram.getCount()),
+                () -> assertEquals(10_000_000, histogram.getMax()),
+                () -> assertEquals(5_000_000, histogram.getPercentile(50), 5_000_000 * 0.04),
+                () -> assertEquals(9_900_000, histogram.getPercentile(99), 9_900_000 * 0.04),
+                () -> assertEquals(10_000_000, histogram.getPercentile(100))
+        );
+    }
+}
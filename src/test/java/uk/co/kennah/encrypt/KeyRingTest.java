@@ -0,0 +1,100 @@
+package uk.co.kennah.encrypt;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import uk.co.kennah.encrypt.utils.KeGenAES;
+import uk.co.kennah.encrypt.utils.KeGenRSA;
+import uk.co.kennah.encrypt.utils.PrivateKeyRSA;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KeyRingTest {
+
+    private static final List<KeGenRSA> tenants = new ArrayList<>();
+
+    @BeforeAll
+    static void setUp() {
+        for (int i = 0; i < 5; i++) {
+            tenants.add(new KeGenRSA(1024)); // Use a smaller key size for faster tests
+        }
+    }
+
+    private static KeyRing ringOfAll() {
+        KeyRing ring = new KeyRing();
+        for (KeGenRSA tenant : tenants) {
+            ring.add(tenant.getPrivateKeyRSA());
+        }
+        return ring;
+    }
+
+    @Test
+    @DisplayName("Should decrypt each tenant's payload with the key its header names")
+    void testResolvesKey() throws Exception {
+        KeyRing ring = ringOfAll();
+
+        for (int i = 0; i < tenants.size(); i++) {
+            byte[] message = ("tenant " + i).getBytes(StandardCharsets.UTF_8);
+            byte[] payload = KeyRing.encrypt(message, KeGenAES.generateKey(128), tenants.get(i).getPublicKeyRSA());
+
+            assertEquals(tenants.get(i).getPrivateKeyRSA().getFingerprint(), KeyRing.recipient(payload));
+            assertArrayEquals(message, ring.decrypt(payload), "Tenant " + i);
+        }
+    }
+
+    @Test
+    @DisplayName("Should decrypt streams and compressed payloads")
+    void testStreamingAndCompression() throws Exception {
+        KeyRing ring = ringOfAll();
+        byte[] message = "{\"level\":\"INFO\"}\n".repeat(2000).getBytes(StandardCharsets.UTF_8);
+
+        ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+        KeyRing.encrypt(new ByteArrayInputStream(message), streamed, KeGenAES.generateKey(128), tenants.get(2).getPublicKeyRSA());
+        ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+        ring.decrypt(new ByteArrayInputStream(streamed.toByteArray()), decrypted);
+        byte[] compressed = KeyRing.encrypt(message, KeGenAES.generateKey(128), tenants.get(3).getPublicKeyRSA(), Compression.deflate());
+
+        assertAll(
+                () -> assertArrayEquals(message, decrypted.toByteArray()),
+                () -> assertArrayEquals(message, ring.decrypt(streamed.toByteArray()), "Streamed and byte array formats should match"),
+                () -> assertTrue(compressed.length < message.length / 4),
+                () -> assertArrayEquals(message, ring.decrypt(compressed))
+        );
+    }
+
+    @Test
+    @DisplayName("Should stop resolving retired keys and pick up reloaded ones")
+    void testRetireAndReload() throws Exception {
+        KeyRing ring = ringOfAll();
+        byte[] forFirst = KeyRing.encrypt(new byte[5], KeGenAES.generateKey(128), tenants.get(0).getPublicKeyRSA());
+        byte[] forLast = KeyRing.encrypt(new byte[5], KeGenAES.generateKey(128), tenants.get(4).getPublicKeyRSA());
+
+        assertTrue(ring.retire(tenants.get(0).getPrivateKeyRSA().getFingerprint()));
+        IllegalArgumentException error = assertThrows(IllegalArgumentException.class, () -> ring.decrypt(forFirst));
+        assertTrue(error.getMessage().startsWith("No key in the ring"));
+
+        List<PrivateKeyRSA> current = List.of(tenants.get(0).getPrivateKeyRSA(), tenants.get(1).getPrivateKeyRSA());
+        ring.reload(current);
+
+        assertAll(
+                () -> assertEquals(2, ring.size()),
+                () -> assertArrayEquals(new byte[5], ring.decrypt(forFirst)),
+                () -> assertThrows(IllegalArgumentException.class, () -> ring.decrypt(forLast))
+        );
+    }
+
+    @Test
+    @DisplayName("Should reject a payload without the keyed header")
+    void testRejectsUnkeyedPayload() throws Exception {
+        byte[] plain = HybridEncryptor.encrypt(new byte[5], KeGenAES.generateKey(128), tenants.get(0).getPublicKeyRSA());
+
+        IllegalArgumentException error = assertThrows(IllegalArgumentException.class, () -> ringOfAll().decrypt(plain));
+        assertTrue(error.getMessage().startsWith("Not a keyed payload"));
+    }
+}
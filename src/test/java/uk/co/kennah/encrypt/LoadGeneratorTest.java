@@ -0,0 +1,89 @@
+package uk.co.kennah.encrypt;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LoadGeneratorTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    @DisplayName("Should draw payload sizes from fixed, ranged and weighted specifications")
+    void testPayloadSizes() {
+        // Arrange
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        LoadGenerator.PayloadSizes fixed = LoadGenerator.PayloadSizes.parse("4k");
+        LoadGenerator.PayloadSizes range = LoadGenerator.PayloadSizes.parse("256-1k");
+        LoadGenerator.PayloadSizes weighted = LoadGenerator.PayloadSizes.parse("1k:90, 1m:10");
+
+        // Act
+        int large = 0;
+        for (int i = 0; i < 10_000; i++) {
+            int size = range.next(random);
+            assertTrue(size >= 256 && size <= 1024, "Size " + size + " outside the range");
+            if (weighted.next(random) == 1024 * 1024) {
+                large++;
+            }
+        }
+        int largeDrawn = large;
+
+        // Assert
+        assertAll(
+                () -> assertEquals(4096, fixed.next(random)),
+                () -> assertTrue(largeDrawn > 800 && largeDrawn < 1200, "About 10% should be large, got " + largeDrawn),
+                () -> assertThrows(IllegalArgumentException.class, () -> LoadGenerator.PayloadSizes.parse("2k-1k")),
+                () -> assertThrows(IllegalArgumentException.class, () -> LoadGenerator.PayloadSizes.parse("lots"))
+        );
+    }
+
+    @Test
+    @DisplayName("Should measure a closed loop run and append it to a CSV file")
+    void testClosedLoop() throws Exception {
+        // Arrange
+        LoadGenerator generator = new LoadGenerator(LoadGenerator.Operation.DECRYPT, 2, 0,
+                LoadGenerator.PayloadSizes.parse("16-4k"), 1024); // Use a smaller key size for faster tests
+        Path csv = tempDir.resolve("load.csv");
+
+        // Act
+        LoadGenerator.Result result = generator.run(Duration.ofMillis(200), Duration.ofMillis(500));
+        result.appendCsv(csv);
+        result.appendCsv(csv);
+        List<String> lines = Files.readAllLines(csv);
+
+        // Assert
+        assertAll(
+                () -> assertEquals(0, result.getErrors()),
+                () -> assertTrue(result.getLatency().getCount() > 0),
+                () -> assertTrue(result.getLatency().getPercentile(50) <= result.getLatency().getPercentile(99.9)),
+                () -> assertTrue(result.getLatency().getPercentile(99.9) <= result.getLatency().getMax()),
+                () -> assertEquals(3, lines.size(), "One header and a row per run"),
+                () -> assertTrue(lines.get(0).startsWith("started,operation,threads")),
+                () -> assertTrue(lines.get(1).contains(",decrypt,2,0.0,\"16-4k\",1024,"))
+        );
+    }
+
+    @Test
+    @DisplayName("Should hold an open loop run to the target rate")
+    void testTargetRate() throws Exception {
+        // Arrange
+        LoadGenerator generator = new LoadGenerator(LoadGenerator.Operation.ENCRYPT, 2, 200,
+                LoadGenerator.PayloadSizes.fixed(100), 1024);
+
+        // Act
+        LoadGenerator.Result result = generator.run(Duration.ZERO, Duration.ofSeconds(1));
+
+        // Assert
+        assertEquals(200, result.getLatency().getCount(), 10);
+        assertEquals(200, result.getThroughput(), 10);
+    }
+}
@@ -0,0 +1,108 @@
+package uk.co.kennah.encrypt;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import uk.co.kennah.encrypt.utils.KeGenAES;
+import uk.co.kennah.encrypt.utils.KeGenRSA;
+import uk.co.kennah.encrypt.utils.PublicKeyRSA;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MultiRecipientEncryptorTest {
+
+    private static final List<KeGenRSA> keyPairs = new ArrayList<>();
+    private static final List<PublicKeyRSA> publicKeys = new ArrayList<>();
+
+    @BeforeAll
+    static void setUp() {
+        // Mixed key sizes, to show each recipient's slot is sized for their own key.
+        for (int bits : new int[]{1024, 1024, 2048, 1024, 1536}) {
+            KeGenRSA keyPair = new KeGenRSA(bits);
+            keyPairs.add(keyPair);
+            publicKeys.add(keyPair.getPublicKeyRSA());
+        }
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+
+    @Test
+    @DisplayName("Every recipient should decrypt the same payload")
+    void testEveryRecipientDecrypts() throws Exception {
+        // Arrange
+        byte[] original = randomBytes(100_000);
+
+        // Act
+        byte[] payload = MultiRecipientEncryptor.encrypt(original, KeGenAES.generateKey(128), publicKeys);
+
+        // Assert
+        for (KeGenRSA keyPair : keyPairs) {
+            assertArrayEquals(original, MultiRecipientEncryptor.decrypt(payload, keyPair.getPrivateKeyRSA()),
+                    "Recipient " + Long.toHexString(keyPair.getPublicKeyRSA().getFingerprint()) + " should decrypt");
+        }
+        long[] recipients = MultiRecipientEncryptor.recipients(payload);
+        assertEquals(publicKeys.size(), recipients.length);
+        for (int i = 1; i < recipients.length; i++) {
+            assertTrue(recipients[i - 1] < recipients[i], "The index should be sorted by fingerprint");
+        }
+    }
+
+    @Test
+    @DisplayName("The body should be stored once, however many recipients there are")
+    void testBodyStoredOnce() throws Exception {
+        byte[] original = randomBytes(50_000);
+
+        byte[] one = MultiRecipientEncryptor.encrypt(original, KeGenAES.generateKey(128), publicKeys.subList(0, 1));
+        byte[] all = MultiRecipientEncryptor.encrypt(original, KeGenAES.generateKey(128), publicKeys);
+
+        assertTrue(all.length - one.length < 2 * original.length / 10, "Extra recipients should only add header bytes");
+    }
+
+    @Test
+    @DisplayName("Streaming and byte array paths should share the format")
+    void testStreamingInterop() throws Exception {
+        // Arrange
+        byte[] original = randomBytes(300_000);
+        ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+
+        // Act
+        MultiRecipientEncryptor.encrypt(new ByteArrayInputStream(original), encrypted, KeGenAES.generateKey(128), publicKeys);
+        byte[] payload = encrypted.toByteArray();
+        ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+        MultiRecipientEncryptor.decrypt(new ByteArrayInputStream(payload), decrypted, keyPairs.get(2).getPrivateKeyRSA());
+
+        // Assert
+        assertAll(
+                () -> assertArrayEquals(original, decrypted.toByteArray(), "Streamed decryption should match"),
+                () -> assertArrayEquals(original, MultiRecipientEncryptor.decrypt(payload, keyPairs.get(4).getPrivateKeyRSA()),
+                        "Array decryption of a streamed payload should match")
+        );
+    }
+
+    @Test
+    @DisplayName("Should reject a key that is not a recipient, and a recipient given twice")
+    void testRejectsStrangersAndDuplicates() throws Exception {
+        byte[] payload = MultiRecipientEncryptor.encrypt(new byte[10], KeGenAES.generateKey(128), publicKeys.subList(0, 2));
+        KeGenRSA stranger = new KeGenRSA(1024);
+
+        assertAll(
+                () -> assertThrows(IllegalArgumentException.class,
+                        () -> MultiRecipientEncryptor.decrypt(payload, stranger.getPrivateKeyRSA())),
+                () -> assertThrows(IllegalArgumentException.class,
+                        () -> MultiRecipientEncryptor.encrypt(new byte[10], KeGenAES.generateKey(128),
+                                List.of(publicKeys.get(0), publicKeys.get(1), publicKeys.get(0)))),
+                () -> assertThrows(IllegalArgumentException.class,
+                        () -> MultiRecipientEncryptor.encrypt(new byte[10], KeGenAES.generateKey(128), List.of()))
+        );
+    }
+}
@@ -0,0 +1,181 @@
+package uk.co.kennah.encrypt;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.RepeatedTest;
+import org.junit.jupiter.api.Test;
+import uk.co.kennah.encrypt.utils.KeGenRSA;
+import uk.co.kennah.encrypt.utils.PaddedRSA;
+import uk.co.kennah.encrypt.utils.PrivateKeyRSA;
+import uk.co.kennah.encrypt.utils.PublicKeyRSA;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PaddedRSATest {
+
+    private static KeGenRSA keyPair;
+
+    @BeforeAll
+    static void setUp() {
+        keyPair = new KeGenRSA(1024); // Use a smaller key size for faster tests
+    }
+
+    @Test
+    @DisplayName("CRT components should be consistent with p, q and d")
+    void testCrtComponents() {
+        PrivateKeyRSA key = keyPair.getPrivateKeyRSA();
+        BigInteger one = BigInteger.ONE;
+
+        assertAll(
+                () -> assertEquals(keyPair.getModulus(), key.getP().multiply(key.getQ()), "p * q should equal n"),
+                () -> assertEquals(keyPair.getPrivateKey().mod(key.getP().subtract(one)), key.getDP(), "dP should be d mod (p-1)"),
+                () -> assertEquals(keyPair.getPrivateKey().mod(key.getQ().subtract(one)), key.getDQ(), "dQ should be d mod (q-1)"),
+                () -> assertEquals(one, key.getQInv().multiply(key.getQ()).mod(key.getP()), "qInv * q should be 1 mod p")
+        );
+    }
+
+    @RepeatedTest(5)
+    @DisplayName("CRT decryption should produce the same output as the plain modPow path")
+    void testCrtDecryptMatchesPlainDecrypt() {
+        // Arrange
+        byte[] message = "CRT and modPow must agree".getBytes(StandardCharsets.UTF_8);
+        BigInteger ciphertext = PaddedRSA.encrypt(message, keyPair.getPublicKey(), keyPair.getModulus());
+
+        // Act
+        byte[] plain = PaddedRSA.decrypt(ciphertext, keyPair.getPrivateKey(), keyPair.getModulus());
+        byte[] crt = PaddedRSA.decrypt(ciphertext, keyPair.getPrivateKeyRSA());
+
+        // Assert
+        assertAll(
+                () -> assertArrayEquals(message, plain, "Plain decryption should recover the message"),
+                () -> assertArrayEquals(plain, crt, "CRT decryption should match plain decryption")
+        );
+    }
+
+    @Test
+    @DisplayName("Should reject a p and q that do not multiply to the modulus")
+    void testRejectsMismatchedPrimes() {
+        PrivateKeyRSA key = keyPair.getPrivateKeyRSA();
+        assertThrows(IllegalArgumentException.class,
+                () -> new PrivateKeyRSA(key.getModulus().add(BigInteger.TWO), key.getPrivateExponent(), key.getP(), key.getQ()));
+    }
+
+    @RepeatedTest(5)
+    @DisplayName("Buffer encrypt and decrypt should interoperate with the array API at any offset")
+    void testBufferApiMatchesArrayApi() {
+        // Arrange
+        byte[] message = "wrapped in place".getBytes(StandardCharsets.UTF_8);
+        byte[] source = new byte[message.length + 7];
+        System.arraycopy(message, 0, source, 7, message.length);
+        int keyByteLength = (keyPair.getModulus().bitLength() + 7) / 8;
+        byte[] wrapped = new byte[keyByteLength + 5];
+        byte[] unwrapped = new byte[keyByteLength + 3];
+
+        // Act
+        int written = PaddedRSA.encrypt(source, 7, message.length, keyPair.getPublicKey(), keyPair.getModulus(),
+                new SecureRandom(), wrapped, 5);
+        BigInteger ciphertext = new BigInteger(1, wrapped, 5, written);
+        int length = PaddedRSA.decrypt(wrapped, 5, keyPair.getPrivateKeyRSA(), unwrapped, 3);
+
+        // Assert
+        assertAll(
+                () -> assertEquals(keyByteLength, written, "Ciphertext should be the key length"),
+                () -> assertArrayEquals(message, PaddedRSA.decrypt(ciphertext, keyPair.getPrivateKeyRSA()),
+                        "Array decryption should read buffer ciphertext"),
+                () -> assertArrayEquals(message, Arrays.copyOfRange(unwrapped, 3, 3 + length),
+                        "Buffer decryption should recover the message")
+        );
+    }
+
+    @Test
+    @DisplayName("Buffer decrypt should reject an output buffer that is too small")
+    void testBufferDecryptRejectsSmallOutput() {
+        byte[] message = new byte[32];
+        BigInteger ciphertext = PaddedRSA.encrypt(message, keyPair.getPublicKey(), keyPair.getModulus());
+
+        assertThrows(IllegalArgumentException.class,
+                () -> PaddedRSA.decrypt(ciphertext, keyPair.getPrivateKeyRSA(), new byte[31], 0));
+    }
+
+    @Test
+    @DisplayName("toFixedSize should left-pad with zeros and drop the sign byte")
+    void testToFixedSize() {
+        byte[] out = new byte[4];
+
+        PaddedRSA.toFixedSize(BigInteger.valueOf(0x01FF), out, 1, 3);
+        assertArrayEquals(new byte[]{0, 0, 0x01, (byte) 0xFF}, out);
+
+        PaddedRSA.toFixedSize(BigInteger.valueOf(0xFF), out, 0, 1);
+        assertEquals((byte) 0xFF, out[0]);
+    }
+
+    @Test
+    @DisplayName("Key contexts should carry the byte length and the matching public key")
+    void testKeyContexts() {
+        PublicKeyRSA publicKey = keyPair.getPublicKeyRSA();
+        PrivateKeyRSA privateKey = keyPair.getPrivateKeyRSA();
+
+        assertAll(
+                () -> assertEquals(128, publicKey.getByteLength(), "A 1024-bit key should be 128 bytes"),
+                () -> assertEquals(128, privateKey.getByteLength()),
+                () -> assertEquals(keyPair.getPublicKey(), publicKey.getPublicExponent()),
+                () -> assertEquals(keyPair.getModulus(), publicKey.getModulus()),
+                () -> assertEquals(keyPair.getPublicKey(), privateKey.getPublicExponent()),
+                () -> assertEquals(PublicKeyRSA.fingerprint(keyPair.getModulus()), publicKey.getFingerprint()),
+                () -> assertEquals(publicKey.getFingerprint(), publicKey.getFingerprint(), "The cached fingerprint should not change"),
+                () -> assertEquals(publicKey.getFingerprint(), privateKey.getFingerprint())
+        );
+    }
+
+    @Test
+    @DisplayName("Blinded decryption should match unblinded decryption, use after use")
+    void testBlindedDecryptMatchesUnblinded() {
+        // Arrange
+        PrivateKeyRSA blinded = keyPair.getPrivateKeyRSA();
+        PrivateKeyRSA unblinded = new PrivateKeyRSA(blinded.getModulus(), blinded.getPrivateExponent(), blinded.getP(), blinded.getQ());
+        byte[] message = "blinded".getBytes(StandardCharsets.UTF_8);
+
+        for (int i = 0; i < 10; i++) {
+            // Act
+            BigInteger ciphertext = PaddedRSA.encrypt(message, keyPair.getPublicKeyRSA());
+
+            // Assert
+            assertArrayEquals(PaddedRSA.decrypt(ciphertext, unblinded), PaddedRSA.decrypt(ciphertext, blinded),
+                    "Blinding should not change the result of decryption " + i);
+        }
+        assertThrows(IllegalStateException.class, unblinded::getPublicKeyRSA);
+    }
+
+    @Test
+    @DisplayName("One blinded key should decrypt correctly from many threads at once")
+    void testBlindedDecryptConcurrently() throws Exception {
+        // Arrange
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<Boolean>> results = new ArrayList<>();
+        try {
+            // Act
+            for (int i = 0; i < 40; i++) {
+                byte[] message = ("thread message " + i).getBytes(StandardCharsets.UTF_8);
+                BigInteger ciphertext = PaddedRSA.encrypt(message, keyPair.getPublicKeyRSA());
+                results.add(executor.submit(() -> Arrays.equals(message, PaddedRSA.decrypt(ciphertext, keyPair.getPrivateKeyRSA()))));
+            }
+
+            // Assert
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get(), "Every concurrent decryption should recover its message");
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package uk.co.kennah.encrypt;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import uk.co.kennah.encrypt.utils.KeGenAES;
+import uk.co.kennah.encrypt.utils.KeGenRSA;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RandomAccessDecryptorTest {
+
+    private static KeGenRSA rsaKeyPair;
+    private static byte[] message;
+    private static byte[] payload;
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeAll
+    static void setUp() throws Exception {
+        rsaKeyPair = new KeGenRSA(1024); // Use a smaller key size for faster tests
+        message = new byte[3 * 1024 * 1024 + 11]; // several segments plus a partial block
+        new Random(5).nextBytes(message);
+        payload = HybridEncryptor.encrypt(message, KeGenAES.generateKey(128), rsaKeyPair.getPublicKeyRSA());
+    }
+
+    @Test
+    @DisplayName("Should decrypt a whole payload in parallel")
+    void testParallelDecrypt() throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try (RandomAccessDecryptor decryptor = RandomAccessDecryptor.open(payload, rsaKeyPair.getPrivateKeyRSA())) {
+            assertAll(
+                    () -> assertEquals(message.length, decryptor.length()),
+                    () -> assertArrayEquals(message, decryptor.readAll(pool)),
+                    () -> assertArrayEquals(message, RandomAccessDecryptor.decrypt(payload, rsaKeyPair.getPrivateKeyRSA()))
+            );
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    @DisplayName("Should decrypt any range, aligned to blocks or not")
+    void testRanges() throws Exception {
+        long[][] ranges = {{0, 0}, {0, 1}, {5, 21}, {16, 32}, {1000, 1_500_000}, {message.length - 3, message.length},
+                {message.length - 40, message.length}, {0, message.length}};
+        try (RandomAccessDecryptor decryptor = RandomAccessDecryptor.open(payload, rsaKeyPair.getPrivateKeyRSA())) {
+            for (long[] range : ranges) {
+                byte[] expected = Arrays.copyOfRange(message, (int) range[0], (int) range[1]);
+                assertArrayEquals(expected, decryptor.read(range[0], range[1]), "Range " + Arrays.toString(range));
+            }
+            assertThrows(IndexOutOfBoundsException.class, () -> decryptor.read(0, message.length + 1));
+        }
+    }
+
+    @Test
+    @DisplayName("Should read ranges from a file without reading the whole body")
+    void testFileRange() throws Exception {
+        Path file = tempDir.resolve("message.enc");
+        Files.write(file, payload);
+
+        try (RandomAccessDecryptor decryptor = RandomAccessDecryptor.open(file, rsaKeyPair.getPrivateKeyRSA())) {
+            assertAll(
+                    () -> assertArrayEquals(Arrays.copyOfRange(message, 2_000_000, 2_000_100), decryptor.read(2_000_000, 2_000_100)),
+                    () -> assertArrayEquals(message, decryptor.read(0, message.length, ForkJoinPool.commonPool()))
+            );
+        }
+    }
+
+    @Test
+    @DisplayName("Should reject a compressed payload")
+    void testRejectsCompressed() throws Exception {
+        byte[] text = new byte[10_000]; // zeros compress well
+        byte[] compressed = HybridEncryptor.encrypt(text, KeGenAES.generateKey(128), rsaKeyPair.getPublicKeyRSA(), Compression.deflate());
+
+        assertThrows(IllegalArgumentException.class, () -> RandomAccessDecryptor.open(compressed, rsaKeyPair.getPrivateKeyRSA()));
+    }
+}
@@ -0,0 +1,111 @@
+package uk.co.kennah.encrypt;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import uk.co.kennah.encrypt.utils.RandomSource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.NotSerializableException;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RandomSourceTest {
+
+    @Test
+    @DisplayName("Should fill ranges larger and smaller than its buffer")
+    void testNextBytes() {
+        RandomSource random = RandomSource.shared();
+        byte[] large = new byte[10_000];
+        byte[] framed = new byte[40];
+
+        random.nextBytes(large);
+        random.nextBytes(framed, 8, 24);
+
+        assertAll(
+                () -> assertTrue(countZeros(large, 0, large.length) < 200, "Random bytes should rarely be zero"),
+                () -> assertEquals(0, countNonZeros(framed, 0, 8), "Bytes before the range should be untouched"),
+                () -> assertEquals(0, countNonZeros(framed, 32, 40), "Bytes after the range should be untouched")
+        );
+    }
+
+    @Test
+    @DisplayName("Should produce only non-zero bytes for padding")
+    void testNextNonZeroBytes() {
+        byte[] padding = new byte[100_000];
+
+        RandomSource.shared().nextNonZeroBytes(padding, 0, padding.length);
+
+        assertEquals(0, countZeros(padding, 0, padding.length));
+    }
+
+    @Test
+    @DisplayName("Should count bytes served and refills")
+    void testCounters() {
+        RandomSource random = RandomSource.shared();
+        long served = random.getBytesServed();
+        long refills = random.getRefills();
+
+        random.nextBytes(new byte[64 * 1024]);
+
+        assertTrue(random.getBytesServed() - served >= 64 * 1024);
+        assertTrue(random.getRefills() - refills >= 16, "64 KB should take at least 16 refills of a 4 KB buffer");
+    }
+
+    @Test
+    @DisplayName("Should give every thread different bytes")
+    void testThreadsDiffer() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            Set<String> seen = ConcurrentHashMap.newKeySet();
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 1000; i++) {
+                        byte[] iv = new byte[16];
+                        RandomSource.shared().nextBytes(iv);
+                        assertTrue(seen.add(Arrays.toString(iv)), "No IV should repeat");
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            assertEquals(8000, new HashSet<>(seen).size());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    @DisplayName("Should refuse to be serialized")
+    void testNotSerializable() throws Exception {
+        try (ObjectOutputStream out = new ObjectOutputStream(new ByteArrayOutputStream())) {
+            assertThrows(NotSerializableException.class, () -> out.writeObject(RandomSource.shared()));
+        }
+    }
+
+    private static int countZeros(byte[] bytes, int from, int to) {
+        int zeros = 0;
+        for (int i = from; i < to; i++) {
+            if (bytes[i] == 0) {
+                zeros++;
+            }
+        }
+        return zeros;
+    }
+
+    private static int countNonZeros(byte[] bytes, int from, int to) {
+        return (to - from) - countZeros(bytes, from, to);
+    }
+}
@@ -0,0 +1,134 @@
+package uk.co.kennah.encrypt;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import uk.co.kennah.encrypt.utils.KeGenAES;
+import uk.co.kennah.encrypt.utils.KeGenRSA;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.SecretKey;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SegmentedEncryptorTest {
+
+    private static final int SEGMENT_SIZE = 1000;
+
+    private static KeGenRSA rsaKeyPair;
+    private static SecretKey aesKey;
+    private static ForkJoinPool pool;
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeAll
+    static void setUp() {
+        rsaKeyPair = new KeGenRSA(2048);
+        aesKey = KeGenAES.generateKey(128);
+        pool = new ForkJoinPool(4);
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+
+    @Test
+    @DisplayName("Should encrypt and decrypt a multi-segment message in parallel")
+    void testRoundTrip() throws Exception {
+        // Arrange
+        byte[] original = randomBytes(10 * SEGMENT_SIZE + 123);
+
+        // Act
+        byte[] container = SegmentedEncryptor.encrypt(original, aesKey, rsaKeyPair.getPublicKey(), rsaKeyPair.getModulus(), SEGMENT_SIZE, pool);
+        byte[] decrypted = SegmentedEncryptor.decrypt(container, rsaKeyPair.getPrivateKeyRSA(), pool);
+
+        // Assert
+        assertAll(
+                () -> assertEquals(11, SegmentedEncryptor.segmentCount(container), "Should have ten full segments and one partial"),
+                () -> assertArrayEquals(original, decrypted, "Decrypted message should match the original")
+        );
+    }
+
+    @Test
+    @DisplayName("Should handle an empty message")
+    void testEmptyMessage() throws Exception {
+        byte[] container = SegmentedEncryptor.encrypt(new byte[0], aesKey, rsaKeyPair.getPublicKey(), rsaKeyPair.getModulus());
+        assertArrayEquals(new byte[0], SegmentedEncryptor.decrypt(container, rsaKeyPair.getPrivateKeyRSA()));
+    }
+
+    @Test
+    @DisplayName("Should decrypt any single segment on its own")
+    void testRandomAccessSegment() throws Exception {
+        // Arrange
+        byte[] original = randomBytes(5 * SEGMENT_SIZE + 10);
+        byte[] container = SegmentedEncryptor.encrypt(original, aesKey, rsaKeyPair.getPublicKey(), rsaKeyPair.getModulus(), SEGMENT_SIZE, pool);
+        SecretKey key = SegmentedEncryptor.unwrapKey(container, rsaKeyPair.getPrivateKeyRSA());
+
+        // Act
+        byte[] third = SegmentedEncryptor.decryptSegment(container, 3, key);
+        byte[] last = SegmentedEncryptor.decryptSegment(container, 5, key);
+
+        // Assert
+        assertAll(
+                () -> assertArrayEquals(Arrays.copyOfRange(original, 3 * SEGMENT_SIZE, 4 * SEGMENT_SIZE), third),
+                () -> assertArrayEquals(Arrays.copyOfRange(original, 5 * SEGMENT_SIZE, original.length), last),
+                () -> assertThrows(IndexOutOfBoundsException.class, () -> SegmentedEncryptor.decryptSegment(container, 6, key))
+        );
+    }
+
+    @Test
+    @DisplayName("Should reject a tampered segment")
+    void testTamperedSegmentFails() throws Exception {
+        byte[] container = SegmentedEncryptor.encrypt(randomBytes(3 * SEGMENT_SIZE), aesKey, rsaKeyPair.getPublicKey(), rsaKeyPair.getModulus(), SEGMENT_SIZE, pool);
+        container[container.length - SEGMENT_SIZE] ^= 1;
+
+        assertThrows(AEADBadTagException.class, () -> SegmentedEncryptor.decrypt(container, rsaKeyPair.getPrivateKeyRSA(), pool));
+    }
+
+    @Test
+    @DisplayName("Should reject swapped segments")
+    void testSwappedSegmentsFail() throws Exception {
+        // Arrange: swap the first two (full-size) segments
+        byte[] container = SegmentedEncryptor.encrypt(randomBytes(3 * SEGMENT_SIZE), aesKey, rsaKeyPair.getPublicKey(), rsaKeyPair.getModulus(), SEGMENT_SIZE, pool);
+        int stride = SEGMENT_SIZE + 16;
+        int first = container.length - 3 * stride;
+        byte[] segment0 = Arrays.copyOfRange(container, first, first + stride);
+        System.arraycopy(container, first + stride, container, first, stride);
+        System.arraycopy(segment0, 0, container, first + stride, stride);
+
+        // Act & Assert
+        assertThrows(AEADBadTagException.class, () -> SegmentedEncryptor.decrypt(container, rsaKeyPair.getPrivateKeyRSA(), pool));
+    }
+
+    @Test
+    @DisplayName("File and byte array containers should be interchangeable")
+    void testFileRoundTrip() throws Exception {
+        // Arrange
+        byte[] original = randomBytes(7 * SEGMENT_SIZE + 1);
+        Path plain = Files.write(tempDir.resolve("plain"), original);
+        Path container = tempDir.resolve("plain.tks");
+        Path decrypted = tempDir.resolve("plain.out");
+
+        // Act
+        SegmentedEncryptor.encryptFile(plain, container, aesKey, rsaKeyPair.getPublicKey(), rsaKeyPair.getModulus(), SEGMENT_SIZE, pool);
+        SegmentedEncryptor.decryptFile(container, decrypted, rsaKeyPair.getPrivateKeyRSA(), pool);
+        byte[] viaByteArray = SegmentedEncryptor.decrypt(Files.readAllBytes(container), rsaKeyPair.getPrivateKeyRSA(), pool);
+        byte[] segment = SegmentedEncryptor.decryptSegment(container, 2, rsaKeyPair.getPrivateKeyRSA());
+
+        // Assert
+        assertAll(
+                () -> assertArrayEquals(original, Files.readAllBytes(decrypted)),
+                () -> assertArrayEquals(original, viaByteArray),
+                () -> assertArrayEquals(Arrays.copyOfRange(original, 2 * SEGMENT_SIZE, 3 * SEGMENT_SIZE), segment)
+        );
+    }
+}
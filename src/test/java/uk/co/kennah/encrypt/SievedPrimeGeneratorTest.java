@@ -0,0 +1,74 @@
+package uk.co.kennah.encrypt;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.RepeatedTest;
+import org.junit.jupiter.api.Test;
+import uk.co.kennah.encrypt.utils.KeGenRSA;
+import uk.co.kennah.encrypt.utils.SievedPrimeGenerator;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SievedPrimeGeneratorTest {
+
+    private final SecureRandom random = new SecureRandom();
+
+    @RepeatedTest(5)
+    @DisplayName("Should generate primes of exactly the requested bit length with the top two bits set")
+    void testGeneratesFullLengthPrimes() {
+        BigInteger prime = new SievedPrimeGenerator().generate(512, random);
+
+        assertAll(
+                () -> assertEquals(512, prime.bitLength()),
+                () -> assertTrue(prime.testBit(510), "Second-highest bit should be set"),
+                () -> assertTrue(prime.isProbablePrime(100), "Result should be prime")
+        );
+    }
+
+    @Test
+    @DisplayName("Should fall back to BigInteger.probablePrime for tiny bit lengths")
+    void testSmallBitLength() {
+        BigInteger prime = new SievedPrimeGenerator().generate(16, random);
+        assertAll(
+                () -> assertEquals(16, prime.bitLength()),
+                () -> assertTrue(prime.isProbablePrime(100))
+        );
+    }
+
+    @Test
+    @DisplayName("Should search windows in parallel when given an executor")
+    void testParallelSearch() {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            BigInteger prime = new SievedPrimeGenerator(1024, executor, 4).generate(768, random);
+            assertAll(
+                    () -> assertEquals(768, prime.bitLength()),
+                    () -> assertTrue(prime.isProbablePrime(100))
+            );
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    @DisplayName("Key pairs built through the generatePrime hook should have full-length moduli and work")
+    void testKeyPairThroughHook() {
+        // Arrange
+        KeGenRSA keyPair = new SievedPrimeGenerator().newKeyPair(1024);
+        BigInteger message = new BigInteger(1, "sieved".getBytes(StandardCharsets.UTF_8));
+
+        // Act
+        BigInteger ciphertext = message.modPow(keyPair.getPublicKey(), keyPair.getModulus());
+
+        // Assert
+        assertAll(
+                () -> assertEquals(1024, keyPair.getModulus().bitLength(), "Top two bits set on p and q give a full-length n"),
+                () -> assertEquals(message, ciphertext.modPow(keyPair.getPrivateKey(), keyPair.getModulus()))
+        );
+    }
+}